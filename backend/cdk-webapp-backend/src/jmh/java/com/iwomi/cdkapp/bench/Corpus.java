@@ -0,0 +1,45 @@
+package com.iwomi.cdkapp.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed SMILES corpora used by the benchmarks, loaded from src/jmh/resources/corpus.
+ * Keeping the inputs fixed is what makes reports comparable between releases.
+ */
+final class Corpus {
+
+    private Corpus() {
+    }
+
+    /**
+     * @param name corpus name: small, druglike or macrocycle
+     * @return the SMILES of the corpus, in file order
+     */
+    static String[] load(String name) {
+        String resource = "/corpus/" + name + ".smi";
+        try (InputStream in = Corpus.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Unknown corpus: " + name);
+            }
+            List<String> smiles = new ArrayList<>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    smiles.add(line.split("\\s+")[0]);
+                }
+            }
+            return smiles.toArray(new String[0]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.iwomi.cdkapp.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.qsar.DescriptorValue;
+import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
+
+import com.iwomi.cdkapp.util.CDKDescriptorLister;
+import com.iwomi.cdkapp.util.CDKToolkitPool;
+import com.iwomi.cdkapp.util.DescriptorRegistry;
+
+/**
+ * Throughput of each descriptor of the registry on its own, on molecules prepared
+ * the way MoleculeServiceImpl prepares them. Every invocation works on a clone, as
+ * the service does, because some descriptors modify their input.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DescriptorBenchmark {
+
+    private static final String PACKAGE = "org.openscience.cdk.qsar.descriptors.molecular.";
+
+    @Param({ "druglike" })
+    public String corpus;
+
+    // The descriptors of CDKDescriptorLister, by simple class name
+    @Param({ "ALOGPDescriptor", "APolDescriptor", "AcidicGroupCountDescriptor",
+            "AromaticAtomsCountDescriptor", "AromaticBondsCountDescriptor", "AtomCountDescriptor",
+            "AutocorrelationDescriptorCharge", "AutocorrelationDescriptorMass",
+            "AutocorrelationDescriptorPolarizability", "BasicGroupCountDescriptor", "BCUTDescriptor",
+            "BondCountDescriptor", "CarbonTypesDescriptor", "CPSADescriptor", "ChiPathClusterDescriptor",
+            "ChiPathDescriptor", "EccentricConnectivityIndexDescriptor", "FMFDescriptor",
+            "FragmentComplexityDescriptor", "HBondAcceptorCountDescriptor", "HBondDonorCountDescriptor",
+            "KappaShapeIndicesDescriptor", "KierHallSmartsDescriptor", "LargestChainDescriptor",
+            "LargestPiSystemDescriptor", "LengthOverBreadthDescriptor", "LongestAliphaticChainDescriptor",
+            "MDEDescriptor", "MomentOfInertiaDescriptor", "PetitjeanNumberDescriptor",
+            "PetitjeanShapeIndexDescriptor", "RotatableBondsCountDescriptor", "RuleOfFiveDescriptor",
+            "SmallRingDescriptor", "TPSADescriptor", "VAdjMaDescriptor", "WeightDescriptor",
+            "WHIMDescriptor", "WienerNumbersDescriptor", "XLogPDescriptor", "ZagrebIndexDescriptor" })
+    public String descriptor;
+
+    private DescriptorRegistry.Entry entry;
+    private IAtomContainer[] molecules;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws CDKException {
+        entry = new CDKDescriptorLister().getRegistry().find(PACKAGE + descriptor);
+        if (entry == null) {
+            throw new IllegalArgumentException("Descriptor not in registry: " + descriptor);
+        }
+
+        CDKToolkitPool toolkit = new CDKToolkitPool();
+        String[] smiles = Corpus.load(corpus);
+        molecules = new IAtomContainer[smiles.length];
+        for (int i = 0; i < smiles.length; i++) {
+            IAtomContainer molecule = toolkit.generateCoordinates(toolkit.parseSmiles(smiles[i]));
+            AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(molecule);
+            AtomContainerManipulator.convertImplicitToExplicitHydrogens(molecule);
+            molecules[i] = molecule;
+        }
+    }
+
+    @Benchmark
+    public DescriptorValue calculate() throws CloneNotSupportedException {
+        IAtomContainer molecule = molecules[next];
+        next = (next + 1) % molecules.length;
+        return entry.newInstance().calculate(molecule.clone());
+    }
+}
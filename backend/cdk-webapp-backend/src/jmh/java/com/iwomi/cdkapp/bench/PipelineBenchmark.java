@@ -0,0 +1,208 @@
+package com.iwomi.cdkapp.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+
+import com.iwomi.cdkapp.model.Descriptor;
+import com.iwomi.cdkapp.model.Molecule;
+import com.iwomi.cdkapp.service.PreparedMolecule;
+import com.iwomi.cdkapp.service.RenderOptions;
+import com.iwomi.cdkapp.service.impl.AdmissionControl;
+import com.iwomi.cdkapp.service.impl.DescriptorTable;
+import com.iwomi.cdkapp.service.impl.MoleculeCache;
+import com.iwomi.cdkapp.service.impl.MoleculeRenderer;
+import com.iwomi.cdkapp.service.impl.MoleculeServiceImpl;
+import com.iwomi.cdkapp.service.impl.MoleculeStore;
+import com.iwomi.cdkapp.service.impl.ParallelDescriptorCalculator;
+import com.iwomi.cdkapp.service.impl.PipelineMetrics;
+import com.iwomi.cdkapp.util.CDKDescriptorLister;
+import com.iwomi.cdkapp.util.CDKToolkitPool;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Throughput of each stage of the molecule pipeline, one corpus at a time.
+ * The result cache is disabled so every invocation does the real work. Stages
+ * that need earlier stages, and leave their mark on the molecule, take a fresh
+ * molecule from a pool filled before each iteration, outside the measurement.
+ * Per-invocation setup would be timed along with these short benchmarks, so they
+ * run as single shots of one batch per iteration, the batch as large as the pool,
+ * and are scored per molecule.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+
+    @Param({ "small", "druglike", "macrocycle" })
+    public String corpus;
+
+    private static final RenderOptions SVG = RenderOptions.of(RenderOptions.Format.SVG, 400, 300);
+
+    // Molecules per pool, and hence invocations per iteration of the pooled benchmarks
+    private static final int BATCH = 50;
+
+    private String[] smiles;
+    private IAtomContainer[] laidOut;
+    private int next;
+
+    private CDKToolkitPool toolkit;
+    private ParallelDescriptorCalculator calculator;
+    private MoleculeServiceImpl service;
+
+    @Setup(Level.Trial)
+    public void setUp() throws CDKException {
+        smiles = Corpus.load(corpus);
+        toolkit = new CDKToolkitPool();
+        PipelineMetrics metrics = new PipelineMetrics(new SimpleMeterRegistry());
+        calculator = new ParallelDescriptorCalculator(0, 60000, 600000, 1, metrics);
+        CDKDescriptorLister descriptorLister = new CDKDescriptorLister();
+        MoleculeStore store = new MoleculeStore(false, null, 0, metrics);
+        service = new MoleculeServiceImpl(toolkit, descriptorLister, calculator,
+                new MoleculeRenderer(metrics), new MoleculeCache(0, 0, 0, 0), store,
+                new DescriptorTable(descriptorLister, store, "", metrics),
+                new AdmissionControl(descriptorLister, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 1, 0, 0,
+                        "", metrics), metrics);
+
+        laidOut = new IAtomContainer[smiles.length];
+        for (int i = 0; i < smiles.length; i++) {
+            laidOut[i] = toolkit.generateCoordinates(toolkit.parseSmiles(smiles[i]));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        calculator.shutdown();
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = (next + 1) % smiles.length;
+        return index;
+    }
+
+    /**
+     * Freshly parsed molecules, one for each invocation of an iteration
+     */
+    @State(Scope.Thread)
+    public static class Parsed {
+        final IAtomContainer[] molecules = new IAtomContainer[BATCH];
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setUp(PipelineBenchmark benchmark) throws CDKException {
+            for (int i = 0; i < BATCH; i++) {
+                molecules[i] = benchmark.toolkit.parseSmiles(benchmark.smiles[benchmark.nextIndex()]);
+            }
+            next = 0;
+        }
+
+        IAtomContainer next() {
+            return molecules[next++];
+        }
+    }
+
+    /**
+     * Freshly prepared and laid out molecules, with no image or descriptors yet, one
+     * for each invocation of an iteration
+     */
+    @State(Scope.Thread)
+    public static class LaidOut {
+        final PreparedMolecule[] molecules = new PreparedMolecule[BATCH];
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setUp(PipelineBenchmark benchmark) {
+            for (int i = 0; i < BATCH; i++) {
+                molecules[i] = benchmark.service.prepare(benchmark.smiles[benchmark.nextIndex()]);
+                // The molfile needs the shared 2D layout, so this leaves the molecule laid out
+                benchmark.service.convertToMolfile(molecules[i]);
+            }
+            next = 0;
+        }
+
+        PreparedMolecule next() {
+            return molecules[next++];
+        }
+    }
+
+    @Benchmark
+    public IAtomContainer parse() throws CDKException {
+        return toolkit.parseSmiles(smiles[nextIndex()]);
+    }
+
+    @Benchmark
+    public PreparedMolecule prepare() {
+        return service.prepare(smiles[nextIndex()]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    @OperationsPerInvocation(BATCH)
+    public IAtomContainer layout(Parsed parsed) throws CDKException {
+        return toolkit.generateCoordinates(parsed.next());
+    }
+
+    @Benchmark
+    public String molfile() throws CDKException {
+        return toolkit.writeMolfile(laidOut[nextIndex()]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    @OperationsPerInvocation(BATCH)
+    public byte[] render(LaidOut molecules) {
+        return service.generateMoleculeImage(molecules.next());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    @OperationsPerInvocation(BATCH)
+    public byte[] renderSvg(LaidOut molecules) {
+        return service.generateMoleculeImage(molecules.next(), SVG);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    @OperationsPerInvocation(BATCH)
+    public List<Descriptor> descriptors(LaidOut molecules) {
+        return service.calculateDescriptors(molecules.next());
+    }
+
+    @Benchmark
+    public Molecule parseMoleculeFromSmiles() {
+        return service.parseMoleculeFromSmiles(smiles[nextIndex()]);
+    }
+}
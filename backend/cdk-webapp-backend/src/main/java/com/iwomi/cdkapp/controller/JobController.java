@@ -0,0 +1,244 @@
+package com.iwomi.cdkapp.controller;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.iwomi.cdkapp.model.JobStatus;
+import com.iwomi.cdkapp.service.BatchService;
+import com.iwomi.cdkapp.service.JobRejectedException;
+import com.iwomi.cdkapp.service.JobService;
+import com.iwomi.cdkapp.util.CDKDescriptorLister;
+
+/**
+ * Background descriptor jobs: submit a molecule set, poll its status, then read
+ * its results page by page or download them
+ */
+@RestController
+@RequestMapping("/api/jobs")
+@CrossOrigin(origins = "*") // For development only, restrict in production
+public class JobController {
+    
+    private static final int MAX_PAGE_SIZE = 1000;
+    
+    // Suggested wait before resubmitting a rejected job
+    private static final String RETRY_AFTER_SECONDS = "30";
+    
+    private final JobService jobService;
+    private final CDKDescriptorLister descriptorLister;
+    
+    @Autowired
+    public JobController(JobService jobService, CDKDescriptorLister descriptorLister) {
+        this.jobService = jobService;
+        this.descriptorLister = descriptorLister;
+    }
+    
+    /**
+     * Submit SMILES as JSON: {"smiles": [...], "descriptors": [...], "format": "vector"}
+     */
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JobStatus> submit(@RequestBody Map<String, Object> request) throws IOException {
+        Object smiles = request.get("smiles");
+        List<String> lines = new ArrayList<>();
+        if (smiles instanceof List) {
+            for (Object line : (List<?>) smiles) {
+                lines.add(String.valueOf(line));
+            }
+        } else if (smiles instanceof String) {
+            lines.addAll(Arrays.asList(((String) smiles).split("\n")));
+        }
+        if (lines.isEmpty()) {
+            throw new IllegalArgumentException("SMILES are required");
+        }
+        List<String> descriptors = descriptorSelection(request.get("descriptors"));
+        Object format = request.get("format");
+        return accepted(submit(target -> Files.write(target, lines, StandardCharsets.UTF_8), false,
+                BatchService.InputFormat.SMILES, descriptors, format == null ? "descriptors" : String.valueOf(format)));
+    }
+    
+    /**
+     * Submit a molecule file as the request body (application/octet-stream or
+     * text/plain, optionally with Content-Encoding: gzip)
+     */
+    @PostMapping(consumes = { MediaType.APPLICATION_OCTET_STREAM_VALUE, MediaType.TEXT_PLAIN_VALUE },
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JobStatus> submitFile(HttpServletRequest request,
+            @RequestParam(required = false) List<String> descriptors,
+            @RequestParam(defaultValue = "descriptors") String format,
+            @RequestParam(defaultValue = "smiles") String input) throws IOException {
+        boolean gzip = "gzip".equalsIgnoreCase(request.getHeader(HttpHeaders.CONTENT_ENCODING));
+        return accepted(submit(target -> Files.copy(request.getInputStream(), target), gzip,
+                BatchService.InputFormat.of(input), descriptors, format));
+    }
+    
+    /**
+     * Submit an uploaded molecule file; the format follows the file name (.smi,
+     * .sdf, optionally .gz) unless given as input
+     */
+    @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JobStatus> submitUpload(@RequestParam("file") MultipartFile file,
+            @RequestParam(required = false) List<String> descriptors,
+            @RequestParam(defaultValue = "descriptors") String format,
+            @RequestParam(required = false) String input) throws IOException {
+        if (file.isEmpty()) {
+            throw new IllegalArgumentException("File is empty");
+        }
+        String name = file.getOriginalFilename() == null ? "" : file.getOriginalFilename().toLowerCase(Locale.ROOT);
+        boolean gzip = name.endsWith(".gz");
+        if (gzip) {
+            name = name.substring(0, name.length() - 3);
+        }
+        BatchService.InputFormat inputFormat = input != null ? BatchService.InputFormat.of(input)
+                : name.endsWith(".sdf") || name.endsWith(".sd")
+                        ? BatchService.InputFormat.SDF : BatchService.InputFormat.SMILES;
+        return accepted(submit(file::transferTo, gzip, inputFormat, descriptors, format));
+    }
+    
+    private JobStatus submit(JobService.Upload upload, boolean gzip, BatchService.InputFormat input,
+            List<String> descriptors, String format) throws IOException {
+        // Reject unknown descriptor names and formats before anything is queued
+        descriptorLister.getRegistry().select(descriptors);
+        return jobService.submit(upload, gzip, input, descriptors, BatchService.OutputFormat.of(format));
+    }
+    
+    private static ResponseEntity<JobStatus> accepted(JobStatus status) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .header(HttpHeaders.LOCATION, "/api/jobs/" + status.getId())
+                .body(status);
+    }
+    
+    private static List<String> descriptorSelection(Object value) {
+        if (value instanceof List) {
+            List<String> names = new ArrayList<>();
+            for (Object name : (List<?>) value) {
+                names.add(String.valueOf(name));
+            }
+            return names;
+        }
+        if (value instanceof String) {
+            return Arrays.asList(((String) value).split(","));
+        }
+        return null;
+    }
+    
+    @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JobStatus> getStatus(@PathVariable String id) {
+        JobStatus status = jobService.getStatus(id);
+        return status == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(status);
+    }
+    
+    /**
+     * A page of a finished job's results, as {"offset", "limit", "total", "results": [...]}
+     */
+    @GetMapping(value = "/{id}/results", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> getResults(@PathVariable String id,
+            @RequestParam(defaultValue = "0") long offset,
+            @RequestParam(defaultValue = "100") int limit) throws IOException {
+        if (offset < 0 || limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("offset must be at least 0 and limit between 1 and " + MAX_PAGE_SIZE);
+        }
+        List<String> results = jobService.getResults(id, offset, limit);
+        if (results == null) {
+            return ResponseEntity.notFound().build();
+        }
+        
+        // Result lines are JSON already; they are copied, not parsed and serialized again
+        StringBuilder page = new StringBuilder(256 + results.size() * 512);
+        page.append("{\"offset\":").append(offset)
+                .append(",\"limit\":").append(limit)
+                .append(",\"total\":").append(jobService.getResultCount(id))
+                .append(",\"results\":[");
+        for (int i = 0; i < results.size(); i++) {
+            if (i > 0) page.append(',');
+            page.append(results.get(i));
+        }
+        page.append("]}");
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(page.toString());
+    }
+    
+    /**
+     * Download all results of a finished job as NDJSON
+     */
+    @GetMapping(value = "/{id}/download")
+    public ResponseEntity<Resource> download(@PathVariable String id) {
+        Path results = jobService.getResultsFile(id);
+        if (results == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + id + ".ndjson\"")
+                .body(new FileSystemResource(results));
+    }
+    
+    /**
+     * Download the descriptor matrix of a finished job submitted with format=matrix
+     */
+    @GetMapping(value = "/{id}/matrix")
+    public ResponseEntity<Resource> downloadMatrix(@PathVariable String id) {
+        Path matrix = jobService.getMatrixFile(id);
+        if (matrix == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + id + ".cdkm\"")
+                .body(new FileSystemResource(matrix));
+    }
+    
+    /**
+     * Cancel a queued or running job, or delete a finished one and its results
+     */
+    @DeleteMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JobStatus> cancel(@PathVariable String id) {
+        JobStatus status = jobService.cancel(id);
+        return status == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(status);
+    }
+    
+    @ExceptionHandler(JobRejectedException.class)
+    public ResponseEntity<Map<String, Object>> handleRejected(JobRejectedException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Map.of("error", e.getMessage()));
+    }
+    
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, Object>> handleIllegalArgument(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON)
+                .body(Map.of("error", e.getMessage()));
+    }
+    
+    @ExceptionHandler(IllegalStateException.class)
+    public ResponseEntity<Map<String, Object>> handleIllegalState(IllegalStateException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).contentType(MediaType.APPLICATION_JSON)
+                .body(Map.of("error", e.getMessage()));
+    }
+}
@@ -1,25 +1,76 @@
 package com.iwomi.cdkapp.controller;
 
-import java.util.Base64;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServletRequest;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.UriComponentsBuilder;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
 import com.iwomi.cdkapp.model.Descriptor;
+import com.iwomi.cdkapp.model.DescriptorQuery;
+import com.iwomi.cdkapp.model.DescriptorVector;
+import com.iwomi.cdkapp.model.IngestProgress;
 import com.iwomi.cdkapp.model.Molecule;
+import com.iwomi.cdkapp.model.SimilarityHit;
+import com.iwomi.cdkapp.model.SubstructureSearch;
+import com.iwomi.cdkapp.service.BatchService;
+import com.iwomi.cdkapp.service.ComputeService;
+import com.iwomi.cdkapp.service.DescriptorQueryService;
+import com.iwomi.cdkapp.service.FingerprintType;
+import com.iwomi.cdkapp.service.MoleculeImage;
+import com.iwomi.cdkapp.service.MoleculeRejectedException;
 import com.iwomi.cdkapp.service.MoleculeService;
+import com.iwomi.cdkapp.service.PreparedMolecule;
+import com.iwomi.cdkapp.service.RenderOptions;
+import com.iwomi.cdkapp.service.SimilarityService;
+import com.iwomi.cdkapp.service.SubstructureService;
 import com.iwomi.cdkapp.util.CDKDescriptorLister;
 
 @RestController
@@ -27,67 +78,646 @@ import com.iwomi.cdkapp.util.CDKDescriptorLister;
 @CrossOrigin(origins = "*") // For development only, restrict in production
 public class MoleculeController {
     
+    private static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    
+    private static final int MAX_SIMILARITY_HITS = 1000;
+    private static final int MAX_SUBSTRUCTURE_HITS = 100000;
+    private static final int MAX_QUERY_HITS = 10000;
+    
+    private static final String RETRY_AFTER_SECONDS = "30";
+    
     private final MoleculeService moleculeService;
+    private final ComputeService computeService;
+    private final BatchService batchService;
+    private final SimilarityService similarityService;
+    private final SubstructureService substructureService;
+    private final DescriptorQueryService queryService;
     private final CDKDescriptorLister descriptorLister;
+    private final ApplicationAvailability availability;
+    private final CacheControl imageCacheControl;
+    private final ObjectWriter progressWriter;
     
     @Autowired
-    public MoleculeController(MoleculeService moleculeService, CDKDescriptorLister descriptorLister) {
+    public MoleculeController(MoleculeService moleculeService, ComputeService computeService, BatchService batchService,
+            SimilarityService similarityService, SubstructureService substructureService,
+            DescriptorQueryService queryService, CDKDescriptorLister descriptorLister,
+            ApplicationAvailability availability, ObjectMapper objectMapper,
+            @Value("${cdk.images.max-age-seconds:86400}") long imageMaxAge) {
         this.moleculeService = moleculeService;
+        this.computeService = computeService;
+        this.batchService = batchService;
+        this.similarityService = similarityService;
+        this.substructureService = substructureService;
+        this.queryService = queryService;
         this.descriptorLister = descriptorLister;
+        this.availability = availability;
+        // Images are addressed by their content, so shared caches may keep them
+        this.imageCacheControl = CacheControl.maxAge(imageMaxAge, TimeUnit.SECONDS).cachePublic();
+        // NDJSON needs one record per line, whatever the global indent setting
+        this.progressWriter = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
     }
     
+    /**
+     * Parse a molecule. The optional "descriptors" field selects what to calculate,
+     * as a list or comma-separated string of descriptor ids, value names or groups.
+     * The optional "imageFormat", "imageWidth" and "imageHeight" fields select the
+     * depiction; a PNG is returned Base64-encoded as "imageBase64", an SVG as text
+     * in "imageSvg". With "image": "url" the depiction is not rendered; "imageUrl" is
+     * then the /image request for it, which clients and caches can fetch and keep.
+     * The molecule is worked on in the compute pool, which the request thread does
+     * not wait for.
+     */
     @PostMapping(value = "/parse", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Map<String, Object>> parseMolecule(@RequestBody Map<String, String> request) {
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> parseMolecule(
+            @RequestBody Map<String, Object> request) {
+        try {
+            return computeService.submit(() -> parse(request));
+        } catch (MoleculeRejectedException e) {
+            return CompletableFuture.completedFuture(handleRejected(e));
+        }
+    }
+    
+    private ResponseEntity<Map<String, Object>> parse(Map<String, Object> request) {
         try {
-            String smiles = request.get("smiles");
+            Object smilesValue = request.get("smiles");
+            String smiles = smilesValue instanceof String ? (String) smilesValue : null;
             if (smiles == null || smiles.trim().isEmpty()) {
                 return ResponseEntity.badRequest().body(Map.of("error", "SMILES string is required"));
             }
             
-            Molecule molecule = moleculeService.parseMoleculeFromSmiles(smiles);
-            
-            // Convert image to Base64 for JSON response
-            String imageBase64 = Base64.getEncoder().encodeToString(molecule.getImage());
+            List<String> descriptors = descriptorSelection(request.get("descriptors"));
+            RenderOptions options = renderOptions(request);
+            boolean imageUrl = imageUrl(request.get("image"));
+            PreparedMolecule prepared = moleculeService.prepare(smiles);
+            Molecule molecule = moleculeService.processMolecule(prepared, descriptors, imageUrl ? null : options);
+            // Indexed from the same structure, without holding up the response
+            similarityService.addProcessedLater(prepared, null);
             
             Map<String, Object> response = new HashMap<>();
             response.put("id", molecule.getId());
             response.put("smiles", molecule.getSmiles());
             response.put("molfile", molecule.getMolfile());
-            response.put("imageBase64", imageBase64);
+            // Images are written into the response as it is streamed out, without
+            // String or Base64 copies of them
+            if (imageUrl) {
+                response.put("imageUrl", imageUrl(smiles, options));
+            } else if (options.getFormat() == RenderOptions.Format.SVG) {
+                // SVG is UTF-8 text and goes into JSON as is
+                response.put("imageSvg", new Utf8Text(molecule.getImage()));
+            } else {
+                // Jackson writes byte arrays as Base64, encoding them on the fly
+                response.put("imageBase64", molecule.getImage());
+            }
             response.put("descriptors", molecule.getDescriptors());
             
             return ResponseEntity.ok(response);
+        } catch (MoleculeRejectedException e) {
+            return handleRejected(e);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(Map.of("error", "Error processing molecule: " + e.getMessage()));
         }
     }
     
+    /**
+     * Get a molecule stored by an earlier parse, by the id the parse returned: its
+     * molfile and descriptors (all, or those of the optional "descriptors" selection)
+     * as in the parse response, without the image
+     */
+    @GetMapping(value = "/stored/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Object>> getStoredMolecule(@PathVariable String id,
+            @RequestParam(required = false) List<String> descriptors) {
+        Molecule molecule = moleculeService.getStoredMolecule(id, descriptors);
+        if (molecule == null) {
+            return ResponseEntity.notFound().build();
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("id", molecule.getId());
+        response.put("smiles", molecule.getSmiles());
+        response.put("molfile", molecule.getMolfile());
+        response.put("descriptors", molecule.getDescriptors());
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * Get a stored molecule by structure; any SMILES of it finds it
+     */
+    @GetMapping(value = "/stored", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Object>> findStoredMolecule(@RequestParam String smiles,
+            @RequestParam(required = false) List<String> descriptors) {
+        String id;
+        try {
+            id = moleculeService.getStoredMoleculeId(smiles);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        if (id == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return getStoredMolecule(id, descriptors);
+    }
+    
+    /**
+     * @param image "inline" (the default) or "url"
+     * @return whether the image is referenced by URL rather than included
+     */
+    private static boolean imageUrl(Object image) {
+        if (image == null || "inline".equalsIgnoreCase(String.valueOf(image).trim())) {
+            return false;
+        }
+        if ("url".equalsIgnoreCase(String.valueOf(image).trim())) {
+            return true;
+        }
+        throw new IllegalArgumentException("Unknown image mode: " + image + " (expected inline or url)");
+    }
+    
+    private static String imageUrl(String smiles, RenderOptions options) {
+        // As a URI variable the SMILES is encoded strictly, including '+', '#' and '='
+        return UriComponentsBuilder.fromPath("/api/molecules/image")
+                .queryParam("smiles", "{smiles}")
+                .queryParam("format", options.getFormat().name().toLowerCase(Locale.ROOT))
+                .queryParam("width", options.getWidth())
+                .queryParam("height", options.getHeight())
+                .encode()
+                .buildAndExpand(smiles)
+                .toUriString();
+    }
+    
+    /**
+     * UTF-8 text written into JSON as a string, escaped as it is written, without
+     * being decoded into a String first
+     */
+    private static final class Utf8Text implements JsonSerializable {
+        
+        private final byte[] text;
+        
+        Utf8Text(byte[] text) {
+            this.text = text;
+        }
+        
+        @Override
+        public void serialize(JsonGenerator generator, SerializerProvider serializers) throws IOException {
+            generator.writeUTF8String(text, 0, text.length);
+        }
+        
+        @Override
+        public void serializeWithType(JsonGenerator generator, SerializerProvider serializers,
+                TypeSerializer typeSerializer) throws IOException {
+            serialize(generator, serializers);
+        }
+    }
+    
+    private static RenderOptions renderOptions(Map<String, Object> request) {
+        Object format = request.get("imageFormat");
+        Object width = request.get("imageWidth");
+        Object height = request.get("imageHeight");
+        if (format == null && width == null && height == null) {
+            return RenderOptions.DEFAULT;
+        }
+        try {
+            return RenderOptions.of(
+                    format == null ? RenderOptions.DEFAULT.getFormat().name() : String.valueOf(format),
+                    width == null ? RenderOptions.DEFAULT.getWidth() : Integer.parseInt(String.valueOf(width)),
+                    height == null ? RenderOptions.DEFAULT.getHeight() : Integer.parseInt(String.valueOf(height)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Image size must be a whole number of pixels");
+        }
+    }
+    
+    private static List<String> descriptorSelection(Object value) {
+        if (value instanceof List) {
+            List<String> names = new ArrayList<>();
+            for (Object name : (List<?>) value) {
+                names.add(String.valueOf(name));
+            }
+            return names;
+        }
+        if (value instanceof String) {
+            return Arrays.asList(((String) value).split(","));
+        }
+        return null;
+    }
+    
+    /**
+     * Find the calculated molecules whose descriptors meet every condition of a
+     * filter, e.g. filter=MW>=300,MW<=500,TopoPSA<90,nRotB<=10
+     */
+    @GetMapping(value = "/query", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<DescriptorQuery> queryDescriptors(@RequestParam String filter,
+            @RequestParam(defaultValue = "100") int limit) {
+        if (limit < 0 || limit > MAX_QUERY_HITS) {
+            throw new IllegalArgumentException("limit must be between 0 and " + MAX_QUERY_HITS);
+        }
+        return ResponseEntity.ok(queryService.query(filter, limit));
+    }
+    
+    @GetMapping(value = "/query/columns", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<String>> getQueryColumns() {
+        return ResponseEntity.ok(queryService.getColumns());
+    }
+    
+    /**
+     * Process a newline-delimited SMILES body (or an SD file with input=sdf),
+     * streaming one NDJSON line per molecule
+     */
+    @PostMapping(value = "/batch", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<StreamingResponseBody> processBatch(HttpServletRequest request,
+            @RequestParam(required = false) List<String> descriptors,
+            @RequestParam(defaultValue = "descriptors") String format,
+            @RequestParam(defaultValue = "smiles") String input) {
+        // Reject unknown descriptor names before the response starts streaming
+        descriptorLister.getRegistry().select(descriptors);
+        BatchService.OutputFormat outputFormat = streamingFormat(format);
+        BatchService.InputFormat inputFormat = BatchService.InputFormat.of(input);
+        StreamingResponseBody body = output -> batchService.process(
+                new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8), inputFormat, output,
+                descriptors, outputFormat);
+        return ResponseEntity.ok().contentType(APPLICATION_NDJSON).body(body);
+    }
+    
+    /**
+     * Process an uploaded SMILES or SD file, streaming one NDJSON line per molecule
+     */
+    @PostMapping(value = "/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<StreamingResponseBody> processBatchFile(@RequestParam("file") MultipartFile file,
+            @RequestParam(required = false) List<String> descriptors,
+            @RequestParam(defaultValue = "descriptors") String format,
+            @RequestParam(required = false) String input) {
+        if (file.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        descriptorLister.getRegistry().select(descriptors);
+        BatchService.OutputFormat outputFormat = streamingFormat(format);
+        BatchService.InputFormat inputFormat = inputFormat(input, file.getOriginalFilename());
+        StreamingResponseBody body = output -> batchService.process(
+                new InputStreamReader(upload(file), StandardCharsets.UTF_8), inputFormat, output,
+                descriptors, outputFormat);
+        return ResponseEntity.ok().contentType(APPLICATION_NDJSON).body(body);
+    }
+    
+    /**
+     * Ingest a molecule file of any size sent as the request body: results go to a
+     * file on the server, and the response streams NDJSON progress lines, the last
+     * one with done=true. A gzip-compressed body is accepted with Content-Encoding: gzip.
+     */
+    @PostMapping(value = "/ingest")
+    public ResponseEntity<StreamingResponseBody> ingest(HttpServletRequest request,
+            @RequestParam(required = false) List<String> descriptors,
+            @RequestParam(defaultValue = "descriptors") String format,
+            @RequestParam(defaultValue = "smiles") String input) {
+        descriptorLister.getRegistry().select(descriptors);
+        BatchService.OutputFormat outputFormat = BatchService.OutputFormat.of(format);
+        BatchService.InputFormat inputFormat = BatchService.InputFormat.of(input);
+        boolean gzip = "gzip".equalsIgnoreCase(request.getHeader(HttpHeaders.CONTENT_ENCODING));
+        StreamingResponseBody body = output -> {
+            InputStream in = request.getInputStream();
+            batchService.ingest(gzip ? new GZIPInputStream(in, 64 * 1024) : in, inputFormat, descriptors, outputFormat,
+                    progress -> writeLine(output, progress));
+        };
+        return ResponseEntity.ok().contentType(APPLICATION_NDJSON).body(body);
+    }
+    
+    /**
+     * Ingest an uploaded molecule file; the format follows the file name (.smi,
+     * .sdf, optionally .gz) unless given as input
+     */
+    @PostMapping(value = "/ingest", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<StreamingResponseBody> ingestFile(@RequestParam("file") MultipartFile file,
+            @RequestParam(required = false) List<String> descriptors,
+            @RequestParam(defaultValue = "descriptors") String format,
+            @RequestParam(required = false) String input) {
+        if (file.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        descriptorLister.getRegistry().select(descriptors);
+        BatchService.OutputFormat outputFormat = BatchService.OutputFormat.of(format);
+        BatchService.InputFormat inputFormat = inputFormat(input, file.getOriginalFilename());
+        StreamingResponseBody body = output -> batchService.ingest(upload(file), inputFormat, descriptors, outputFormat,
+                progress -> writeLine(output, progress));
+        return ResponseEntity.ok().contentType(APPLICATION_NDJSON).body(body);
+    }
+    
+    /**
+     * Download the NDJSON results of a finished ingest run
+     */
+    @GetMapping(value = "/ingest/{id}")
+    public ResponseEntity<Resource> getIngestResults(@PathVariable String id) {
+        Path results = batchService.getIngestResults(id);
+        if (results == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(APPLICATION_NDJSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + results.getFileName() + "\"")
+                .body(new FileSystemResource(results));
+    }
+    
+    /**
+     * Download the descriptor matrix of a finished ingest run with format=matrix
+     */
+    @GetMapping(value = "/ingest/{id}/matrix")
+    public ResponseEntity<Resource> getIngestMatrix(@PathVariable String id) {
+        Path matrix = batchService.getIngestMatrix(id);
+        if (matrix == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + matrix.getFileName() + "\"")
+                .body(new FileSystemResource(matrix));
+    }
+    
+    /**
+     * Find the indexed molecules most similar to a SMILES by Tanimoto similarity of
+     * their ECFP4 (the default) or MACCS fingerprints
+     */
+    @GetMapping(value = "/similar", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Object>> findSimilar(@RequestParam String smiles,
+            @RequestParam(defaultValue = "ecfp4") String fingerprint,
+            @RequestParam(defaultValue = "10") int k,
+            @RequestParam(defaultValue = "0") double threshold) {
+        if (smiles.trim().isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "SMILES string is required"));
+        }
+        if (k < 1 || k > MAX_SIMILARITY_HITS) {
+            return ResponseEntity.badRequest().body(Map.of("error", "k must be between 1 and " + MAX_SIMILARITY_HITS));
+        }
+        FingerprintType type = FingerprintType.of(fingerprint);
+        try {
+            List<SimilarityHit> hits = similarityService.search(smiles, type, k, threshold);
+            
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("smiles", smiles);
+            response.put("fingerprint", type.name().toLowerCase(Locale.ROOT));
+            response.put("indexed", similarityService.getIndexSizes().get(type.name().toLowerCase(Locale.ROOT)));
+            response.put("hits", hits);
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Error processing molecule: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * Find the indexed molecules containing a fragment. Matches stream back as NDJSON
+     * lines as they are confirmed, followed by a summary line with done=true that
+     * tells whether the hit limit or the time budget cut the search short.
+     */
+    @GetMapping(value = "/substructure")
+    public ResponseEntity<StreamingResponseBody> findSubstructure(@RequestParam String smiles,
+            @RequestParam(defaultValue = "1000") int limit) {
+        if (smiles.trim().isEmpty()) {
+            throw new IllegalArgumentException("SMILES string is required");
+        }
+        if (limit < 1 || limit > MAX_SUBSTRUCTURE_HITS) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_SUBSTRUCTURE_HITS);
+        }
+        try {
+            // Reject a bad query before the response is committed
+            moleculeService.prepare(smiles);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        StreamingResponseBody body = output -> {
+            SubstructureSearch search = substructureService.search(smiles, limit,
+                    match -> writeLine(output, match));
+            writeLine(output, search);
+        };
+        return ResponseEntity.ok().contentType(APPLICATION_NDJSON).body(body);
+    }
+    
+    /**
+     * Add the molecules of a file sent as the request body to the structure search index;
+     * the response streams NDJSON progress lines like /ingest
+     */
+    @PostMapping(value = "/similar/index")
+    public ResponseEntity<StreamingResponseBody> indexMolecules(HttpServletRequest request,
+            @RequestParam(defaultValue = "smiles") String input) {
+        BatchService.InputFormat inputFormat = BatchService.InputFormat.of(input);
+        boolean gzip = "gzip".equalsIgnoreCase(request.getHeader(HttpHeaders.CONTENT_ENCODING));
+        StreamingResponseBody body = output -> {
+            InputStream in = request.getInputStream();
+            batchService.index(gzip ? new GZIPInputStream(in, 64 * 1024) : in, inputFormat,
+                    progress -> writeLine(output, progress));
+        };
+        return ResponseEntity.ok().contentType(APPLICATION_NDJSON).body(body);
+    }
+    
+    /**
+     * Add the molecules of an uploaded file to the structure search index
+     */
+    @PostMapping(value = "/similar/index", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<StreamingResponseBody> indexMoleculeFile(@RequestParam("file") MultipartFile file,
+            @RequestParam(required = false) String input) {
+        if (file.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        BatchService.InputFormat inputFormat = inputFormat(input, file.getOriginalFilename());
+        StreamingResponseBody body = output -> batchService.index(upload(file), inputFormat,
+                progress -> writeLine(output, progress));
+        return ResponseEntity.ok().contentType(APPLICATION_NDJSON).body(body);
+    }
+    
+    /**
+     * Number of indexed molecules per fingerprint
+     */
+    @GetMapping(value = "/similar/index", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Integer>> getIndexSizes() {
+        return ResponseEntity.ok(similarityService.getIndexSizes());
+    }
+    
+    private void writeLine(OutputStream output, Object line) throws IOException {
+        output.write(progressWriter.writeValueAsBytes(line));
+        output.write('\n');
+        output.flush();
+    }
+    
+    private static InputStream upload(MultipartFile file) throws IOException {
+        String name = file.getOriginalFilename();
+        InputStream in = file.getInputStream();
+        return name != null && name.toLowerCase(Locale.ROOT).endsWith(".gz") ? new GZIPInputStream(in, 64 * 1024) : in;
+    }
+    
+    private static BatchService.InputFormat inputFormat(String input, String filename) {
+        if (input != null) {
+            return BatchService.InputFormat.of(input);
+        }
+        String name = filename == null ? "" : filename.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - 3);
+        }
+        return name.endsWith(".sdf") || name.endsWith(".sd")
+                ? BatchService.InputFormat.SDF : BatchService.InputFormat.SMILES;
+    }
+    
+    private static BatchService.OutputFormat streamingFormat(String format) {
+        BatchService.OutputFormat outputFormat = BatchService.OutputFormat.of(format);
+        if (outputFormat == BatchService.OutputFormat.MATRIX) {
+            throw new IllegalArgumentException("Matrix output is written to a file; use /ingest or /api/jobs");
+        }
+        return outputFormat;
+    }
+    
+    /**
+     * Calculate a numeric descriptor vector, one value per column of /descriptors/columns.
+     * Takes the same body as /parse; NaN values are written as null.
+     */
+    @PostMapping(value = "/vector", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<DescriptorVector> getDescriptorVector(@RequestBody Map<String, Object> request) {
+        List<String> descriptors = descriptorSelection(request.get("descriptors"));
+        DescriptorVector vector = moleculeService.calculateDescriptorVector(prepare(request), descriptors);
+        vector.setColumns(moleculeService.getDescriptorColumns(descriptors));
+        return ResponseEntity.ok(vector);
+    }
+    
+    /**
+     * Calculate a numeric descriptor vector as raw little-endian float64 values, one
+     * per column of /descriptors/columns. Values that could not be calculated are NaN.
+     */
+    @PostMapping(value = "/vector", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<byte[]> getDescriptorVectorBinary(@RequestBody Map<String, Object> request) {
+        List<String> descriptors = descriptorSelection(request.get("descriptors"));
+        double[] values = moleculeService.calculateDescriptorVector(prepare(request), descriptors).getValues();
+        
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asDoubleBuffer().put(values);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header("X-Descriptor-Columns", String.valueOf(values.length))
+                .body(buffer.array());
+    }
+    
+    private PreparedMolecule prepare(Map<String, Object> request) {
+        Object smiles = request.get("smiles");
+        if (!(smiles instanceof String) || ((String) smiles).trim().isEmpty()) {
+            throw new IllegalArgumentException("SMILES string is required");
+        }
+        return moleculeService.prepare((String) smiles);
+    }
+    
+    @GetMapping(value = "/descriptors/columns", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<String>> getDescriptorColumns(@RequestParam(required = false) List<String> descriptors) {
+        return ResponseEntity.ok(moleculeService.getDescriptorColumns(descriptors));
+    }
+    
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, Object>> handleIllegalArgument(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON)
+                .body(Map.of("error", e.getMessage()));
+    }
+    
+    @ExceptionHandler(MoleculeRejectedException.class)
+    public ResponseEntity<Map<String, Object>> handleRejected(MoleculeRejectedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Map.of("error", e.getMessage()));
+    }
+    
+    /**
+     * 503 STARTING until the startup warm-up is done and the application accepts
+     * traffic, so load balancers only route to warmed-up instances
+     */
     @GetMapping(value = "/health", produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<Map<String, Object>> healthCheck() {
         Map<String, Object> response = new HashMap<>();
+        if (availability.getReadinessState() != ReadinessState.ACCEPTING_TRAFFIC) {
+            response.put("status", "STARTING");
+            response.put("message", "CDK Backend API is warming up");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response);
+        }
         response.put("status", "UP");
         response.put("message", "CDK Backend API is running");
         return ResponseEntity.ok(response);
     }
     
-    @GetMapping(value = "/image", produces = MediaType.IMAGE_PNG_VALUE)
-    public ResponseEntity<byte[]> getMoleculeImage(@RequestParam String smiles) {
+    /**
+     * Depict a molecule as SVG (the default) or PNG, at the requested size in pixels.
+     * Responses carry a strong ETag of the canonical structure and render options,
+     * so clients and caches revalidate with If-None-Match and get 304 without the
+     * image being looked up or rendered. Images are looked up and rendered in the
+     * compute pool, as for /parse; the request and response are only used on the
+     * container's thread, so If-None-Match is read here and compared in the pool.
+     */
+    @GetMapping(value = "/image")
+    public CompletableFuture<ResponseEntity<byte[]>> getMoleculeImage(@RequestParam String smiles,
+            @RequestParam(defaultValue = "svg") String format,
+            @RequestParam(defaultValue = "400") int width,
+            @RequestParam(defaultValue = "300") int height,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        try {
+            return computeService.submit(() -> image(smiles, format, width, height, ifNoneMatch));
+        } catch (MoleculeRejectedException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                    .<byte[]>body(null));
+        }
+    }
+    
+    private ResponseEntity<byte[]> image(String smiles, String format, int width, int height, String ifNoneMatch) {
         try {
             if (smiles == null || smiles.trim().isEmpty()) {
                 return ResponseEntity.badRequest().body(null);
             }
+            RenderOptions options;
+            try {
+                options = RenderOptions.of(format, width, height);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(null);
+            }
             
-            Molecule molecule = new Molecule();
-            molecule.setSmiles(smiles);
-            
-            byte[] imageData = moleculeService.generateMoleculeImage(molecule);
-            return ResponseEntity.ok(imageData);
+            MoleculeImage image = moleculeService.getMoleculeImage(smiles, options);
+            if (matches(ifNoneMatch, image.getTag())) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .eTag(image.getTag())
+                        .cacheControl(imageCacheControl)
+                        .build();
+            }
+            return ResponseEntity.ok()
+                    .eTag(image.getTag())
+                    .cacheControl(imageCacheControl)
+                    .contentType(MediaType.parseMediaType(options.getFormat().getMediaType()))
+                    .body(image.getData());
+        } catch (MoleculeRejectedException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                    .body(null);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(null);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
         }
     }
     
+    /**
+     * Whether an If-None-Match header names the tag: "*" or any listed entity tag,
+     * compared weakly as the header requires
+     */
+    private static boolean matches(String ifNoneMatch, String tag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals('"' + tag + '"')) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    @GetMapping(value = "/cache/stats", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Object>> getCacheStatistics() {
+        return ResponseEntity.ok(moleculeService.getCacheStatistics());
+    }
+    
     @GetMapping(value = "/descriptors", produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<List<Descriptor>> getAllDescriptors() {
         try {
@@ -0,0 +1,103 @@
+package com.iwomi.cdkapp.model;
+
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+/**
+ * Represents the outcome for one input record of a batch run
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchResult {
+    
+    private long index;
+    private String smiles;
+    private String name;
+    private String id;
+    private List<Descriptor> descriptors;
+    @JsonSerialize(using = DescriptorVector.ValuesSerializer.class)
+    private double[] values;
+    private Map<String, String> errors;
+    private String error;
+    
+    public BatchResult() {
+    }
+    
+    public BatchResult(long index, String smiles, String name) {
+        this.index = index;
+        this.smiles = smiles;
+        this.name = name;
+    }
+
+    public long getIndex() {
+        return index;
+    }
+
+    public void setIndex(long index) {
+        this.index = index;
+    }
+
+    public String getSmiles() {
+        return smiles;
+    }
+
+    public void setSmiles(String smiles) {
+        this.smiles = smiles;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public List<Descriptor> getDescriptors() {
+        return descriptors;
+    }
+
+    public void setDescriptors(List<Descriptor> descriptors) {
+        this.descriptors = descriptors;
+    }
+
+    /**
+     * @return the numeric descriptor vector, when requested instead of formatted descriptors
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    public void setValues(double[] values) {
+        this.values = values;
+    }
+
+    /**
+     * @return descriptor error messages by id, alongside a numeric vector
+     */
+    public Map<String, String> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(Map<String, String> errors) {
+        this.errors = errors;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,58 @@
+package com.iwomi.cdkapp.model;
+
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Represents one calculated molecule found by a descriptor query
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DescriptorHit {
+
+    private String id;
+    private String smiles;
+    private Map<String, Double> values;
+
+    public DescriptorHit() {
+    }
+
+    public DescriptorHit(String id, String smiles, Map<String, Double> values) {
+        this.id = id;
+        this.smiles = smiles;
+        this.values = values;
+    }
+
+    /**
+     * @return the id of the molecule in the molecule store, if it was parsed
+     */
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    /**
+     * @return the SMILES the descriptors were first calculated for
+     */
+    public String getSmiles() {
+        return smiles;
+    }
+
+    public void setSmiles(String smiles) {
+        this.smiles = smiles;
+    }
+
+    /**
+     * @return the values of the columns the query has conditions on
+     */
+    public Map<String, Double> getValues() {
+        return values;
+    }
+
+    public void setValues(Map<String, Double> values) {
+        this.values = values;
+    }
+}
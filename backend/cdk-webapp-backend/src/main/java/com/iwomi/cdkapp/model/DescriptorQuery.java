@@ -0,0 +1,71 @@
+package com.iwomi.cdkapp.model;
+
+import java.util.List;
+
+/**
+ * Outcome of a descriptor range query: the conditions as understood, how many
+ * molecules were searched and matched, and the first matches
+ */
+public class DescriptorQuery {
+    
+    private List<String> conditions;
+    private long rows;
+    private long matches;
+    private List<DescriptorHit> hits;
+    private long elapsedMs;
+    
+    public DescriptorQuery() {
+    }
+
+    /**
+     * @return one closed range per column, e.g. "300.0 <= MW <= 500.0"
+     */
+    public List<String> getConditions() {
+        return conditions;
+    }
+
+    public void setConditions(List<String> conditions) {
+        this.conditions = conditions;
+    }
+
+    /**
+     * @return molecules in the descriptor table when the query ran
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    public void setRows(long rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * @return molecules meeting every condition, including those beyond the hit limit
+     */
+    public long getMatches() {
+        return matches;
+    }
+
+    public void setMatches(long matches) {
+        this.matches = matches;
+    }
+
+    /**
+     * @return the first matches, in the order the molecules were calculated
+     */
+    public List<DescriptorHit> getHits() {
+        return hits;
+    }
+
+    public void setHits(List<DescriptorHit> hits) {
+        this.hits = hits;
+    }
+
+    public long getElapsedMs() {
+        return elapsedMs;
+    }
+
+    public void setElapsedMs(long elapsedMs) {
+        this.elapsedMs = elapsedMs;
+    }
+}
@@ -0,0 +1,100 @@
+package com.iwomi.cdkapp.model;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * Numeric descriptor values of one molecule, one value per schema column.
+ * Values that could not be calculated are NaN and serialized as null.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DescriptorVector {
+
+    private String smiles;
+    private List<String> columns;
+    @JsonSerialize(using = ValuesSerializer.class)
+    private double[] values;
+    private Map<String, String> errors;
+
+    public DescriptorVector() {
+    }
+
+    public DescriptorVector(String smiles, List<String> columns, double[] values, Map<String, String> errors) {
+        this.smiles = smiles;
+        this.columns = columns;
+        this.values = values;
+        this.errors = errors;
+    }
+
+    public String getSmiles() {
+        return smiles;
+    }
+
+    public void setSmiles(String smiles) {
+        this.smiles = smiles;
+    }
+
+    /**
+     * @return the column names, in value order
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public void setColumns(List<String> columns) {
+        this.columns = columns;
+    }
+
+    public double[] getValues() {
+        return values;
+    }
+
+    public void setValues(double[] values) {
+        this.values = values;
+    }
+
+    /**
+     * @return error or timeout messages by descriptor id, or null if all succeeded
+     */
+    public Map<String, String> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(Map<String, String> errors) {
+        this.errors = errors;
+    }
+
+    /**
+     * Writes a double array as JSON numbers, with null for NaN and infinities,
+     * which JSON cannot represent
+     */
+    public static class ValuesSerializer extends StdSerializer<double[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        public ValuesSerializer() {
+            super(double[].class);
+        }
+
+        @Override
+        public void serialize(double[] values, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            generator.writeStartArray(values, values.length);
+            for (double value : values) {
+                if (Double.isFinite(value)) {
+                    generator.writeNumber(value);
+                } else {
+                    generator.writeNull();
+                }
+            }
+            generator.writeEndArray();
+        }
+    }
+}
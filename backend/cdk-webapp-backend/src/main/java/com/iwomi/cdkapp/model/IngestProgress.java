@@ -0,0 +1,107 @@
+package com.iwomi.cdkapp.model;
+
+/**
+ * Progress of an ingest run: records read from the input, records finished and
+ * how many of those failed
+ */
+public class IngestProgress {
+    
+    private String id;
+    private String format;
+    private long read;
+    private long processed;
+    private long failed;
+    private long bytesRead;
+    private long elapsedMs;
+    private boolean done;
+    
+    public IngestProgress() {
+    }
+    
+    public IngestProgress(String id, String format) {
+        this.id = id;
+        this.format = format;
+    }
+
+    /**
+     * @return the run id, which also names its results file
+     */
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    /**
+     * @return records read from the input so far
+     */
+    public long getRead() {
+        return read;
+    }
+
+    public void setRead(long read) {
+        this.read = read;
+    }
+
+    /**
+     * @return records whose result has been written
+     */
+    public long getProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(long processed) {
+        this.processed = processed;
+    }
+
+    /**
+     * @return processed records that could not be read or calculated
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    public void setFailed(long failed) {
+        this.failed = failed;
+    }
+
+    /**
+     * @return input bytes consumed so far, as received
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public void setBytesRead(long bytesRead) {
+        this.bytesRead = bytesRead;
+    }
+
+    public long getElapsedMs() {
+        return elapsedMs;
+    }
+
+    public void setElapsedMs(long elapsedMs) {
+        this.elapsedMs = elapsedMs;
+    }
+
+    /**
+     * @return whether every record has been processed and the results file is complete
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    public void setDone(boolean done) {
+        this.done = done;
+    }
+}
@@ -0,0 +1,111 @@
+package com.iwomi.cdkapp.model;
+
+import java.time.Instant;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * State and progress of a background descriptor job
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class JobStatus {
+    
+    public enum State {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED,
+        CANCELLED
+    }
+    
+    private String id;
+    private State state;
+    private Instant submittedAt;
+    private Instant startedAt;
+    private Instant finishedAt;
+    private IngestProgress progress;
+    private String error;
+    
+    public JobStatus() {
+    }
+    
+    public JobStatus(String id, State state, Instant submittedAt) {
+        this.id = id;
+        this.state = state;
+        this.submittedAt = submittedAt;
+    }
+    
+    /**
+     * @return a copy, safe to hand out while the job keeps running
+     */
+    public JobStatus copy() {
+        JobStatus copy = new JobStatus(id, state, submittedAt);
+        copy.startedAt = startedAt;
+        copy.finishedAt = finishedAt;
+        copy.progress = progress;
+        copy.error = error;
+        return copy;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    public Instant getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public void setSubmittedAt(Instant submittedAt) {
+        this.submittedAt = submittedAt;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(Instant startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(Instant finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    /**
+     * @return the latest progress snapshot, or null before the job started
+     */
+    public IngestProgress getProgress() {
+        return progress;
+    }
+
+    public void setProgress(IngestProgress progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * @return why the job failed, if it did
+     */
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,53 @@
+package com.iwomi.cdkapp.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Represents one indexed molecule found by a similarity search
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SimilarityHit {
+
+    private String smiles;
+    private String name;
+    private double similarity;
+
+    public SimilarityHit() {
+    }
+
+    public SimilarityHit(String smiles, String name, double similarity) {
+        this.smiles = smiles;
+        this.name = name;
+        this.similarity = similarity;
+    }
+
+    /**
+     * @return the SMILES the molecule was indexed with
+     */
+    public String getSmiles() {
+        return smiles;
+    }
+
+    public void setSmiles(String smiles) {
+        this.smiles = smiles;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the Tanimoto similarity to the query, between 0 and 1
+     */
+    public double getSimilarity() {
+        return similarity;
+    }
+
+    public void setSimilarity(double similarity) {
+        this.similarity = similarity;
+    }
+}
@@ -0,0 +1,111 @@
+package com.iwomi.cdkapp.model;
+
+/**
+ * Outcome of a substructure search: how many indexed molecules passed the
+ * fingerprint screen and were checked, how many contain the query, and whether
+ * the search was cut short by its hit limit or time budget
+ */
+public class SubstructureSearch {
+    
+    private String smiles;
+    private long indexed;
+    private long candidates;
+    private long matches;
+    private boolean limited;
+    private boolean timedOut;
+    private long elapsedMs;
+    private boolean done;
+    
+    public SubstructureSearch() {
+    }
+    
+    public SubstructureSearch(String smiles, long indexed) {
+        this.smiles = smiles;
+        this.indexed = indexed;
+    }
+
+    /**
+     * @return the query SMILES
+     */
+    public String getSmiles() {
+        return smiles;
+    }
+
+    public void setSmiles(String smiles) {
+        this.smiles = smiles;
+    }
+
+    /**
+     * @return molecules in the index when the search started
+     */
+    public long getIndexed() {
+        return indexed;
+    }
+
+    public void setIndexed(long indexed) {
+        this.indexed = indexed;
+    }
+
+    /**
+     * @return molecules that passed the fingerprint screen and were matched
+     */
+    public long getCandidates() {
+        return candidates;
+    }
+
+    public void setCandidates(long candidates) {
+        this.candidates = candidates;
+    }
+
+    /**
+     * @return molecules containing the query
+     */
+    public long getMatches() {
+        return matches;
+    }
+
+    public void setMatches(long matches) {
+        this.matches = matches;
+    }
+
+    /**
+     * @return whether the search stopped at its hit limit
+     */
+    public boolean isLimited() {
+        return limited;
+    }
+
+    public void setLimited(boolean limited) {
+        this.limited = limited;
+    }
+
+    /**
+     * @return whether the search stopped at its time budget
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    public void setTimedOut(boolean timedOut) {
+        this.timedOut = timedOut;
+    }
+
+    public long getElapsedMs() {
+        return elapsedMs;
+    }
+
+    public void setElapsedMs(long elapsedMs) {
+        this.elapsedMs = elapsedMs;
+    }
+
+    /**
+     * @return true once the search has finished
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    public void setDone(boolean done) {
+        this.done = done;
+    }
+}
@@ -0,0 +1,160 @@
+package com.iwomi.cdkapp.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+import com.iwomi.cdkapp.model.IngestProgress;
+
+/**
+ * Service interface for processing many molecules in one request
+ */
+public interface BatchService {
+    
+    /**
+     * Formats of molecule files accepted as batch input
+     */
+    enum InputFormat {
+        /** One SMILES per line, optionally followed by a name, as in .smi files */
+        SMILES,
+        /** MDL SD file: molfile records separated by "$$$$" lines */
+        SDF;
+        
+        /**
+         * @param name "smiles", "smi", "sdf" or "sd", case-insensitive
+         * @return the format
+         * @throws IllegalArgumentException if the name is unknown
+         */
+        public static InputFormat of(String name) {
+            switch (name.trim().toLowerCase(Locale.ROOT)) {
+                case "smiles":
+                case "smi":
+                    return SMILES;
+                case "sdf":
+                case "sd":
+                    return SDF;
+                default:
+                    throw new IllegalArgumentException("Unknown input format: " + name + " (expected smiles or sdf)");
+            }
+        }
+    }
+    
+    /**
+     * What a batch run produces for each molecule
+     */
+    enum OutputFormat {
+        /** Formatted descriptors, as in /parse */
+        DESCRIPTORS,
+        /** A numeric descriptor vector per result line */
+        VECTOR,
+        /**
+         * A columnar descriptor matrix file beside the results, whose lines then
+         * carry no values; only for runs that write files
+         */
+        MATRIX;
+        
+        /**
+         * @param name "descriptors", "vector" or "matrix"
+         * @return the format
+         * @throws IllegalArgumentException if the name is unknown
+         */
+        public static OutputFormat of(String name) {
+            switch (name) {
+                case "descriptors":
+                    return DESCRIPTORS;
+                case "vector":
+                    return VECTOR;
+                case "matrix":
+                    return MATRIX;
+                default:
+                    throw new IllegalArgumentException("Unknown format: " + name
+                            + " (expected descriptors, vector or matrix)");
+            }
+        }
+    }
+    
+    /**
+     * Receives progress of an ingest run
+     */
+    @FunctionalInterface
+    interface ProgressListener {
+        /**
+         * @param progress a snapshot of the run
+         * @throws IOException to abort the run
+         */
+        void onProgress(IngestProgress progress) throws IOException;
+    }
+    
+    /**
+     * Process SMILES lines or SD file records and write one NDJSON result line per
+     * molecule as it finishes, tagged with its input index. Input is read
+     * incrementally and only a bounded number of molecules is in flight at any
+     * time. Records that cannot be read get a result line with an error and do
+     * not stop the run.
+     * @param input the molecule file
+     * @param format the format of the input
+     * @param output the stream receiving NDJSON results, in completion order
+     * @param descriptors the descriptors to calculate (class names, value names or
+     *                    groups); null or empty for all descriptors
+     * @param outputFormat formatted descriptors or numeric vectors
+     * @throws IllegalArgumentException if the output format is MATRIX, which needs a file
+     * @throws IOException if reading the input or writing the output fails
+     */
+    void process(Reader input, InputFormat format, OutputStream output, List<String> descriptors,
+            OutputFormat outputFormat) throws IOException;
+    
+    /**
+     * Process a molecule file of any size into an NDJSON results file, reading one
+     * record at a time. Progress is reported every few records and once at the end.
+     * With the MATRIX output format the values go to a descriptor matrix file, one
+     * row per input record.
+     * @param input the molecule file, as UTF-8 bytes
+     * @param format the format of the input
+     * @param descriptors the descriptors to calculate; null or empty for all descriptors
+     * @param outputFormat what to write for each molecule
+     * @param listener receives progress snapshots
+     * @return the final progress, whose id names the results file
+     * @throws IOException if reading the input or writing the results fails
+     */
+    IngestProgress ingest(InputStream input, InputFormat format, List<String> descriptors,
+            OutputFormat outputFormat, ProgressListener listener) throws IOException;
+    
+    /**
+     * Process a molecule file into an NDJSON results file named after the given id
+     * @param id the run id, a UUID
+     * @see #ingest(InputStream, InputFormat, List, OutputFormat, ProgressListener)
+     */
+    IngestProgress ingest(String id, InputStream input, InputFormat format, List<String> descriptors,
+            OutputFormat outputFormat, ProgressListener listener) throws IOException;
+    
+    /**
+     * Add every molecule of a file to the structure search index, reading one record at a
+     * time. Progress is reported every few records and once at the end.
+     * @param input the molecule file, as UTF-8 bytes
+     * @param format the format of the input
+     * @param listener receives progress snapshots; failed records are counted, not reported
+     * @return the final progress
+     * @throws IOException if reading the input fails
+     * @see SimilarityService
+     */
+    IngestProgress index(InputStream input, InputFormat format, ProgressListener listener) throws IOException;
+    
+    /**
+     * @param id the id of a finished ingest run
+     * @return its NDJSON results file, or null if there is none
+     * @throws IllegalArgumentException if the id is malformed
+     */
+    Path getIngestResults(String id);
+    
+    /**
+     * @param id the id of a finished ingest run with MATRIX output
+     * @return its descriptor matrix file, or null if there is none
+     * @throws IllegalArgumentException if the id is malformed
+     * @see com.iwomi.cdkapp.util.DescriptorMatrix
+     */
+    Path getIngestMatrix(String id);
+}
@@ -0,0 +1,20 @@
+package com.iwomi.cdkapp.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Service interface for running molecule work off the request threads, on a
+ * pool sized to the CPU cores, so that the number of connections being served
+ * does not decide how many molecules are worked on at once
+ */
+public interface ComputeService {
+    
+    /**
+     * Run work on a compute thread
+     * @param work parsing, layout, rendering or calculation for one request
+     * @return the result of the work, completed on the compute thread
+     * @throws MoleculeRejectedException if the compute queue is full
+     */
+    <T> CompletableFuture<T> submit(Supplier<T> work);
+}
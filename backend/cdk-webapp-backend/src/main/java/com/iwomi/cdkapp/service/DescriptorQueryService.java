@@ -0,0 +1,29 @@
+package com.iwomi.cdkapp.service;
+
+import java.util.List;
+
+import com.iwomi.cdkapp.model.DescriptorQuery;
+
+/**
+ * Range queries over the descriptors of every molecule calculated so far
+ */
+public interface DescriptorQueryService {
+    
+    /**
+     * Find the molecules whose descriptor values meet every condition of a filter
+     * @param filter comma-separated conditions, each a column name, an operator
+     *               (&lt;, &lt;=, &gt;, &gt;= or =) and a number, e.g.
+     *               "MW&gt;=300,MW&lt;=500,TopoPSA&lt;90"; "=" also takes a range
+     *               such as "MW=300..500"
+     * @param limit the number of hits to return; all matches are counted
+     * @return the matches
+     * @throws IllegalArgumentException if a condition cannot be read or its column
+     *         is not queryable
+     */
+    DescriptorQuery query(String filter, int limit);
+    
+    /**
+     * @return the descriptor columns conditions may use
+     */
+    List<String> getColumns();
+}
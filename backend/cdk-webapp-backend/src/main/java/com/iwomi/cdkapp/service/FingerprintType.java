@@ -0,0 +1,59 @@
+package com.iwomi.cdkapp.service;
+
+import java.util.Locale;
+
+/**
+ * Structural fingerprints the structure search index is built from. Fingerprints are
+ * packed into long words, bit i of the fingerprint being bit i % 64 of word i / 64.
+ */
+public enum FingerprintType {
+    /** Extended connectivity fingerprint of diameter 4 (CDK CircularFingerprinter), folded to 2048 bits */
+    ECFP4(2048),
+    /** The 166 MACCS structural keys */
+    MACCS(166),
+    /**
+     * Hashed paths of up to 7 bonds (CDK Fingerprinter), 1024 bits. Every path of a
+     * substructure is a path of the molecule, so its bits screen substructure searches.
+     */
+    PATH(1024);
+
+    private final int size;
+
+    FingerprintType(int size) {
+        this.size = size;
+    }
+
+    /**
+     * @return the number of bits
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of long words a packed fingerprint takes
+     */
+    public int getWords() {
+        return (size + 63) / 64;
+    }
+
+    /**
+     * @param name "ecfp4" (also "ecfp" or "circular"), "maccs" or "path", case-insensitive
+     * @return the fingerprint type
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static FingerprintType of(String name) {
+        switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case "ecfp4":
+            case "ecfp":
+            case "circular":
+                return ECFP4;
+            case "maccs":
+                return MACCS;
+            case "path":
+                return PATH;
+            default:
+                throw new IllegalArgumentException("Unknown fingerprint: " + name + " (expected ecfp4, maccs or path)");
+        }
+    }
+}
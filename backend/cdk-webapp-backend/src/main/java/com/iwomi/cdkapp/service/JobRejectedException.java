@@ -0,0 +1,13 @@
+package com.iwomi.cdkapp.service;
+
+/**
+ * Thrown when a job cannot be accepted because the job queue is full
+ */
+public class JobRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public JobRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,81 @@
+package com.iwomi.cdkapp.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.iwomi.cdkapp.model.JobStatus;
+
+/**
+ * Service interface for descriptor runs in the background: jobs are submitted,
+ * queued, run one molecule file at a time through the batch pipeline, and their
+ * results read back later
+ */
+public interface JobService {
+    
+    /**
+     * Writes a job's input to the spool file it is read from when the job runs
+     */
+    @FunctionalInterface
+    interface Upload {
+        void transferTo(Path target) throws IOException;
+    }
+    
+    /**
+     * Submit a job. A place in the queue is reserved before the input is stored, so
+     * a full queue rejects the job without reading its input.
+     * @param upload stores the molecule file
+     * @param gzip whether the stored file is gzip-compressed
+     * @param format the format of the molecule file
+     * @param descriptors the descriptors to calculate; null or empty for all descriptors
+     * @param outputFormat what to write for each molecule
+     * @return the status of the queued job
+     * @throws JobRejectedException if the queue is full
+     * @throws IOException if the input cannot be stored
+     */
+    JobStatus submit(Upload upload, boolean gzip, BatchService.InputFormat format, List<String> descriptors,
+            BatchService.OutputFormat outputFormat) throws IOException;
+    
+    /**
+     * @param id the job id
+     * @return the job status, or null if there is no such job
+     */
+    JobStatus getStatus(String id);
+    
+    /**
+     * Read a page of a finished job's results, in the order they were written
+     * @param id the job id
+     * @param offset the first result line to return
+     * @param limit the maximum number of result lines
+     * @return the result lines, each one JSON object; null if there is no such job
+     * @throws IllegalStateException if the job has not succeeded
+     * @throws IOException if the results cannot be read
+     */
+    List<String> getResults(String id, long offset, int limit) throws IOException;
+    
+    /**
+     * @param id the job id
+     * @return the number of result lines of a succeeded job, or -1 if there are none
+     * @throws IOException if the results cannot be read
+     */
+    long getResultCount(String id) throws IOException;
+    
+    /**
+     * @param id the job id
+     * @return the NDJSON results file of a succeeded job, or null if there is none
+     */
+    Path getResultsFile(String id);
+    
+    /**
+     * @param id the job id
+     * @return the descriptor matrix file of a succeeded job with MATRIX output, or null if there is none
+     */
+    Path getMatrixFile(String id);
+    
+    /**
+     * Cancel a queued or running job, or forget a finished one and delete its results
+     * @param id the job id
+     * @return the job status after cancellation, or null if there is no such job
+     */
+    JobStatus cancel(String id);
+}
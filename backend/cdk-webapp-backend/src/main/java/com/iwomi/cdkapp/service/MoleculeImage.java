@@ -0,0 +1,48 @@
+package com.iwomi.cdkapp.service;
+
+import java.util.function.Supplier;
+
+/**
+ * A depiction looked up by SMILES, identified by a tag before it is rendered.
+ *
+ * The tag depends only on the canonical SMILES, the render options and the
+ * toolkit version, so it is known as soon as the SMILES is resolved and can
+ * answer conditional requests without touching the image. The image itself is
+ * produced on the first call to {@link #getData()}. Obtain instances from
+ * {@link MoleculeService#getMoleculeImage(String, RenderOptions)}.
+ */
+public final class MoleculeImage {
+
+    private final String tag;
+    private final RenderOptions options;
+    private Supplier<byte[]> factory;
+    private byte[] data;
+
+    public MoleculeImage(String tag, RenderOptions options, Supplier<byte[]> factory) {
+        this.tag = tag;
+        this.options = options;
+        this.factory = factory;
+    }
+
+    /**
+     * @return an opaque tag, equal for equal images, suitable as a strong ETag
+     */
+    public String getTag() {
+        return tag;
+    }
+
+    public RenderOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * @return the encoded image, rendered on first call unless it was stored
+     */
+    public synchronized byte[] getData() {
+        if (data == null) {
+            data = factory.get();
+            factory = null;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,14 @@
+package com.iwomi.cdkapp.service;
+
+/**
+ * Thrown when the work on a heavy molecule cannot be started because the heavy
+ * lane is full; the request may be retried later
+ */
+public class MoleculeRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public MoleculeRejectedException(String message) {
+        super(message);
+    }
+}
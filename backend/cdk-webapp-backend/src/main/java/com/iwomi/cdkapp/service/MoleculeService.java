@@ -1,8 +1,10 @@
 package com.iwomi.cdkapp.service;
 
 import java.util.List;
+import java.util.Map;
 
 import com.iwomi.cdkapp.model.Descriptor;
+import com.iwomi.cdkapp.model.DescriptorVector;
 import com.iwomi.cdkapp.model.Molecule;
 
 /**
@@ -17,6 +19,75 @@ public interface MoleculeService {
      */
     Molecule parseMoleculeFromSmiles(String smiles);
     
+    /**
+     * Parse a molecule from SMILES notation, calculating only some descriptors
+     * @param smiles the SMILES string
+     * @param descriptors descriptor class names, value names or groups; null or
+     *                    empty for all descriptors
+     * @return a Molecule object
+     * @throws IllegalArgumentException if a descriptor name is unknown
+     */
+    Molecule parseMoleculeFromSmiles(String smiles, List<String> descriptors);
+    
+    /**
+     * Parse a molecule from SMILES notation, calculating only some descriptors
+     * and rendering the image with the given options
+     * @param smiles the SMILES string
+     * @param descriptors descriptor class names, value names or groups; null or
+     *                    empty for all descriptors
+     * @param options image format and size, or null for no image
+     * @return a Molecule object
+     * @throws IllegalArgumentException if a descriptor name is unknown
+     */
+    Molecule parseMoleculeFromSmiles(String smiles, List<String> descriptors, RenderOptions options);
+    
+    /**
+     * Work on a molecule already parsed by {@link #prepare(String)}, as
+     * {@link #parseMoleculeFromSmiles(String, List, RenderOptions)} does, so that
+     * the caller can go on using the same prepared molecule
+     * @param molecule the prepared molecule
+     * @param descriptors descriptor class names, value names or groups; null or
+     *                    empty for all descriptors
+     * @param options image format and size, or null for no image
+     * @return a Molecule object
+     * @throws IllegalArgumentException if a descriptor name is unknown
+     */
+    Molecule processMolecule(PreparedMolecule molecule, List<String> descriptors, RenderOptions options);
+    
+    /**
+     * Look up a molecule stored by an earlier parse. Its molfile and descriptors are
+     * read back from the molecule store; only what is not stored is computed. The
+     * image is not included: it is served by SMILES, from the image cache.
+     * @param id the id a parse returned
+     * @param descriptors descriptor class names, value names or groups; null or
+     *                    empty for all descriptors
+     * @return the molecule without image, or null if the id is unknown
+     * @throws IllegalArgumentException if a descriptor name is unknown
+     */
+    Molecule getStoredMolecule(String id, List<String> descriptors);
+    
+    /**
+     * Look up the id of a stored molecule by structure
+     * @param smiles any SMILES of the molecule
+     * @return the id, or null if the molecule has not been stored
+     */
+    String getStoredMoleculeId(String smiles);
+    
+    /**
+     * Store a molecule in the molecule store if it is not stored yet
+     * @param molecule the prepared molecule
+     * @return its stable id, the one its structure was first stored with
+     */
+    String storeMolecule(PreparedMolecule molecule);
+    
+    /**
+     * Parse a SMILES string once into a molecule that every artifact
+     * (image, molfile, descriptors) can be computed from
+     * @param smiles the SMILES string
+     * @return the prepared molecule
+     */
+    PreparedMolecule prepare(String smiles);
+    
     /**
      * Generate a 2D depiction of a molecule
      * @param molecule the molecule to depict
@@ -24,6 +95,39 @@ public interface MoleculeService {
      */
     byte[] generateMoleculeImage(Molecule molecule);
     
+    /**
+     * Generate a 2D depiction of a molecule
+     * @param molecule the molecule to depict
+     * @param options image format and size
+     * @return the SVG or PNG image data
+     */
+    byte[] generateMoleculeImage(Molecule molecule, RenderOptions options);
+    
+    /**
+     * Generate a 2D depiction of a prepared molecule
+     * @param molecule the prepared molecule
+     * @return the PNG image data
+     */
+    byte[] generateMoleculeImage(PreparedMolecule molecule);
+    
+    /**
+     * Generate a 2D depiction of a prepared molecule
+     * @param molecule the prepared molecule
+     * @param options image format and size
+     * @return the SVG or PNG image data
+     */
+    byte[] generateMoleculeImage(PreparedMolecule molecule, RenderOptions options);
+    
+    /**
+     * Look up the depiction of a SMILES string. SMILES seen before are resolved to
+     * their canonical form without parsing, and stored images are returned without
+     * rendering; the image is only produced when its data is requested.
+     * @param smiles the SMILES string
+     * @param options image format and size
+     * @return the image, with its tag
+     */
+    MoleculeImage getMoleculeImage(String smiles, RenderOptions options);
+    
     /**
      * Calculate molecular descriptors for a molecule
      * @param molecule the molecule
@@ -31,6 +135,52 @@ public interface MoleculeService {
      */
     List<Descriptor> calculateDescriptors(Molecule molecule);
     
+    /**
+     * Calculate molecular descriptors for a prepared molecule
+     * @param molecule the prepared molecule
+     * @return a list of descriptor values
+     */
+    List<Descriptor> calculateDescriptors(PreparedMolecule molecule);
+    
+    /**
+     * Calculate selected molecular descriptors for a prepared molecule. Preparation
+     * steps that no selected descriptor needs (explicit hydrogens, 2D layout) are skipped.
+     * @param molecule the prepared molecule
+     * @param descriptors descriptor class names, value names or groups; null or
+     *                    empty for all descriptors
+     * @return the selected descriptor values, in registry order
+     * @throws IllegalArgumentException if a descriptor name is unknown
+     */
+    List<Descriptor> calculateDescriptors(PreparedMolecule molecule, List<String> descriptors);
+    
+    /**
+     * Calculate selected molecular descriptors as a numeric vector, one value per
+     * column of {@link #getDescriptorColumns(List)}; array descriptors keep all values
+     * @param molecule the prepared molecule
+     * @param descriptors descriptor class names, value names or groups; null or
+     *                    empty for all descriptors
+     * @return the descriptor vector, without column names
+     * @throws IllegalArgumentException if a descriptor name is unknown
+     */
+    DescriptorVector calculateDescriptorVector(PreparedMolecule molecule, List<String> descriptors);
+    
+    /**
+     * Get the column names of descriptor vectors for a selection
+     * @param descriptors descriptor class names, value names or groups; null or
+     *                    empty for all descriptors
+     * @return the column names, in vector order
+     * @throws IllegalArgumentException if a descriptor name is unknown
+     */
+    List<String> getDescriptorColumns(List<String> descriptors);
+    
+    /**
+     * Calculate a structural fingerprint of a prepared molecule
+     * @param molecule the prepared molecule
+     * @param type the fingerprint
+     * @return the fingerprint packed into {@link FingerprintType#getWords()} long words
+     */
+    long[] calculateFingerprint(PreparedMolecule molecule, FingerprintType type);
+    
     /**
      * Convert a molecule to MDL Molfile format
      * @param molecule the molecule
@@ -38,9 +188,23 @@ public interface MoleculeService {
      */
     String convertToMolfile(Molecule molecule);
     
+    /**
+     * Convert a prepared molecule to MDL Molfile format
+     * @param molecule the prepared molecule
+     * @return the MDL Molfile as a string
+     */
+    String convertToMolfile(PreparedMolecule molecule);
+    
     /**
      * Get a list of all available descriptors in CDK
      * @return list of all descriptors
      */
     List<Descriptor> getAllAvailableDescriptors();
+    
+    /**
+     * Get hit, miss and eviction statistics of the result cache, and the size of
+     * the molecule store
+     * @return statistics per cached artifact type, and of the store
+     */
+    Map<String, Object> getCacheStatistics();
 }
@@ -0,0 +1,77 @@
+package com.iwomi.cdkapp.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.openscience.cdk.interfaces.IAtomContainer;
+
+/**
+ * A molecule parsed once and shared by every artifact computed from it.
+ *
+ * Expensive intermediate steps (2D layout, descriptor preparation) and final
+ * artifacts (image, molfile, descriptors) are computed on first use and then
+ * reused, so a request that needs several artifacts never parses or lays out
+ * the same molecule twice. Obtain instances from {@link MoleculeService#prepare(String)}.
+ */
+public final class PreparedMolecule {
+
+    private final String smiles;
+    private final String canonicalSmiles;
+    private final IAtomContainer parsed;
+    private final int cost;
+    private final Map<String, Object> artifacts = new HashMap<>();
+
+    public PreparedMolecule(String smiles, String canonicalSmiles, IAtomContainer parsed, int cost) {
+        this.smiles = smiles;
+        this.canonicalSmiles = canonicalSmiles;
+        this.parsed = parsed;
+        this.cost = cost;
+    }
+
+    /**
+     * @return the SMILES as submitted
+     */
+    public String getSmiles() {
+        return smiles;
+    }
+
+    /**
+     * @return the canonical SMILES, shared by all equivalent inputs
+     */
+    public String getCanonicalSmiles() {
+        return canonicalSmiles;
+    }
+
+    /**
+     * @return the parsed structure, in input atom order; intermediate steps work on copies
+     */
+    public IAtomContainer getParsed() {
+        return parsed;
+    }
+
+    /**
+     * @return the cost of working on the molecule, estimated from its size when it was parsed
+     */
+    public int getCost() {
+        return cost;
+    }
+
+    /**
+     * Return a named artifact, computing it on first request. Computation runs
+     * under this object's lock, so each artifact is computed at most once even
+     * when several threads share the molecule.
+     * @param name the artifact name
+     * @param factory computes the artifact when it is not available yet
+     * @return the artifact
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T getArtifact(String name, Supplier<T> factory) {
+        Object artifact = artifacts.get(name);
+        if (artifact == null) {
+            artifact = factory.get();
+            artifacts.put(name, artifact);
+        }
+        return (T) artifact;
+    }
+}
@@ -0,0 +1,92 @@
+package com.iwomi.cdkapp.service;
+
+import java.util.Locale;
+
+/**
+ * How to render a molecule: output format and size in pixels.
+ *
+ * Options are part of image cache keys, so equal options must produce the same
+ * {@link #getKey()}.
+ */
+public final class RenderOptions {
+
+    public enum Format {
+        SVG("image/svg+xml"),
+        PNG("image/png");
+
+        private final String mediaType;
+
+        Format(String mediaType) {
+            this.mediaType = mediaType;
+        }
+
+        public String getMediaType() {
+            return mediaType;
+        }
+    }
+
+    public static final int MIN_SIZE = 16;
+    public static final int MAX_SIZE = 2048;
+
+    /**
+     * The PNG depiction embedded in /parse responses
+     */
+    public static final RenderOptions DEFAULT = new RenderOptions(Format.PNG, 400, 300);
+
+    private final Format format;
+    private final int width;
+    private final int height;
+
+    private RenderOptions(Format format, int width, int height) {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * @param format "svg" or "png", case-insensitive
+     * @param width the image width in pixels
+     * @param height the image height in pixels
+     * @return the options
+     * @throws IllegalArgumentException if the format is unknown or a size is out of range
+     */
+    public static RenderOptions of(String format, int width, int height) {
+        Format parsed;
+        try {
+            parsed = Format.valueOf(format.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown image format: " + format + " (expected svg or png)");
+        }
+        return of(parsed, width, height);
+    }
+
+    /**
+     * @throws IllegalArgumentException if a size is out of range
+     */
+    public static RenderOptions of(Format format, int width, int height) {
+        if (width < MIN_SIZE || width > MAX_SIZE || height < MIN_SIZE || height > MAX_SIZE) {
+            throw new IllegalArgumentException("Image size must be between " + MIN_SIZE + " and "
+                    + MAX_SIZE + " pixels");
+        }
+        return new RenderOptions(format, width, height);
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return a compact key identifying these options, e.g. "svg:400x300"
+     */
+    public String getKey() {
+        return format.name().toLowerCase(Locale.ROOT) + ':' + width + 'x' + height;
+    }
+}
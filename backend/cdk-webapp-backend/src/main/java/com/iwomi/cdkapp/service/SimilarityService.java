@@ -0,0 +1,57 @@
+package com.iwomi.cdkapp.service;
+
+import java.util.List;
+import java.util.Map;
+
+import com.iwomi.cdkapp.model.SimilarityHit;
+
+/**
+ * Service interface for finding similar molecules in an in-memory fingerprint index
+ */
+public interface SimilarityService {
+    
+    /**
+     * Add a molecule to the index, with a fingerprint of every type; substructure
+     * searches run over the same molecules
+     * @param molecule the prepared molecule
+     * @param name an optional name, or null
+     * @return whether it was added; false if a molecule with the same canonical
+     *         SMILES is indexed already
+     */
+    boolean add(PreparedMolecule molecule, String name);
+    
+    /**
+     * Add a molecule processed by parsing or the batch pipeline to the index, so that
+     * everything processed is searchable. Failures are logged rather than thrown:
+     * the processing result stands without the molecule being indexed.
+     * @param molecule the prepared molecule
+     * @param name an optional name, or null
+     */
+    void addProcessed(PreparedMolecule molecule, String name);
+    
+    /**
+     * Add a molecule processed for a request to the index, as
+     * {@link #addProcessed(PreparedMolecule, String)} does, but in the compute pool
+     * so that the response does not wait for the fingerprints. The molecule is not
+     * indexed if the compute queue is full.
+     * @param molecule the prepared molecule
+     * @param name an optional name, or null
+     */
+    void addProcessedLater(PreparedMolecule molecule, String name);
+    
+    /**
+     * Find the indexed molecules most similar to a query by Tanimoto similarity
+     * @param smiles the query SMILES
+     * @param type the fingerprint to compare
+     * @param k the maximum number of hits
+     * @param threshold the minimum similarity of a hit, between 0 and 1
+     * @return at most k hits, most similar first; molecules sharing no bit with
+     *         the query are never hits
+     */
+    List<SimilarityHit> search(String smiles, FingerprintType type, int k, double threshold);
+    
+    /**
+     * @return the number of indexed molecules per fingerprint type
+     */
+    Map<String, Integer> getIndexSizes();
+}
@@ -0,0 +1,40 @@
+package com.iwomi.cdkapp.service;
+
+import java.io.IOException;
+
+import com.iwomi.cdkapp.model.SimilarityHit;
+import com.iwomi.cdkapp.model.SubstructureSearch;
+
+/**
+ * Service interface for finding the indexed molecules that contain a fragment
+ */
+public interface SubstructureService {
+    
+    /**
+     * Receives the matches of a substructure search as they are found
+     */
+    @FunctionalInterface
+    interface MatchListener {
+        /**
+         * Called by one thread at a time
+         * @param match a molecule containing the query, with the Tanimoto similarity
+         *              of its path fingerprint to the query's
+         * @throws IOException to stop the search
+         */
+        void onMatch(SimilarityHit match) throws IOException;
+    }
+    
+    /**
+     * Find the molecules of the structure search index that contain a fragment.
+     * Candidates are screened by path fingerprint, then matched atom by atom (VF2)
+     * in parallel. Atoms match by element; bonds by order, aromatic bonds only
+     * matching aromatic bonds. Matches come in no particular order.
+     * @param smiles the fragment as SMILES
+     * @param limit the maximum number of matches
+     * @param listener receives each match
+     * @return the counts of the search, which stops at the limit or when its time is up
+     * @throws IOException if the listener fails
+     * @see SimilarityService#add(PreparedMolecule, String)
+     */
+    SubstructureSearch search(String smiles, int limit, MatchListener listener) throws IOException;
+}
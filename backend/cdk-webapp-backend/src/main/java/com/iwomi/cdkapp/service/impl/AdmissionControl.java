@@ -0,0 +1,212 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.iwomi.cdkapp.service.MoleculeRejectedException;
+import com.iwomi.cdkapp.util.CDKDescriptorLister;
+import com.iwomi.cdkapp.util.DescriptorRegistry;
+
+/**
+ * Admission control by molecule size, so that a few huge molecules (peptides,
+ * macrocycles) cannot hold up the drug-like molecules that make up most requests.
+ *
+ * The cost of a molecule is estimated right after parsing from its atom, bond and
+ * ring counts, which is what the 2D layout and the path-enumerating descriptors
+ * scale with. Light molecules run as before. Heavy ones run in a separate lane: at
+ * most {@code cdk.admission.heavy-concurrency} at a time, with their descriptors on
+ * their own workers, and a bounded number waiting. Beyond the degrade cost the
+ * expensive descriptors are skipped, and beyond the maximum cost the molecule is
+ * refused before anything else is done with it.
+ */
+@Component
+public class AdmissionControl {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionControl.class);
+
+    // Each ring closure multiplies the paths and ring systems the layout and descriptors walk
+    private static final int RING_WEIGHT = 8;
+
+    // Whether this thread already holds the heavy lane, so nested steps do not queue again
+    private static final ThreadLocal<Boolean> HOLDING = new ThreadLocal<>();
+
+    private final int heavyCost;
+    private final int degradeCost;
+    private final int maxCost;
+    private final int queueCapacity;
+    private final long waitMillis;
+    private final Set<DescriptorRegistry.Entry> expensive;
+    private final Semaphore heavyLane;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final PipelineMetrics metrics;
+
+    public AdmissionControl(CDKDescriptorLister descriptorLister,
+            @Value("${cdk.admission.heavy-cost:200}") int heavyCost,
+            @Value("${cdk.admission.degrade-cost:500}") int degradeCost,
+            @Value("${cdk.admission.max-cost:5000}") int maxCost,
+            @Value("${cdk.admission.heavy-concurrency:1}") int heavyConcurrency,
+            @Value("${cdk.admission.heavy-queue-capacity:8}") int queueCapacity,
+            @Value("${cdk.admission.heavy-wait-ms:30000}") long waitMillis,
+            @Value("${cdk.admission.expensive-descriptors:ChiPathDescriptor,ChiPathClusterDescriptor,BCUTDescriptor,MDEDescriptor,AutocorrelationDescriptorPolarizability}") String expensiveDescriptors,
+            PipelineMetrics metrics) {
+        this.heavyCost = heavyCost;
+        this.degradeCost = degradeCost;
+        this.maxCost = maxCost;
+        this.queueCapacity = queueCapacity;
+        this.waitMillis = waitMillis;
+        this.heavyLane = new Semaphore(Math.max(1, heavyConcurrency), true);
+        this.metrics = metrics;
+
+        Set<DescriptorRegistry.Entry> entries = new HashSet<>();
+        DescriptorRegistry registry = descriptorLister.getRegistry();
+        for (String name : expensiveDescriptors.split(",")) {
+            if (name.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                DescriptorRegistry selection = registry.select(Collections.singletonList(name));
+                for (int i = 0; i < selection.size(); i++) {
+                    entries.add(selection.get(i));
+                }
+            } catch (IllegalArgumentException e) {
+                // Descriptors may be missing from the classpath; the rest still work
+                logger.warn("Expensive descriptor {} is not available", name.trim());
+            }
+        }
+        this.expensive = Collections.unmodifiableSet(entries);
+        metrics.gauge("cdk.admission.heavy.waiting", "Heavy molecules waiting for the heavy lane",
+                waiting, AtomicInteger::get);
+        logger.info("Admission control: heavy from cost {}, degraded from {}, refused above {}, {} heavy at a time",
+                heavyCost, degradeCost, maxCost, heavyLane.availablePermits());
+    }
+
+    /**
+     * Estimate the cost of working on a molecule: atoms plus bonds, with ring closures
+     * weighted, and refuse molecules above the maximum
+     * @param molecule the parsed molecule
+     * @return the cost
+     * @throws IllegalArgumentException if the molecule is too large to be processed
+     */
+    public int admit(IAtomContainer molecule) {
+        int atoms = molecule.getAtomCount();
+        int bonds = molecule.getBondCount();
+        int cost = atoms + bonds + RING_WEIGHT * ringCount(molecule);
+        metrics.recordCost(cost);
+        if (cost > maxCost) {
+            metrics.recordAdmission("too-large");
+            throw new IllegalArgumentException("Molecule too large: " + atoms + " atoms and " + bonds
+                    + " bonds give a cost of " + cost + ", above the limit of " + maxCost);
+        }
+        metrics.recordAdmission(isDegraded(cost) ? "degraded" : isHeavy(cost) ? "heavy" : "light");
+        return cost;
+    }
+
+    /**
+     * The number of independent rings (bonds minus atoms plus connected components),
+     * counted with a union-find over the bonds rather than a ring perception
+     */
+    private static int ringCount(IAtomContainer molecule) {
+        int[] parents = new int[molecule.getAtomCount()];
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = i;
+        }
+        int components = parents.length;
+        for (IBond bond : molecule.bonds()) {
+            int begin = root(parents, molecule.indexOf(bond.getBegin()));
+            int end = root(parents, molecule.indexOf(bond.getEnd()));
+            if (begin != end) {
+                parents[begin] = end;
+                components--;
+            }
+        }
+        return molecule.getBondCount() - molecule.getAtomCount() + components;
+    }
+
+    private static int root(int[] parents, int atom) {
+        while (parents[atom] != atom) {
+            parents[atom] = parents[parents[atom]];
+            atom = parents[atom];
+        }
+        return atom;
+    }
+
+    /**
+     * @return whether a molecule of this cost runs in the heavy lane
+     */
+    public boolean isHeavy(int cost) {
+        return cost >= heavyCost;
+    }
+
+    /**
+     * @return whether a molecule of this cost is calculated without the expensive descriptors
+     */
+    public boolean isDegraded(int cost) {
+        return cost >= degradeCost;
+    }
+
+    /**
+     * @return why a descriptor is not calculated for a molecule of this cost, or null
+     *         if it is calculated
+     */
+    String skipReason(int cost, DescriptorRegistry.Entry entry) {
+        if (isDegraded(cost) && expensive.contains(entry)) {
+            return "Not calculated for molecules of cost " + cost + "; the limit for this descriptor is "
+                    + degradeCost;
+        }
+        return null;
+    }
+
+    /**
+     * Run work on a molecule, in the heavy lane if it is heavy
+     * @param cost the molecule's cost
+     * @param work the layout, rendering or calculation
+     * @return the result of the work
+     * @throws MoleculeRejectedException if the heavy lane stays full, or too many heavy
+     *                                   molecules are already waiting for it
+     */
+    <T> T run(int cost, Supplier<T> work) {
+        if (!isHeavy(cost) || HOLDING.get() != null) {
+            return work.get();
+        }
+        if (!heavyLane.tryAcquire()) {
+            if (waiting.incrementAndGet() > queueCapacity) {
+                waiting.decrementAndGet();
+                metrics.recordAdmission("overloaded");
+                throw new MoleculeRejectedException("Too many large molecules are waiting; try again later");
+            }
+            boolean acquired;
+            try {
+                acquired = heavyLane.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            } finally {
+                waiting.decrementAndGet();
+            }
+            if (!acquired) {
+                metrics.recordAdmission("overloaded");
+                throw new MoleculeRejectedException("Large molecules are busy; try again later");
+            }
+        }
+
+        HOLDING.set(Boolean.TRUE);
+        try {
+            return work.get();
+        } finally {
+            HOLDING.remove();
+            heavyLane.release();
+        }
+    }
+}
@@ -0,0 +1,494 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.PreDestroy;
+
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.iwomi.cdkapp.model.BatchResult;
+import com.iwomi.cdkapp.model.DescriptorVector;
+import com.iwomi.cdkapp.model.IngestProgress;
+import com.iwomi.cdkapp.service.BatchService;
+import com.iwomi.cdkapp.service.MoleculeService;
+import com.iwomi.cdkapp.service.PreparedMolecule;
+import com.iwomi.cdkapp.service.SimilarityService;
+import com.iwomi.cdkapp.util.CDKDescriptorLister;
+import com.iwomi.cdkapp.util.CDKToolkitPool;
+import com.iwomi.cdkapp.util.DescriptorMatrix;
+import com.iwomi.cdkapp.util.DescriptorRegistry;
+import com.iwomi.cdkapp.util.NamedThreadFactory;
+
+@Service
+public class BatchServiceImpl implements BatchService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchServiceImpl.class);
+
+    private static final byte[] NEWLINE = { '\n' };
+    private static final String RESULTS_SUFFIX = ".ndjson";
+    private static final String MATRIX_SUFFIX = ".cdkm";
+
+    private final MoleculeService moleculeService;
+    private final SimilarityService similarityService;
+    private final CDKToolkitPool toolkit;
+    private final CDKDescriptorLister descriptorLister;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter lineWriter;
+    private final ExecutorService workers;
+    private final int maxInFlight;
+    private final Path ingestDirectory;
+    private final int progressInterval;
+
+    public BatchServiceImpl(MoleculeService moleculeService, SimilarityService similarityService,
+            CDKToolkitPool toolkit,
+            CDKDescriptorLister descriptorLister, ObjectMapper objectMapper,
+            @Value("${cdk.batch.concurrency:0}") int concurrency,
+            @Value("${cdk.batch.max-in-flight:0}") int maxInFlight,
+            @Value("${cdk.ingest.directory:${java.io.tmpdir}/cdk-ingest}") String ingestDirectory,
+            @Value("${cdk.ingest.progress-interval:1000}") int progressInterval,
+            PipelineMetrics metrics) {
+        int threads = concurrency > 0 ? concurrency : Runtime.getRuntime().availableProcessors();
+        this.moleculeService = moleculeService;
+        this.similarityService = similarityService;
+        this.toolkit = toolkit;
+        this.descriptorLister = descriptorLister;
+        this.objectMapper = objectMapper;
+        // NDJSON needs one record per line, whatever the global indent setting
+        this.lineWriter = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+        this.workers = metrics.monitor(
+                Executors.newFixedThreadPool(threads, new NamedThreadFactory("batch-worker-")),
+                "batch-workers");
+        this.maxInFlight = maxInFlight > 0 ? maxInFlight : threads * 2;
+        this.ingestDirectory = Paths.get(ingestDirectory);
+        this.progressInterval = Math.max(1, progressInterval);
+    }
+
+    /**
+     * Counts shared between the reading thread and the workers
+     */
+    private static final class Counters {
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+    }
+
+    @Override
+    public void process(Reader input, InputFormat format, OutputStream output, List<String> descriptors,
+            OutputFormat outputFormat) throws IOException {
+        if (outputFormat == OutputFormat.MATRIX) {
+            throw new IllegalArgumentException("Matrix output is written to a file; use ingest or a job");
+        }
+        long count = run(new RecordReader(input, format), new Counters(), null,
+                calculator(output, true, descriptors, outputFormat, null));
+        logger.debug("Batch finished after {} molecules", count);
+    }
+
+    @Override
+    public IngestProgress ingest(InputStream input, InputFormat format, List<String> descriptors,
+            OutputFormat outputFormat, ProgressListener listener) throws IOException {
+        return ingest(UUID.randomUUID().toString(), input, format, descriptors, outputFormat, listener);
+    }
+
+    @Override
+    public IngestProgress ingest(String id, InputStream input, InputFormat format, List<String> descriptors,
+            OutputFormat outputFormat, ProgressListener listener) throws IOException {
+        IngestProgress progress = new IngestProgress(UUID.fromString(id).toString(),
+                format.name().toLowerCase(Locale.ROOT));
+        CountingInputStream counted = new CountingInputStream(input);
+        Counters counters = new Counters();
+        long start = System.nanoTime();
+        Runnable report = () -> snapshot(progress, counted, counters, start);
+
+        Files.createDirectories(ingestDirectory);
+        Path results = ingestDirectory.resolve(progress.getId() + RESULTS_SUFFIX);
+        Path matrixFile = ingestDirectory.resolve(progress.getId() + MATRIX_SUFFIX);
+        // Written under a temporary name, so a results file is always complete
+        Path partial = ingestDirectory.resolve(progress.getId() + RESULTS_SUFFIX + ".part");
+        Path partialMatrix = ingestDirectory.resolve(progress.getId() + MATRIX_SUFFIX + ".part");
+        DescriptorRegistry selection = descriptorLister.getRegistry().select(descriptors);
+        boolean complete = false;
+        try (DescriptorMatrixWriter matrix = outputFormat == OutputFormat.MATRIX
+                ? new DescriptorMatrixWriter(partialMatrix, selection.getColumnCount()) : null) {
+            try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(partial), 64 * 1024)) {
+                long count = run(new RecordReader(new InputStreamReader(counted, StandardCharsets.UTF_8), format),
+                        counters, reporter(progress, report, listener),
+                        calculator(output, false, descriptors, outputFormat, matrix));
+                progress.setRead(count);
+            }
+            if (matrix != null) {
+                matrix.finish(progress.getRead(), matrixSchema(selection, progress.getRead()));
+                Files.move(partialMatrix, matrixFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(partial, results, StandardCopyOption.REPLACE_EXISTING);
+            complete = true;
+        } finally {
+            if (!complete) {
+                Files.deleteIfExists(partial);
+                Files.deleteIfExists(partialMatrix);
+                Files.deleteIfExists(matrixFile);
+            }
+        }
+
+        report.run();
+        progress.setDone(true);
+        listener.onProgress(progress);
+        logger.info("Ingest {} finished: {} records, {} failed, {} ms", progress.getId(), progress.getRead(),
+                progress.getFailed(), progress.getElapsedMs());
+        return progress;
+    }
+
+    @Override
+    public IngestProgress index(InputStream input, InputFormat format, ProgressListener listener) throws IOException {
+        IngestProgress progress = new IngestProgress(UUID.randomUUID().toString(),
+                format.name().toLowerCase(Locale.ROOT));
+        CountingInputStream counted = new CountingInputStream(input);
+        Counters counters = new Counters();
+        long start = System.nanoTime();
+        Runnable report = () -> snapshot(progress, counted, counters, start);
+
+        long count = run(new RecordReader(new InputStreamReader(counted, StandardCharsets.UTF_8), format),
+                counters, reporter(progress, report, listener), record -> {
+                    BatchResult result = read(record);
+                    if (result.getError() != null) {
+                        return false;
+                    }
+                    try {
+                        similarityService.add(moleculeService.prepare(result.getSmiles()), result.getName());
+                        return true;
+                    } catch (Exception e) {
+                        return false;
+                    }
+                });
+        progress.setRead(count);
+
+        report.run();
+        progress.setDone(true);
+        listener.onProgress(progress);
+        logger.info("Indexed {} records for similarity search, {} failed, {} ms", progress.getRead(),
+                progress.getFailed(), progress.getElapsedMs());
+        return progress;
+    }
+
+    /**
+     * Reports progress every progressInterval records
+     */
+    private ReadListener reporter(IngestProgress progress, Runnable report, ProgressListener listener) {
+        return read -> {
+            if (read % progressInterval == 0) {
+                progress.setRead(read);
+                report.run();
+                listener.onProgress(progress);
+            }
+        };
+    }
+
+    /**
+     * The matrix header: column names and where each descriptor's columns start
+     */
+    private byte[] matrixSchema(DescriptorRegistry selection, long rows) throws IOException {
+        long dataOffset = 0;
+        byte[] schema = null;
+        // The schema contains its own data offset, which depends on its length
+        for (int attempt = 0; attempt < 3; attempt++) {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("rows", rows);
+            json.put("columns", selection.getColumns());
+            List<Map<String, Object>> entries = new ArrayList<>(selection.size());
+            for (int i = 0; i < selection.size(); i++) {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("id", selection.get(i).getClassName());
+                entry.put("offset", selection.getColumnOffset(i));
+                entry.put("width", selection.getColumnOffset(i + 1) - selection.getColumnOffset(i));
+                entries.add(entry);
+            }
+            json.put("descriptors", entries);
+            json.put("dtype", "<f8");
+            json.put("order", "column-major");
+            json.put("dataOffset", dataOffset);
+            schema = lineWriter.writeValueAsBytes(json);
+            long actual = DescriptorMatrix.dataOffset(schema.length);
+            if (actual == dataOffset) {
+                break;
+            }
+            dataOffset = actual;
+        }
+        return schema;
+    }
+
+    private static void snapshot(IngestProgress progress, CountingInputStream input, Counters counters, long start) {
+        progress.setProcessed(counters.processed.get());
+        progress.setFailed(counters.failed.get());
+        progress.setBytesRead(input.count);
+        progress.setElapsedMs((System.nanoTime() - start) / 1_000_000);
+    }
+
+    @Override
+    public Path getIngestResults(String id) {
+        return existing(id, RESULTS_SUFFIX);
+    }
+
+    @Override
+    public Path getIngestMatrix(String id) {
+        return existing(id, MATRIX_SUFFIX);
+    }
+
+    private Path existing(String id, String suffix) {
+        // Only ever resolve generated ids inside the ingest directory
+        try {
+            id = UUID.fromString(id).toString();
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid ingest id: " + id);
+        }
+        Path file = ingestDirectory.resolve(id + suffix);
+        return Files.isRegularFile(file) ? file : null;
+    }
+
+    /**
+     * Called on the reading thread after each record is handed to the workers
+     */
+    @FunctionalInterface
+    private interface ReadListener {
+        void onRead(long read) throws IOException;
+    }
+
+    /**
+     * Processes one record on a worker
+     */
+    @FunctionalInterface
+    private interface RecordHandler {
+        /**
+         * @return whether the record was processed without error
+         * @throws IOException if its result cannot be written
+         */
+        boolean handle(RecordReader.Record record) throws IOException;
+    }
+
+    /**
+     * Calculates descriptors for a record and writes its result line
+     * @param flush whether to flush each result line, so streaming clients see it at once
+     * @param matrix receives the values by row in MATRIX format, otherwise null
+     */
+    private RecordHandler calculator(OutputStream output, boolean flush, List<String> descriptors,
+            OutputFormat outputFormat, DescriptorMatrixWriter matrix) {
+        boolean vectors = outputFormat != OutputFormat.DESCRIPTORS;
+        return record -> {
+            BatchResult result = calculate(record, descriptors, vectors);
+            if (matrix != null) {
+                // Every record gets its row, NaN if it failed
+                matrix.write(result.getIndex(), result.getValues());
+                result.setValues(null);
+            }
+            writeLine(output, result, flush);
+            return result.getError() == null;
+        };
+    }
+
+    /**
+     * Read records and handle them on the workers, with at most maxInFlight
+     * records between reading and handling
+     * @return the number of records read
+     */
+    private long run(RecordReader records, Counters counters, ReadListener listener, RecordHandler handler)
+            throws IOException {
+        Semaphore window = new Semaphore(maxInFlight);
+        AtomicReference<IOException> writeFailure = new AtomicReference<>();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        long count = 0;
+
+        try {
+            RecordReader.Record record;
+            while ((record = records.next()) != null) {
+                window.acquire();
+                if (writeFailure.get() != null) {
+                    // The client went away; stop reading more input
+                    window.release();
+                    break;
+                }
+
+                RecordReader.Record next = record;
+                workers.execute(() -> {
+                    try {
+                        if (cancelled.get()) {
+                            return;
+                        }
+                        if (!handler.handle(next)) {
+                            counters.failed.incrementAndGet();
+                        }
+                        counters.processed.incrementAndGet();
+                    } catch (IOException e) {
+                        writeFailure.compareAndSet(null, e);
+                    } finally {
+                        window.release();
+                    }
+                });
+                count++;
+                if (listener != null) {
+                    listener.onRead(count);
+                }
+            }
+
+            // Wait for the molecules still in flight
+            window.acquire(maxInFlight);
+        } catch (InterruptedException e) {
+            // Records not started yet are dropped; the ones being calculated cannot be
+            // interrupted, so wait for them before the caller closes the output
+            cancelled.set(true);
+            window.acquireUninterruptibly(maxInFlight);
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch processing interrupted", e);
+        } catch (IOException e) {
+            // Let the records in flight finish before the output is closed; a job
+            // cancelled while reading its input drops those not started yet
+            if (Thread.currentThread().isInterrupted() || e instanceof InterruptedIOException) {
+                cancelled.set(true);
+            }
+            window.acquireUninterruptibly(maxInFlight);
+            throw e;
+        }
+
+        if (writeFailure.get() != null) {
+            throw writeFailure.get();
+        }
+        return count;
+    }
+
+    /**
+     * Split a .smi style line into SMILES and optional name
+     */
+    private static BatchResult newResult(long index, String line) {
+        int split = 0;
+        while (split < line.length() && !Character.isWhitespace(line.charAt(split))) {
+            split++;
+        }
+        String name = split < line.length() ? line.substring(split).trim() : null;
+        return new BatchResult(index, line.substring(0, split), name);
+    }
+
+    private BatchResult calculate(RecordReader.Record record, List<String> descriptors, boolean vectors) {
+        BatchResult result = read(record);
+        if (result.getError() == null) {
+            calculate(result, descriptors, vectors);
+        }
+        return result;
+    }
+
+    /**
+     * The SMILES and name of a record, or the error reading it
+     */
+    private BatchResult read(RecordReader.Record record) {
+        BatchResult result;
+        if (record.error != null) {
+            result = new BatchResult(record.index, null, null);
+            result.setError(record.error);
+            return result;
+        }
+        if (record.format == InputFormat.SMILES) {
+            return newResult(record.index, record.text);
+        }
+        result = new BatchResult(record.index, null, null);
+        try {
+            // SD records go through SMILES, so they share cache entries and
+            // preparation with the same structures submitted as SMILES
+            IAtomContainer molecule = toolkit.readMolfile(record.text);
+            String title = molecule.getTitle();
+            result.setName(title == null || title.trim().isEmpty() ? null : title.trim());
+            result.setSmiles(toolkit.writeSmiles(molecule));
+        } catch (Exception e) {
+            result.setError("Error reading SD record: " + e.getMessage());
+        }
+        return result;
+    }
+
+    private void calculate(BatchResult result, List<String> descriptors, boolean vectors) {
+        try {
+            PreparedMolecule molecule = moleculeService.prepare(result.getSmiles());
+            if (vectors) {
+                DescriptorVector vector = moleculeService.calculateDescriptorVector(molecule, descriptors);
+                result.setValues(vector.getValues());
+                result.setErrors(vector.getErrors());
+            } else {
+                result.setDescriptors(moleculeService.calculateDescriptors(molecule, descriptors));
+            }
+            // Indexing stores the molecule with its name, if it is new
+            similarityService.addProcessed(molecule, result.getName());
+            result.setId(moleculeService.storeMolecule(molecule));
+        } catch (Exception e) {
+            result.setError(e.getMessage());
+        }
+    }
+
+    private void writeLine(OutputStream output, BatchResult result, boolean flush) throws IOException {
+        byte[] json = lineWriter.writeValueAsBytes(result);
+        synchronized (output) {
+            output.write(json);
+            output.write(NEWLINE);
+            if (flush) {
+                output.flush();
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes consumed from the input, for progress reports
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+}
@@ -0,0 +1,74 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.iwomi.cdkapp.service.ComputeService;
+import com.iwomi.cdkapp.service.MoleculeRejectedException;
+import com.iwomi.cdkapp.util.NamedThreadFactory;
+
+/**
+ * Compute pool for molecule requests. Request threads hand their molecule over
+ * and go back to serving connections; the pool has a thread per CPU core, plus
+ * one for each heavy molecule the admission control lets run or wait, since
+ * those threads are parked on the heavy lane rather than computing and must not
+ * hold up light molecules. At most {@code queue-capacity} requests wait for a
+ * thread; more are refused.
+ */
+@Service
+public class ComputeServiceImpl implements ComputeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ComputeServiceImpl.class);
+
+    private final ExecutorService threads;
+    private final Semaphore slots;
+
+    public ComputeServiceImpl(
+            @Value("${cdk.compute.concurrency:0}") int concurrency,
+            @Value("${cdk.compute.queue-capacity:256}") int queueCapacity,
+            @Value("${cdk.admission.heavy-concurrency:1}") int heavyConcurrency,
+            @Value("${cdk.admission.heavy-queue-capacity:8}") int heavyQueueCapacity,
+            PipelineMetrics metrics) {
+        int cores = concurrency > 0 ? concurrency : Runtime.getRuntime().availableProcessors();
+        int size = cores + Math.max(1, heavyConcurrency) + Math.max(0, heavyQueueCapacity);
+        this.threads = metrics.monitor(
+                Executors.newFixedThreadPool(size, new NamedThreadFactory("molecule-compute-")), "molecule-compute");
+        this.slots = new Semaphore(size + Math.max(0, queueCapacity));
+        logger.info("Molecule compute pool: {} threads for {} cores and the heavy lane, {} waiting at most",
+                size, cores, Math.max(0, queueCapacity));
+    }
+
+    @Override
+    public <T> CompletableFuture<T> submit(Supplier<T> work) {
+        if (!slots.tryAcquire()) {
+            throw new MoleculeRejectedException("Too many molecules are waiting; try again later");
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return work.get();
+                } finally {
+                    slots.release();
+                }
+            }, threads);
+        } catch (RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        threads.shutdownNow();
+    }
+}
@@ -0,0 +1,102 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.iwomi.cdkapp.model.Descriptor;
+import com.iwomi.cdkapp.util.DescriptorRegistry;
+
+/**
+ * Display layer for descriptor vectors: renders each descriptor as a
+ * human-readable string, with four decimals and arrays cut after ten values.
+ * Only responses meant for people go through here; numeric consumers use the
+ * vector directly.
+ */
+final class DescriptorFormatter {
+
+    // Array values shown before the rest is summarised
+    private static final int MAX_ARRAY_VALUES = 10;
+
+    private DescriptorFormatter() {
+    }
+
+    /**
+     * @param values the calculated values
+     * @return one display entry per descriptor, in registry order
+     */
+    static List<Descriptor> format(DescriptorValues values) {
+        DescriptorRegistry descriptors = values.getDescriptors();
+        List<Descriptor> formatted = new ArrayList<>(descriptors.size());
+
+        for (int i = 0; i < descriptors.size(); i++) {
+            DescriptorRegistry.Entry entry = descriptors.get(i);
+            Descriptor descriptor = new Descriptor();
+            descriptor.setId(entry.getClassName());
+            descriptor.setName(entry.getName());
+
+            switch (values.getStatus(i)) {
+                case OK:
+                    descriptor.setValue(formatValue(values, i));
+                    descriptor.setDescription(entry.getDescription());
+                    break;
+                case TIMED_OUT:
+                    descriptor.setValue("Timed out");
+                    descriptor.setDescription(values.getMessage(i));
+                    break;
+                case SKIPPED:
+                    descriptor.setValue("Skipped");
+                    descriptor.setDescription(values.getMessage(i));
+                    break;
+                default:
+                    descriptor.setValue("Error");
+                    descriptor.setDescription("Failed to calculate: " + values.getMessage(i));
+                    break;
+            }
+            formatted.add(descriptor);
+        }
+        return Collections.unmodifiableList(formatted);
+    }
+
+    /**
+     * Format one descriptor's value based on its result type
+     */
+    private static String formatValue(DescriptorValues values, int index) {
+        double[] vector = values.getValues();
+        int offset = values.getDescriptors().getColumnOffset(index);
+
+        switch (values.getKind(index)) {
+            case DOUBLE:
+                return String.format("%.4f", vector[offset]);
+            case INTEGER:
+                return String.valueOf((int) vector[offset]);
+            case BOOLEAN:
+                return String.valueOf(vector[offset] != 0);
+            case DOUBLE_ARRAY:
+            case INTEGER_ARRAY:
+                return formatArray(values, index, vector, offset);
+            default:
+                return "N/A";
+        }
+    }
+
+    private static String formatArray(DescriptorValues values, int index, double[] vector, int offset) {
+        boolean integers = values.getKind(index) == DescriptorValues.Kind.INTEGER_ARRAY;
+        int length = values.getLength(index);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("[");
+        for (int i = 0; i < length; i++) {
+            if (i > 0) sb.append(", ");
+            double value = vector[offset + i];
+            sb.append(integers ? String.valueOf((int) value) : String.format("%.4f", value));
+            // Limit array display to prevent overflow
+            if (i >= MAX_ARRAY_VALUES - 1 && length > MAX_ARRAY_VALUES) {
+                sb.append(", ... (").append(length - MAX_ARRAY_VALUES).append(" more values)");
+                break;
+            }
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+}
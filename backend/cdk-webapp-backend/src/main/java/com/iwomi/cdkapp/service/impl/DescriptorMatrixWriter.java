@@ -0,0 +1,134 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.iwomi.cdkapp.util.DescriptorMatrix;
+
+/**
+ * Writes a {@link DescriptorMatrix} file from rows that arrive in any order.
+ *
+ * The number of rows is only known at the end and batch results finish out of
+ * order, so rows are first written by their input index into a row-major spill
+ * file next to the target, with positional writes that need no lock. Finishing
+ * transposes the spill file block by block into the column-major target.
+ */
+final class DescriptorMatrixWriter implements Closeable {
+
+    // Bytes of spill file read per transposition block
+    private static final int BLOCK_BYTES = 4 * 1024 * 1024;
+
+    private final Path target;
+    private final Path spill;
+    private final int columns;
+    private final FileChannel rows;
+    private final ThreadLocal<ByteBuffer> rowBuffers;
+
+    /**
+     * @param target the matrix file to create
+     * @param columns the number of columns of each row
+     */
+    DescriptorMatrixWriter(Path target, int columns) throws IOException {
+        this.target = target;
+        this.spill = target.resolveSibling(target.getFileName() + ".rows");
+        this.columns = columns;
+        this.rows = FileChannel.open(spill, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.rowBuffers = ThreadLocal.withInitial(
+                () -> ByteBuffer.allocate(columns * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /**
+     * Store one row; safe to call from several threads for different rows
+     * @param row the input index of the molecule
+     * @param values one value per column, or null if the molecule failed
+     */
+    void write(long row, double[] values) throws IOException {
+        ByteBuffer buffer = rowBuffers.get();
+        buffer.clear();
+        DoubleBuffer doubles = buffer.asDoubleBuffer();
+        if (values != null) {
+            doubles.put(values, 0, Math.min(values.length, columns));
+        }
+        while (doubles.hasRemaining()) {
+            doubles.put(Double.NaN);
+        }
+        long position = row * columns * Double.BYTES;
+        while (buffer.hasRemaining()) {
+            position += rows.write(buffer, position);
+        }
+    }
+
+    /**
+     * Write the matrix file
+     * @param rowCount the number of rows; rows never written are NaN
+     * @param schema the JSON schema for the header
+     */
+    void finish(long rowCount, byte[] schema) throws IOException {
+        long dataOffset = DescriptorMatrix.dataOffset(schema.length);
+        long columnBytes = rowCount * Double.BYTES;
+        long spilled = rows.size();
+
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate((int) dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(DescriptorMatrix.MAGIC).putLong(rowCount).putInt(columns).putInt(schema.length).put(schema);
+            header.clear();
+            writeFully(out, header, 0);
+
+            int rowBytes = columns * Double.BYTES;
+            int blockRows = (int) Math.max(1, BLOCK_BYTES / Math.max(1, rowBytes));
+            ByteBuffer block = ByteBuffer.allocate(blockRows * rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer column = ByteBuffer.allocate(blockRows * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            double[] values = new double[blockRows * columns];
+
+            for (long first = 0; first < rowCount; first += blockRows) {
+                int count = (int) Math.min(blockRows, rowCount - first);
+                long start = first * rowBytes;
+                block.clear().limit(count * rowBytes);
+                while (block.hasRemaining() && start + block.position() < spilled) {
+                    if (rows.read(block, start + block.position()) < 0) {
+                        break;
+                    }
+                }
+                int read = block.position() / Double.BYTES;
+                block.flip();
+                block.asDoubleBuffer().get(values, 0, read);
+                // Rows past the end of the spill file were never written
+                Arrays.fill(values, read, count * columns, Double.NaN);
+
+                for (int c = 0; c < columns; c++) {
+                    column.clear();
+                    for (int r = 0; r < count; r++) {
+                        column.putDouble(values[r * columns + c]);
+                    }
+                    column.flip();
+                    writeFully(out, column, dataOffset + c * columnBytes + first * Double.BYTES);
+                }
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Remove the spill file; the matrix file stays if it was finished
+     */
+    @Override
+    public void close() throws IOException {
+        rows.close();
+        Files.deleteIfExists(spill);
+    }
+}
@@ -0,0 +1,176 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.stereotype.Service;
+
+import com.iwomi.cdkapp.model.DescriptorHit;
+import com.iwomi.cdkapp.model.DescriptorQuery;
+import com.iwomi.cdkapp.service.DescriptorQueryService;
+
+/**
+ * Reads filters into one range per column and runs them over the {@link DescriptorTable}
+ */
+@Service
+public class DescriptorQueryServiceImpl implements DescriptorQueryService {
+
+    private static final String[] OPERATORS = { "<=", ">=", "<", ">", "=" };
+
+    private final DescriptorTable table;
+    private final MoleculeStore store;
+    private final PipelineMetrics metrics;
+
+    public DescriptorQueryServiceImpl(DescriptorTable table, MoleculeStore store, PipelineMetrics metrics) {
+        this.table = table;
+        this.store = store;
+        this.metrics = metrics;
+    }
+
+    /**
+     * The conditions on one column, narrowed to the tightest bounds
+     */
+    private static final class Bounds {
+        final int column;
+        double min = Double.NEGATIVE_INFINITY;
+        boolean minInclusive = true;
+        double max = Double.POSITIVE_INFINITY;
+        boolean maxInclusive = true;
+
+        Bounds(int column) {
+            this.column = column;
+        }
+
+        void atLeast(double value, boolean inclusive) {
+            if (value > min || (value == min && !inclusive)) {
+                min = value;
+                minInclusive = inclusive;
+            }
+        }
+
+        void atMost(double value, boolean inclusive) {
+            if (value < max || (value == max && !inclusive)) {
+                max = value;
+                maxInclusive = inclusive;
+            }
+        }
+
+        DescriptorTable.Range toRange() {
+            return new DescriptorTable.Range(column, minInclusive ? min : Math.nextUp(min),
+                    maxInclusive ? max : Math.nextDown(max));
+        }
+
+        String describe(String name) {
+            StringBuilder condition = new StringBuilder();
+            if (min != Double.NEGATIVE_INFINITY) {
+                condition.append(min).append(minInclusive ? " <= " : " < ");
+            }
+            condition.append(name);
+            if (max != Double.POSITIVE_INFINITY) {
+                condition.append(maxInclusive ? " <= " : " < ").append(max);
+            }
+            return condition.toString();
+        }
+    }
+
+    @Override
+    public DescriptorQuery query(String filter, int limit) {
+        Map<Integer, Bounds> conditions = new LinkedHashMap<>();
+        for (String condition : filter.split(",")) {
+            if (!condition.trim().isEmpty()) {
+                parse(condition.trim(), conditions);
+            }
+        }
+        if (conditions.isEmpty()) {
+            throw new IllegalArgumentException("A filter needs at least one condition");
+        }
+
+        List<DescriptorTable.Range> ranges = new ArrayList<>();
+        List<String> described = new ArrayList<>();
+        for (Bounds bounds : conditions.values()) {
+            ranges.add(bounds.toRange());
+            described.add(bounds.describe(table.getColumns().get(bounds.column)));
+        }
+
+        DescriptorQuery query = new DescriptorQuery();
+        query.setConditions(described);
+        query.setRows(table.size());
+        long start = System.nanoTime();
+        DescriptorTable.Matches matches = metrics.time("descriptor-query", () -> table.query(ranges, limit));
+        query.setElapsedMs((System.nanoTime() - start) / 1_000_000);
+        query.setMatches(matches.count);
+
+        List<DescriptorHit> hits = new ArrayList<>(matches.rows.size());
+        for (int row : matches.rows) {
+            Map<String, Double> values = new LinkedHashMap<>();
+            for (Bounds bounds : conditions.values()) {
+                values.put(table.getColumns().get(bounds.column), table.getValue(row, bounds.column));
+            }
+            hits.add(new DescriptorHit(store.getMoleculeId(table.getKey(row)), table.getSmiles(row), values));
+        }
+        query.setHits(hits);
+        return query;
+    }
+
+    private void parse(String condition, Map<Integer, Bounds> conditions) {
+        int position = -1;
+        String operator = null;
+        for (String candidate : OPERATORS) {
+            int index = condition.indexOf(candidate);
+            if (index > 0 && (position < 0 || index < position || (index == position && candidate.length() > operator.length()))) {
+                position = index;
+                operator = candidate;
+            }
+        }
+        if (operator == null) {
+            throw new IllegalArgumentException("Cannot read condition: " + condition
+                    + " (expected a column, one of < <= > >= =, and a number)");
+        }
+        String name = condition.substring(0, position).trim();
+        String value = condition.substring(position + operator.length()).trim();
+        int column = table.getColumn(name);
+        if (column < 0) {
+            throw new IllegalArgumentException("Not a queryable descriptor column: " + name
+                    + " (queryable: " + String.join(", ", table.getColumns()) + ")");
+        }
+
+        Bounds bounds = conditions.computeIfAbsent(column, Bounds::new);
+        try {
+            switch (operator) {
+                case "<=":
+                    bounds.atMost(number(value), true);
+                    break;
+                case "<":
+                    bounds.atMost(number(value), false);
+                    break;
+                case ">=":
+                    bounds.atLeast(number(value), true);
+                    break;
+                case ">":
+                    bounds.atLeast(number(value), false);
+                    break;
+                default:
+                    int range = value.indexOf("..");
+                    bounds.atLeast(number(range < 0 ? value : value.substring(0, range)), true);
+                    bounds.atMost(number(range < 0 ? value : value.substring(range + 2)), true);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Cannot read condition: " + condition + " (" + value + " is not a number)");
+        }
+    }
+
+    private static double number(String value) {
+        double number = Double.parseDouble(value.trim());
+        if (Double.isNaN(number)) {
+            throw new NumberFormatException(value);
+        }
+        return number;
+    }
+
+    @Override
+    public List<String> getColumns() {
+        return table.getColumns();
+    }
+}
@@ -0,0 +1,69 @@
+package com.iwomi.cdkapp.service.impl;
+
+import org.openscience.cdk.qsar.DescriptorValue;
+
+import com.iwomi.cdkapp.util.DescriptorRegistry;
+
+/**
+ * Outcome of evaluating a single registry descriptor on a molecule
+ */
+public final class DescriptorResult {
+
+    public enum Status {
+        OK,
+        ERROR,
+        TIMED_OUT,
+        SKIPPED
+    }
+
+    private final DescriptorRegistry.Entry entry;
+    private final Status status;
+    private final DescriptorValue value;
+    private final String message;
+
+    private DescriptorResult(DescriptorRegistry.Entry entry, Status status, DescriptorValue value, String message) {
+        this.entry = entry;
+        this.status = status;
+        this.value = value;
+        this.message = message;
+    }
+
+    static DescriptorResult ok(DescriptorRegistry.Entry entry, DescriptorValue value) {
+        return new DescriptorResult(entry, Status.OK, value, null);
+    }
+
+    static DescriptorResult error(DescriptorRegistry.Entry entry, String message) {
+        return new DescriptorResult(entry, Status.ERROR, null, message);
+    }
+
+    static DescriptorResult timedOut(DescriptorRegistry.Entry entry, long budgetMillis) {
+        return new DescriptorResult(entry, Status.TIMED_OUT, null,
+                "Calculation exceeded the " + budgetMillis + " ms budget");
+    }
+
+    static DescriptorResult skipped(DescriptorRegistry.Entry entry, String reason) {
+        return new DescriptorResult(entry, Status.SKIPPED, null, reason);
+    }
+
+    public DescriptorRegistry.Entry getEntry() {
+        return entry;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the CDK value, or null unless the status is {@link Status#OK}
+     */
+    public DescriptorValue getValue() {
+        return value;
+    }
+
+    /**
+     * @return the error, timeout or skip message, or null on success
+     */
+    public String getMessage() {
+        return message;
+    }
+}
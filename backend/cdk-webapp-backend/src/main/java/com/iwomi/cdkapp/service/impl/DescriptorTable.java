@@ -0,0 +1,320 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.iwomi.cdkapp.util.CDKDescriptorLister;
+import com.iwomi.cdkapp.util.DescriptorRegistry;
+
+/**
+ * Columns of descriptor values of every molecule calculated, for range queries such
+ * as "MW 300 to 500 and TopoPSA below 90".
+ *
+ * Only the configured columns are kept, each as primitive arrays in chunks of
+ * {@value #CHUNK} rows, one row per canonical SMILES. Rows are filled in as
+ * descriptors are calculated, and from the {@link MoleculeStore} on startup;
+ * columns whose descriptor has not been calculated for a molecule hold NaN, which
+ * no range matches. A query scans the columns of its conditions one after another,
+ * 64 rows at a time into a bit mask, and skips each block of 64 rows that an
+ * earlier condition has ruled out.
+ */
+@Component
+public class DescriptorTable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DescriptorTable.class);
+
+    static final int CHUNK = 16384;
+    // Rows that conditions are tried on to order them
+    private static final int SAMPLE = 1024;
+
+    /**
+     * A closed range over one column; open bounds are made closed by moving them by one ulp
+     */
+    static final class Range {
+        final int column;
+        final double min;
+        final double max;
+
+        Range(int column, double min, double max) {
+            this.column = column;
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    /**
+     * Rows found by a query: the first ones in row order, and how many there are
+     */
+    static final class Matches {
+        final List<Integer> rows = new ArrayList<>();
+        long count;
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<String> columns;
+    // Registry position of the descriptor of each column, and the column within it
+    private final int[] descriptors;
+    private final int[] offsets;
+    private final DescriptorRegistry registry;
+
+    private final Map<String, Integer> rowsByKey = new HashMap<>();
+    private final List<String> keys = new ArrayList<>();
+    private final List<String> smiles = new ArrayList<>();
+    // chunks.get(c)[column] holds rows c * CHUNK onwards
+    private final List<double[][]> chunks = new ArrayList<>();
+
+    public DescriptorTable(CDKDescriptorLister descriptorLister, MoleculeStore store,
+            @Value("${cdk.query.columns:MW,XLogP,ALogP,TopoPSA,nHBDon,nHBAcc,nRotB,nAtom,nAromRings,LipinskiFailures}") String columns,
+            PipelineMetrics metrics) {
+        this.registry = descriptorLister.getRegistry();
+        List<String> registered = registry.getColumns();
+        List<String> names = new ArrayList<>();
+        if ("*".equals(columns.trim())) {
+            names.addAll(registered);
+        } else {
+            for (String name : columns.split(",")) {
+                if (name.trim().isEmpty()) {
+                    continue;
+                }
+                int column = indexOf(registered, name.trim());
+                if (column < 0) {
+                    // Descriptors may be missing from the classpath; the rest still work
+                    logger.warn("Descriptor column {} is not available for queries", name.trim());
+                } else if (!names.contains(registered.get(column))) {
+                    names.add(registered.get(column));
+                }
+            }
+        }
+        this.columns = Collections.unmodifiableList(names);
+        this.descriptors = new int[names.size()];
+        this.offsets = new int[names.size()];
+        for (int i = 0; i < names.size(); i++) {
+            int column = registered.indexOf(names.get(i));
+            int descriptor = 0;
+            while (registry.getColumnOffset(descriptor + 1) <= column) {
+                descriptor++;
+            }
+            descriptors[i] = descriptor;
+            offsets[i] = column - registry.getColumnOffset(descriptor);
+        }
+
+        if (!names.isEmpty()) {
+            long start = System.nanoTime();
+            store.forEachDescriptors(registry, (canonicalSmiles, values) -> add(canonicalSmiles, canonicalSmiles, values));
+            logger.info("Descriptor queries over {} columns, {} rows loaded in {} ms", names.size(), smiles.size(),
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+        metrics.gauge("cdk.query.rows", "Molecules in the descriptor query table", this, DescriptorTable::size);
+    }
+
+    /**
+     * @return the queryable column names, in table order
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * @param name a column name, matched exactly or else ignoring case
+     * @return the position of the column, or -1 if it is not in the table
+     */
+    public int getColumn(String name) {
+        return indexOf(columns, name);
+    }
+
+    private static int indexOf(List<String> names, String name) {
+        int column = names.indexOf(name);
+        if (column < 0) {
+            for (int i = 0; i < names.size() && column < 0; i++) {
+                if (names.get(i).toLowerCase(Locale.ROOT).equals(name.toLowerCase(Locale.ROOT))) {
+                    column = i;
+                }
+            }
+        }
+        return column;
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return smiles.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Set the columns a descriptor calculation covers in the row of a molecule,
+     * adding the row if the molecule is new
+     * @param canonicalSmiles the key of the row
+     * @param displaySmiles the SMILES shown for a new row
+     * @param values values of some selection of the registry
+     */
+    public void add(String canonicalSmiles, String displaySmiles, DescriptorValues values) {
+        if (columns.isEmpty()) {
+            return;
+        }
+        DescriptorRegistry selection = values.getDescriptors();
+        // Columns the selection covers, and where their values are in its vector
+        int[] sources = new int[columns.size()];
+        boolean covered = false;
+        for (int i = 0; i < sources.length; i++) {
+            int descriptor = selection == registry ? descriptors[i] : selection.indexOf(registry.get(descriptors[i]));
+            sources[i] = descriptor < 0 ? -1 : selection.getColumnOffset(descriptor) + offsets[i];
+            covered |= descriptor >= 0;
+        }
+        if (!covered) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            Integer row = rowsByKey.get(canonicalSmiles);
+            if (row == null) {
+                row = smiles.size();
+                if (row % CHUNK == 0) {
+                    double[][] chunk = new double[sources.length][CHUNK];
+                    for (double[] column : chunk) {
+                        Arrays.fill(column, Double.NaN);
+                    }
+                    chunks.add(chunk);
+                }
+                rowsByKey.put(canonicalSmiles, row);
+                keys.add(canonicalSmiles);
+                smiles.add(displaySmiles);
+            }
+            double[][] chunk = chunks.get(row / CHUNK);
+            for (int i = 0; i < sources.length; i++) {
+                if (sources[i] >= 0) {
+                    chunk[i][row % CHUNK] = values.getValues()[sources[i]];
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Find the rows inside every range
+     * @param ranges the conditions; they are applied most selective first, as judged
+     *               on a sample of the first rows
+     * @param limit the number of rows to return; all matching rows are counted
+     */
+    Matches query(List<Range> ranges, int limit) {
+        Matches matches = new Matches();
+        long[] mask = new long[CHUNK / 64];
+        lock.readLock().lock();
+        try {
+            int rows = smiles.size();
+            if (rows == 0) {
+                return matches;
+            }
+            double[][] sample = chunks.get(0);
+            int sampled = Math.min(SAMPLE, rows);
+            List<Range> ordered = new ArrayList<>(ranges);
+            ordered.sort(Comparator.comparingInt(range -> count(sample[range.column], range, sampled)));
+            for (int c = 0; c < chunks.size(); c++) {
+                double[][] chunk = chunks.get(c);
+                int size = Math.min(CHUNK, rows - c * CHUNK);
+                int words = (size + 63) / 64;
+                Arrays.fill(mask, 0, words, -1L);
+                if (size % 64 != 0) {
+                    mask[words - 1] = -1L >>> (64 - size % 64);
+                }
+                for (Range range : ordered) {
+                    filter(chunk[range.column], range.min, range.max, mask, words);
+                }
+                for (int w = 0; w < words; w++) {
+                    long word = mask[w];
+                    matches.count += Long.bitCount(word);
+                    while (word != 0 && matches.rows.size() < limit) {
+                        matches.rows.add(c * CHUNK + w * 64 + Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return matches;
+    }
+
+    private static int count(double[] values, Range range, int rows) {
+        int count = 0;
+        for (int i = 0; i < rows; i++) {
+            count += values[i] >= range.min && values[i] <= range.max ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * Clear the bits of rows whose value is outside a range, 64 rows at a time
+     */
+    private static void filter(double[] values, double min, double max, long[] mask, int words) {
+        for (int w = 0; w < words; w++) {
+            if (mask[w] == 0) {
+                continue;
+            }
+            long inside = 0;
+            int base = w * 64;
+            for (int i = 0; i < 64; i++) {
+                double value = values[base + i];
+                // Non-short-circuit and a conditional move rather than a branch per row
+                inside |= (value >= min & value <= max ? 1L : 0L) << i;
+            }
+            mask[w] &= inside;
+        }
+    }
+
+    /**
+     * @return the canonical SMILES of a row
+     */
+    String getKey(int row) {
+        lock.readLock().lock();
+        try {
+            return keys.get(row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the SMILES of a row, as first calculated
+     */
+    String getSmiles(int row) {
+        lock.readLock().lock();
+        try {
+            return smiles.get(row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the value of a column in a row
+     */
+    double getValue(int row, int column) {
+        lock.readLock().lock();
+        try {
+            return chunks.get(row / CHUNK)[column][row % CHUNK];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
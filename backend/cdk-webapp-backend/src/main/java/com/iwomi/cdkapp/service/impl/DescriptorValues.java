@@ -0,0 +1,209 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.util.Arrays;
+
+import org.openscience.cdk.qsar.DescriptorValue;
+import org.openscience.cdk.qsar.result.BooleanResult;
+import org.openscience.cdk.qsar.result.DoubleArrayResult;
+import org.openscience.cdk.qsar.result.DoubleResult;
+import org.openscience.cdk.qsar.result.IDescriptorResult;
+import org.openscience.cdk.qsar.result.IntegerArrayResult;
+import org.openscience.cdk.qsar.result.IntegerResult;
+
+import com.iwomi.cdkapp.util.DescriptorRegistry;
+
+/**
+ * Descriptor results of one molecule as a primitive vector over the column schema
+ * of a registry selection, with the status of each descriptor alongside.
+ *
+ * Array results keep their full length. Descriptors that failed or timed out have
+ * NaN in all their columns. The result type of each descriptor is kept so that
+ * {@link DescriptorFormatter} can render values exactly as before. Instances are
+ * immutable once built and are what the result cache stores.
+ */
+public final class DescriptorValues {
+
+    /**
+     * CDK result type of a descriptor, needed for display only
+     */
+    public enum Kind {
+        NONE,
+        DOUBLE,
+        INTEGER,
+        BOOLEAN,
+        DOUBLE_ARRAY,
+        INTEGER_ARRAY
+    }
+
+    private final DescriptorRegistry descriptors;
+    private final double[] values;
+    private final DescriptorResult.Status[] statuses;
+    private final String[] messages;
+    private final Kind[] kinds;
+    private final int[] lengths;
+
+    private DescriptorValues(DescriptorRegistry descriptors, double[] values, DescriptorResult.Status[] statuses,
+            String[] messages, Kind[] kinds, int[] lengths) {
+        this.descriptors = descriptors;
+        this.values = values;
+        this.statuses = statuses;
+        this.messages = messages;
+        this.kinds = kinds;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Convert calculator results to a vector
+     * @param descriptors the selection the results were calculated for
+     * @param results one result per selected descriptor, in registry order
+     * @return the vector
+     */
+    static DescriptorValues of(DescriptorRegistry descriptors, DescriptorResult[] results) {
+        int count = descriptors.size();
+        double[] values = new double[descriptors.getColumnCount()];
+        Arrays.fill(values, Double.NaN);
+        DescriptorResult.Status[] statuses = new DescriptorResult.Status[count];
+        String[] messages = new String[count];
+        Kind[] kinds = new Kind[count];
+        int[] lengths = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            DescriptorResult result = results[i];
+            statuses[i] = result.getStatus();
+            messages[i] = result.getMessage();
+            kinds[i] = Kind.NONE;
+
+            DescriptorValue value = result.getValue();
+            if (value == null || value.getValue() == null) {
+                continue;
+            }
+            int offset = descriptors.getColumnOffset(i);
+            int width = descriptors.getColumnOffset(i + 1) - offset;
+            IDescriptorResult resultValue = value.getValue();
+
+            if (resultValue instanceof DoubleResult) {
+                kinds[i] = Kind.DOUBLE;
+                lengths[i] = 1;
+                values[offset] = ((DoubleResult) resultValue).doubleValue();
+            } else if (resultValue instanceof IntegerResult) {
+                kinds[i] = Kind.INTEGER;
+                lengths[i] = 1;
+                values[offset] = ((IntegerResult) resultValue).intValue();
+            } else if (resultValue instanceof BooleanResult) {
+                kinds[i] = Kind.BOOLEAN;
+                lengths[i] = 1;
+                values[offset] = ((BooleanResult) resultValue).booleanValue() ? 1 : 0;
+            } else if (resultValue instanceof DoubleArrayResult) {
+                DoubleArrayResult array = (DoubleArrayResult) resultValue;
+                kinds[i] = Kind.DOUBLE_ARRAY;
+                lengths[i] = Math.min(array.length(), width);
+                for (int j = 0; j < lengths[i]; j++) {
+                    values[offset + j] = array.get(j);
+                }
+            } else if (resultValue instanceof IntegerArrayResult) {
+                IntegerArrayResult array = (IntegerArrayResult) resultValue;
+                kinds[i] = Kind.INTEGER_ARRAY;
+                lengths[i] = Math.min(array.length(), width);
+                for (int j = 0; j < lengths[i]; j++) {
+                    values[offset + j] = array.get(j);
+                }
+            }
+        }
+        return new DescriptorValues(descriptors, values, statuses, messages, kinds, lengths);
+    }
+
+    /**
+     * Rebuild a vector read back from the {@link MoleculeStore}; the arrays are taken as they are
+     */
+    static DescriptorValues of(DescriptorRegistry descriptors, double[] values, DescriptorResult.Status[] statuses,
+            String[] messages, Kind[] kinds, int[] lengths) {
+        return new DescriptorValues(descriptors, values, statuses, messages, kinds, lengths);
+    }
+
+    /**
+     * @return the descriptors these values belong to; their columns are the vector schema
+     */
+    public DescriptorRegistry getDescriptors() {
+        return descriptors;
+    }
+
+    /**
+     * @return the values, one per column; shared, must not be modified
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * @param index position of the descriptor in {@link #getDescriptors()}
+     */
+    public DescriptorResult.Status getStatus(int index) {
+        return statuses[index];
+    }
+
+    /**
+     * @param index position of the descriptor in {@link #getDescriptors()}
+     * @return the error, timeout or skip message, or null on success
+     */
+    public String getMessage(int index) {
+        return messages[index];
+    }
+
+    /**
+     * @param index position of the descriptor in {@link #getDescriptors()}
+     */
+    public Kind getKind(int index) {
+        return kinds[index];
+    }
+
+    /**
+     * @param index position of the descriptor in {@link #getDescriptors()}
+     * @return the number of values the descriptor produced
+     */
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    /**
+     * @return whether no descriptor timed out or was skipped; only complete results
+     *         are worth caching
+     */
+    public boolean isComplete() {
+        for (DescriptorResult.Status status : statuses) {
+            if (status == DescriptorResult.Status.TIMED_OUT || status == DescriptorResult.Status.SKIPPED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Extract the values of a sub-selection
+     * @param selection a selection of the registry these values were calculated for
+     * @return the selected values, or null if some selected descriptor is missing here
+     */
+    DescriptorValues select(DescriptorRegistry selection) {
+        int count = selection.size();
+        double[] selectedValues = new double[selection.getColumnCount()];
+        DescriptorResult.Status[] selectedStatuses = new DescriptorResult.Status[count];
+        String[] selectedMessages = new String[count];
+        Kind[] selectedKinds = new Kind[count];
+        int[] selectedLengths = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            int source = descriptors.indexOf(selection.get(i));
+            if (source < 0) {
+                return null;
+            }
+            int offset = descriptors.getColumnOffset(source);
+            System.arraycopy(values, offset, selectedValues, selection.getColumnOffset(i),
+                    descriptors.getColumnOffset(source + 1) - offset);
+            selectedStatuses[i] = statuses[source];
+            selectedMessages[i] = messages[source];
+            selectedKinds[i] = kinds[source];
+            selectedLengths[i] = lengths[source];
+        }
+        return new DescriptorValues(selection, selectedValues, selectedStatuses, selectedMessages,
+                selectedKinds, selectedLengths);
+    }
+}
@@ -0,0 +1,339 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import com.iwomi.cdkapp.model.SimilarityHit;
+
+/**
+ * In-memory Tanimoto search over packed fingerprints of one type.
+ *
+ * Fingerprints are kept in flat long arrays, grouped by their number of set bits.
+ * The Tanimoto similarity of fingerprints with a and b bits set is at most
+ * min(a, b) / max(a, b), so a search visits the groups in order of that bound and
+ * stops once no group left can beat its k-th hit. Entries are spread over shards
+ * that are searched in parallel; the shards share the best k-th similarity found
+ * so far, so each prunes with the tightest bound known anywhere.
+ *
+ * For substructure search the index is screened instead: with a fingerprint whose
+ * bits for a substructure are a subset of those of the molecule, only molecules
+ * with every query bit set, and hence at least as many bits, can contain the query.
+ */
+final class FingerprintIndex {
+
+    private static final Comparator<SimilarityHit> BEST_FIRST =
+            Comparator.comparingDouble(SimilarityHit::getSimilarity).reversed()
+                    .thenComparing(SimilarityHit::getSmiles);
+
+    private final int bits;
+    private final int words;
+    private final Shard[] shards;
+    private final AtomicInteger nextShard = new AtomicInteger();
+    private final Set<String> keys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param bits the fingerprint size
+     * @param shards the number of shards, i.e. of threads one search can use
+     */
+    FingerprintIndex(int bits, int shards) {
+        this.bits = bits;
+        this.words = (bits + 63) / 64;
+        this.shards = new Shard[Math.max(1, shards)];
+        for (int i = 0; i < this.shards.length; i++) {
+            this.shards[i] = new Shard(bits);
+        }
+    }
+
+    /**
+     * @return the number of molecules in the index
+     */
+    int size() {
+        return keys.size();
+    }
+
+    /**
+     * @param key the canonical SMILES of a molecule
+     * @return whether the molecule is indexed
+     */
+    boolean contains(String key) {
+        return keys.contains(key);
+    }
+
+    /**
+     * Add a molecule, unless one with the same key is indexed already
+     * @param key the canonical SMILES of the molecule
+     * @param smiles the SMILES to report it by
+     * @param name an optional name, or null
+     * @param fingerprint the packed fingerprint
+     * @return whether the molecule was added
+     */
+    boolean add(String key, String smiles, String name, long[] fingerprint) {
+        if (fingerprint.length != words) {
+            throw new IllegalArgumentException("Expected " + words + " fingerprint words, got " + fingerprint.length);
+        }
+        if (!keys.add(key)) {
+            return false;
+        }
+        Shard shard = shards[Math.floorMod(nextShard.getAndIncrement(), shards.length)];
+        shard.add(cardinality(fingerprint), fingerprint, smiles, name);
+        return true;
+    }
+
+    /**
+     * Find the most similar molecules
+     * @param query the packed query fingerprint
+     * @param k the maximum number of hits
+     * @param threshold the minimum similarity of a hit
+     * @param executor runs the shards other than the first, which runs on the calling thread
+     * @return at most k hits with a similarity above 0 and at least the threshold, best first
+     */
+    List<SimilarityHit> search(long[] query, int k, double threshold, Executor executor) {
+        int queryCount = cardinality(query);
+        if (queryCount == 0 || k <= 0) {
+            return Collections.emptyList();
+        }
+        // The k-th best similarity of any shard; nothing at or below it can make the result
+        DoubleAccumulator floor = new DoubleAccumulator(Math::max, 0);
+
+        List<CompletableFuture<List<SimilarityHit>>> pending = new ArrayList<>(shards.length - 1);
+        for (int i = 1; i < shards.length; i++) {
+            Shard shard = shards[i];
+            pending.add(CompletableFuture.supplyAsync(
+                    () -> shard.search(query, queryCount, k, threshold, floor), executor));
+        }
+        List<SimilarityHit> hits = new ArrayList<>(shards[0].search(query, queryCount, k, threshold, floor));
+        for (CompletableFuture<List<SimilarityHit>> shardHits : pending) {
+            hits.addAll(shardHits.join());
+        }
+
+        hits.sort(BEST_FIRST);
+        return hits.size() > k ? new ArrayList<>(hits.subList(0, k)) : hits;
+    }
+
+    /**
+     * Receives the molecules passing a screen
+     */
+    @FunctionalInterface
+    interface Candidates {
+        /**
+         * @param smiles the SMILES of the molecule
+         * @param name its name, or null
+         * @param similarity its Tanimoto similarity to the query
+         * @return whether to go on with the next candidate
+         */
+        boolean accept(String smiles, String name, double similarity);
+    }
+
+    /**
+     * Pass every molecule whose fingerprint has all bits of the query set to a
+     * consumer. Shards are screened in parallel, the first on the calling thread,
+     * and each gets its own consumer. Candidates are passed on outside the shard
+     * locks, so slow checks of candidates do not hold up additions.
+     * @param query the packed query fingerprint
+     * @param consumers creates the consumer of one shard's candidates
+     * @param executor runs the shards other than the first
+     */
+    void screen(long[] query, Supplier<Candidates> consumers, Executor executor) {
+        int queryCount = cardinality(query);
+        List<CompletableFuture<Void>> pending = new ArrayList<>(shards.length - 1);
+        for (int i = 1; i < shards.length; i++) {
+            Shard shard = shards[i];
+            pending.add(CompletableFuture.runAsync(() -> shard.screen(query, queryCount, consumers.get()), executor));
+        }
+        shards[0].screen(query, queryCount, consumers.get());
+        for (CompletableFuture<Void> shard : pending) {
+            shard.join();
+        }
+    }
+
+    static int cardinality(long[] fingerprint) {
+        int count = 0;
+        for (long word : fingerprint) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    private static int cardinality(long[] fingerprints, int offset, int words) {
+        int count = 0;
+        for (int w = 0; w < words; w++) {
+            count += Long.bitCount(fingerprints[offset + w]);
+        }
+        return count;
+    }
+
+    /**
+     * Fingerprints with the same number of set bits
+     */
+    private static final class Bucket {
+        long[] fingerprints;
+        String[] smiles;
+        String[] names;
+        int size;
+
+        Bucket(int words) {
+            this(new long[16 * words], new String[16], new String[16], 0);
+        }
+
+        private Bucket(long[] fingerprints, String[] smiles, String[] names, int size) {
+            this.fingerprints = fingerprints;
+            this.smiles = smiles;
+            this.names = names;
+            this.size = size;
+        }
+
+        /**
+         * @return a view of the entries added so far
+         */
+        Bucket snapshot() {
+            return new Bucket(fingerprints, smiles, names, size);
+        }
+
+        void add(long[] fingerprint, String key, String name) {
+            int words = fingerprint.length;
+            if (size == smiles.length) {
+                int capacity = size * 2;
+                fingerprints = Arrays.copyOf(fingerprints, capacity * words);
+                smiles = Arrays.copyOf(smiles, capacity);
+                names = Arrays.copyOf(names, capacity);
+            }
+            System.arraycopy(fingerprint, 0, fingerprints, size * words, words);
+            smiles[size] = key;
+            names[size] = name;
+            size++;
+        }
+    }
+
+    private final class Shard {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        // Indexed by the number of set bits; created on first use
+        private final Bucket[] buckets;
+
+        Shard(int bits) {
+            this.buckets = new Bucket[bits + 1];
+        }
+
+        void add(int count, long[] fingerprint, String smiles, String name) {
+            lock.writeLock().lock();
+            try {
+                if (buckets[count] == null) {
+                    buckets[count] = new Bucket(words);
+                }
+                buckets[count].add(fingerprint, smiles, name);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void screen(long[] query, int queryCount, Candidates candidates) {
+            // Buckets only ever append, and grow into new arrays, so what was added
+            // before this snapshot stays in place while it is read without the lock
+            List<Bucket> snapshot = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                for (int count = queryCount; count <= bits; count++) {
+                    if (buckets[count] != null) {
+                        snapshot.add(buckets[count].snapshot());
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            for (Bucket bucket : snapshot) {
+                long[] fingerprints = bucket.fingerprints;
+                for (int i = 0, offset = 0; i < bucket.size; i++, offset += words) {
+                    int common = 0;
+                    boolean subset = true;
+                    for (int w = 0; w < words; w++) {
+                        long shared = query[w] & fingerprints[offset + w];
+                        if (shared != query[w]) {
+                            subset = false;
+                            break;
+                        }
+                        common += Long.bitCount(shared);
+                    }
+                    if (subset) {
+                        double similarity = common == 0 ? 0
+                                : (double) common / cardinality(fingerprints, offset, words);
+                        if (!candidates.accept(bucket.smiles[i], bucket.names[i], similarity)) {
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+
+        List<SimilarityHit> search(long[] query, int queryCount, int k, double threshold, DoubleAccumulator floor) {
+            PriorityQueue<SimilarityHit> top = new PriorityQueue<>(k + 1,
+                    Comparator.comparingDouble(SimilarityHit::getSimilarity));
+            lock.readLock().lock();
+            try {
+                // Walk outwards from the query's bit count, always to the side with the higher bound
+                int up = queryCount;
+                int down = queryCount - 1;
+                while (up <= bits || down > 0) {
+                    double upBound = up <= bits ? (double) queryCount / up : -1;
+                    double downBound = down > 0 ? (double) down / queryCount : -1;
+                    int count;
+                    double bound;
+                    if (upBound >= downBound) {
+                        count = up++;
+                        bound = upBound;
+                    } else {
+                        count = down--;
+                        bound = downBound;
+                    }
+                    if (bound < threshold || bound <= floor.get()) {
+                        break;
+                    }
+                    if (buckets[count] != null) {
+                        scan(buckets[count], count, query, queryCount, k, threshold, floor, top);
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            return new ArrayList<>(top);
+        }
+
+        private void scan(Bucket bucket, int count, long[] query, int queryCount, int k, double threshold,
+                DoubleAccumulator floor, PriorityQueue<SimilarityHit> top) {
+            long[] fingerprints = bucket.fingerprints;
+            // Hits must beat this; it only rises while the bucket is scanned
+            double cut = Math.max(floor.get(), top.size() == k ? top.peek().getSimilarity() : 0);
+            for (int i = 0, offset = 0; i < bucket.size; i++, offset += words) {
+                int common = 0;
+                for (int w = 0; w < words; w++) {
+                    common += Long.bitCount(query[w] & fingerprints[offset + w]);
+                }
+                double similarity = (double) common / (queryCount + count - common);
+                if (similarity <= cut || similarity < threshold) {
+                    continue;
+                }
+                if (top.size() == k) {
+                    top.poll();
+                }
+                top.add(new SimilarityHit(bucket.smiles[i], bucket.names[i], similarity));
+                if (top.size() == k) {
+                    cut = top.peek().getSimilarity();
+                    floor.accumulate(cut);
+                    cut = Math.max(cut, floor.get());
+                }
+            }
+        }
+    }
+}
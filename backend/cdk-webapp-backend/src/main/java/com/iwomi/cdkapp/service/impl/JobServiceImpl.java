@@ -0,0 +1,297 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.iwomi.cdkapp.model.JobStatus;
+import com.iwomi.cdkapp.model.JobStatus.State;
+import com.iwomi.cdkapp.service.BatchService;
+import com.iwomi.cdkapp.service.JobRejectedException;
+import com.iwomi.cdkapp.service.JobService;
+import com.iwomi.cdkapp.util.NamedThreadFactory;
+
+/**
+ * Runs descriptor jobs on a small pool of job threads, off the servlet threads.
+ *
+ * At most {@code concurrency} jobs run at once and at most {@code queue-capacity}
+ * more wait; a submission beyond that is rejected before its input is stored.
+ * Each job spools its input to disk, so the submitting request returns at once,
+ * and then runs as an ingest through the batch pipeline, whose workers bound the
+ * molecules in flight. Cancelling a running job interrupts it. Finished jobs are
+ * kept, with their results, up to {@code max-retained}; the oldest go first.
+ */
+@Service
+public class JobServiceImpl implements JobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobServiceImpl.class);
+
+    private final BatchService batchService;
+    private final ExecutorService runners;
+    private final Semaphore slots;
+    private final Path directory;
+    private final int maxRetained;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    public JobServiceImpl(BatchService batchService,
+            @Value("${cdk.jobs.concurrency:1}") int concurrency,
+            @Value("${cdk.jobs.queue-capacity:16}") int queueCapacity,
+            @Value("${cdk.jobs.max-retained:100}") int maxRetained,
+            @Value("${cdk.jobs.directory:${java.io.tmpdir}/cdk-jobs}") String directory,
+            PipelineMetrics metrics) {
+        int threads = Math.max(1, concurrency);
+        this.batchService = batchService;
+        this.runners = metrics.monitor(
+                Executors.newFixedThreadPool(threads, new NamedThreadFactory("job-runner-")), "job-runners");
+        this.slots = new Semaphore(threads + Math.max(0, queueCapacity));
+        this.directory = Paths.get(directory);
+        this.maxRetained = Math.max(0, maxRetained);
+    }
+
+    private static final class Job {
+        final JobStatus status;
+        final Path input;
+        final boolean gzip;
+        final BatchService.InputFormat format;
+        final List<String> descriptors;
+        final BatchService.OutputFormat outputFormat;
+        Future<?> future;
+        ResultPages pages;
+
+        Job(JobStatus status, Path input, boolean gzip, BatchService.InputFormat format, List<String> descriptors,
+                BatchService.OutputFormat outputFormat) {
+            this.status = status;
+            this.input = input;
+            this.gzip = gzip;
+            this.format = format;
+            this.descriptors = descriptors;
+            this.outputFormat = outputFormat;
+        }
+    }
+
+    @Override
+    public JobStatus submit(Upload upload, boolean gzip, BatchService.InputFormat format, List<String> descriptors,
+            BatchService.OutputFormat outputFormat) throws IOException {
+        if (!slots.tryAcquire()) {
+            throw new JobRejectedException("Job queue is full, try again later");
+        }
+        String id = UUID.randomUUID().toString();
+        Path input = directory.resolve(id + ".input");
+        Job job;
+        try {
+            Files.createDirectories(directory);
+            upload.transferTo(input);
+            job = new Job(new JobStatus(id, State.QUEUED, Instant.now()), input, gzip, format, descriptors,
+                    outputFormat);
+            jobs.put(id, job);
+            synchronized (job) {
+                job.future = runners.submit(() -> run(job));
+            }
+        } catch (IOException | RuntimeException e) {
+            slots.release();
+            Files.deleteIfExists(input);
+            throw e;
+        }
+        prune();
+        logger.debug("Job {} queued", id);
+        return status(job);
+    }
+
+    private void run(Job job) {
+        synchronized (job) {
+            if (job.status.getState() != State.QUEUED) {
+                return;
+            }
+            job.status.setState(State.RUNNING);
+            job.status.setStartedAt(Instant.now());
+        }
+        State state = State.SUCCEEDED;
+        String error = null;
+        try (InputStream in = job.gzip
+                ? new GZIPInputStream(Files.newInputStream(job.input), 64 * 1024)
+                : Files.newInputStream(job.input)) {
+            batchService.ingest(job.status.getId(), in, job.format, job.descriptors, job.outputFormat, progress -> {
+                synchronized (job) {
+                    job.status.setProgress(progress);
+                }
+            });
+        } catch (Exception e) {
+            state = State.FAILED;
+            error = e.getMessage();
+        } finally {
+            synchronized (job) {
+                if (job.status.getState() == State.CANCELLED) {
+                    state = State.CANCELLED;
+                    error = null;
+                }
+                job.status.setState(state);
+                job.status.setError(error);
+                job.status.setFinishedAt(Instant.now());
+            }
+            // Clear an interrupt from cancellation before the thread takes the next job
+            Thread.interrupted();
+            deleteQuietly(job.input);
+            slots.release();
+            logger.info("Job {} {}", job.status.getId(), state);
+        }
+    }
+
+    @Override
+    public JobStatus getStatus(String id) {
+        Job job = jobs.get(id);
+        return job == null ? null : status(job);
+    }
+
+    @Override
+    public List<String> getResults(String id, long offset, int limit) throws IOException {
+        ResultPages pages = pages(id);
+        return pages == null ? null : pages.read(offset, limit);
+    }
+
+    @Override
+    public long getResultCount(String id) throws IOException {
+        ResultPages pages = pages(id);
+        return pages == null ? -1 : pages.size();
+    }
+
+    private ResultPages pages(String id) {
+        Job job = jobs.get(id);
+        if (job == null) {
+            return null;
+        }
+        synchronized (job) {
+            if (job.status.getState() != State.SUCCEEDED) {
+                throw new IllegalStateException("Job " + id + " is " + job.status.getState());
+            }
+            if (job.pages == null) {
+                Path results = batchService.getIngestResults(id);
+                if (results == null) {
+                    throw new IllegalStateException("Results of job " + id + " are no longer available");
+                }
+                job.pages = new ResultPages(results);
+            }
+            return job.pages;
+        }
+    }
+
+    @Override
+    public Path getResultsFile(String id) {
+        Job job = jobs.get(id);
+        if (job == null || status(job).getState() != State.SUCCEEDED) {
+            return null;
+        }
+        return batchService.getIngestResults(id);
+    }
+
+    @Override
+    public Path getMatrixFile(String id) {
+        Job job = jobs.get(id);
+        if (job == null || status(job).getState() != State.SUCCEEDED) {
+            return null;
+        }
+        return batchService.getIngestMatrix(id);
+    }
+
+    @Override
+    public JobStatus cancel(String id) {
+        Job job = jobs.get(id);
+        if (job == null) {
+            return null;
+        }
+        synchronized (job) {
+            State state = job.status.getState();
+            if (state == State.QUEUED) {
+                // It never starts: if run() is reached at all, it sees the state and returns
+                job.status.setState(State.CANCELLED);
+                job.status.setFinishedAt(Instant.now());
+                job.future.cancel(false);
+                deleteQuietly(job.input);
+                slots.release();
+                return job.status.copy();
+            }
+            if (state == State.RUNNING) {
+                // run() finishes the job once the interrupted ingest returns
+                job.status.setState(State.CANCELLED);
+                job.future.cancel(true);
+                return job.status.copy();
+            }
+            if (job.status.getFinishedAt() == null) {
+                // Cancelled but still winding down
+                return job.status.copy();
+            }
+        }
+        forget(job);
+        return status(job);
+    }
+
+    /**
+     * Forget the oldest finished jobs beyond the retention limit
+     */
+    private void prune() {
+        List<Job> finished = jobs.values().stream()
+                .map(JobServiceImpl::status)
+                .filter(status -> status.getFinishedAt() != null)
+                .sorted(Comparator.comparing(JobStatus::getFinishedAt))
+                .map(status -> jobs.get(status.getId()))
+                .collect(Collectors.toList());
+        for (int i = 0; i < finished.size() - maxRetained; i++) {
+            if (finished.get(i) != null) {
+                forget(finished.get(i));
+            }
+        }
+    }
+
+    private void forget(Job job) {
+        if (jobs.remove(job.status.getId()) == null) {
+            return;
+        }
+        Path results = batchService.getIngestResults(job.status.getId());
+        if (results != null) {
+            deleteQuietly(results);
+        }
+        Path matrix = batchService.getIngestMatrix(job.status.getId());
+        if (matrix != null) {
+            deleteQuietly(matrix);
+        }
+    }
+
+    private static JobStatus status(Job job) {
+        synchronized (job) {
+            return job.status.copy();
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Could not delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runners.shutdownNow();
+    }
+}
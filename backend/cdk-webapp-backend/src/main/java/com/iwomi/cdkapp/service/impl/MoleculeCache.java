@@ -0,0 +1,144 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Bounded, content-addressed store for computed molecule artifacts.
+ *
+ * Entries are keyed by canonical SMILES, so equivalent inputs share one entry.
+ * Each artifact type has its own store and its own bound: images and molfiles
+ * are weighed by their size, descriptor vectors are counted. A separate store
+ * maps SMILES as submitted to their canonical form, so repeated lookups of a
+ * stored artifact need not parse the input again. A bound of 0 turns
+ * the store off. Hit, miss and eviction counts are also published as Micrometer
+ * cache metrics.
+ */
+@Component
+public class MoleculeCache implements MeterBinder {
+
+    private final Cache<String, byte[]> images;
+    private final Cache<String, String> molfiles;
+    private final Cache<String, DescriptorValues> descriptors;
+    private final Cache<String, String> canonicalSmiles;
+    private final boolean imagesEnabled;
+    private final boolean molfilesEnabled;
+    private final boolean descriptorsEnabled;
+    private final boolean canonicalSmilesEnabled;
+
+    public MoleculeCache(
+            @Value("${cdk.cache.images.max-bytes:67108864}") long maxImageBytes,
+            @Value("${cdk.cache.molfiles.max-chars:33554432}") long maxMolfileChars,
+            @Value("${cdk.cache.descriptors.max-entries:20000}") long maxDescriptorEntries,
+            @Value("${cdk.cache.smiles.max-entries:100000}") long maxSmilesEntries) {
+        this.images = Caffeine.newBuilder()
+                .maximumWeight(maxImageBytes)
+                .weigher((String key, byte[] image) -> image.length)
+                .recordStats()
+                .build();
+        this.molfiles = Caffeine.newBuilder()
+                .maximumWeight(maxMolfileChars)
+                .weigher((String key, String molfile) -> molfile.length())
+                .recordStats()
+                .build();
+        this.descriptors = Caffeine.newBuilder()
+                .maximumSize(maxDescriptorEntries)
+                .recordStats()
+                .build();
+        this.canonicalSmiles = Caffeine.newBuilder()
+                .maximumSize(maxSmilesEntries)
+                .recordStats()
+                .build();
+        this.imagesEnabled = maxImageBytes > 0;
+        this.molfilesEnabled = maxMolfileChars > 0;
+        this.descriptorsEnabled = maxDescriptorEntries > 0;
+        this.canonicalSmilesEnabled = maxSmilesEntries > 0;
+    }
+
+    public byte[] getImage(String key) {
+        return images.getIfPresent(key);
+    }
+
+    public void putImage(String key, byte[] image) {
+        if (imagesEnabled) {
+            images.put(key, image);
+        }
+    }
+
+    public String getMolfile(String key) {
+        return molfiles.getIfPresent(key);
+    }
+
+    public void putMolfile(String key, String molfile) {
+        if (molfilesEnabled) {
+            molfiles.put(key, molfile);
+        }
+    }
+
+    public DescriptorValues getDescriptors(String key) {
+        return descriptors.getIfPresent(key);
+    }
+
+    public void putDescriptors(String key, DescriptorValues values) {
+        if (descriptorsEnabled) {
+            descriptors.put(key, values);
+        }
+    }
+
+    /**
+     * @param smiles a SMILES string as submitted
+     * @return its canonical SMILES, or null if not known
+     */
+    public String getCanonicalSmiles(String smiles) {
+        return canonicalSmiles.getIfPresent(smiles);
+    }
+
+    public void putCanonicalSmiles(String smiles, String canonical) {
+        if (canonicalSmilesEnabled) {
+            canonicalSmiles.put(smiles, canonical);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, images, "molecule-images");
+        CaffeineCacheMetrics.monitor(registry, molfiles, "molecule-molfiles");
+        CaffeineCacheMetrics.monitor(registry, descriptors, "molecule-descriptors");
+        CaffeineCacheMetrics.monitor(registry, canonicalSmiles, "molecule-smiles");
+    }
+
+    /**
+     * @return hit, miss and eviction counts plus current size for each store
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("images", describe(images));
+        statistics.put("molfiles", describe(molfiles));
+        statistics.put("descriptors", describe(descriptors));
+        statistics.put("smiles", describe(canonicalSmiles));
+        return statistics;
+    }
+
+    private static Map<String, Object> describe(Cache<?, ?> cache) {
+        CacheStats stats = cache.stats();
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("size", cache.estimatedSize());
+        description.put("hits", stats.hitCount());
+        description.put("misses", stats.missCount());
+        description.put("hitRate", stats.hitRate());
+        description.put("evictions", stats.evictionCount());
+        description.put("evictedWeight", stats.evictionWeight());
+        return description;
+    }
+}
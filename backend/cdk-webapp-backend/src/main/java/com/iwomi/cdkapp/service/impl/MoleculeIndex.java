@@ -0,0 +1,198 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import com.iwomi.cdkapp.service.ComputeService;
+import com.iwomi.cdkapp.service.FingerprintType;
+import com.iwomi.cdkapp.service.MoleculeRejectedException;
+import com.iwomi.cdkapp.service.MoleculeService;
+import com.iwomi.cdkapp.service.PreparedMolecule;
+import com.iwomi.cdkapp.util.NamedThreadFactory;
+
+/**
+ * The molecules added for structure search, with one {@link FingerprintIndex} per
+ * fingerprint type: those processed by parsing and the batch pipeline, and those
+ * added explicitly. Similarity and substructure searches run over the same
+ * molecules. Each index is split into as many shards as there are search threads,
+ * so a single query uses all cores.
+ *
+ * Indexed molecules are kept in the {@link MoleculeStore}, and on startup the index
+ * is rebuilt from the stored molecules and fingerprints. Molecules whose fingerprints
+ * are not stored (stored before they were indexed, or by another CDK version) are
+ * fingerprinted once the application has started, in the compute pool one at a
+ * time, and become searchable as they are.
+ */
+@Component
+public class MoleculeIndex implements ApplicationRunner {
+
+    private static final long BACKFILL_RETRY_MILLIS = 100;
+
+    private static final Logger logger = LoggerFactory.getLogger(MoleculeIndex.class);
+
+    private final MoleculeService moleculeService;
+    private final MoleculeStore store;
+    private final ComputeService computeService;
+    private final Map<FingerprintType, FingerprintIndex> indexes = new EnumMap<>(FingerprintType.class);
+    private final List<MoleculeStore.StoredMolecule> unfingerprinted = new ArrayList<>();
+    private final ExecutorService searchers;
+
+    public MoleculeIndex(MoleculeService moleculeService, MoleculeStore store, ComputeService computeService,
+            @Value("${cdk.similarity.parallelism:0}") int parallelism,
+            PipelineMetrics metrics) {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.moleculeService = moleculeService;
+        this.store = store;
+        this.computeService = computeService;
+        for (FingerprintType type : FingerprintType.values()) {
+            FingerprintIndex index = new FingerprintIndex(type.getSize(), threads);
+            indexes.put(type, index);
+            metrics.gauge("cdk.similarity.index.size", "Molecules in the structure search index", index,
+                    FingerprintIndex::size, "fingerprint", type.name().toLowerCase(Locale.ROOT));
+        }
+        // The calling thread searches one shard itself
+        this.searchers = metrics.monitor(
+                Executors.newFixedThreadPool(Math.max(1, threads - 1), new NamedThreadFactory("similarity-search-")),
+                "similarity-searchers");
+        logger.info("Structure search using {} threads", threads);
+        rebuild();
+    }
+
+    private void rebuild() {
+        long start = System.nanoTime();
+        store.forEachMolecule(molecule -> {
+            Map<FingerprintType, long[]> fingerprints = new EnumMap<>(FingerprintType.class);
+            for (FingerprintType type : indexes.keySet()) {
+                long[] fingerprint = store.getFingerprint(molecule.getCanonicalSmiles(), type);
+                if (fingerprint == null) {
+                    // Calculated after startup, see run()
+                    unfingerprinted.add(molecule);
+                    return;
+                }
+                fingerprints.put(type, fingerprint);
+            }
+            fingerprints.forEach((type, fingerprint) -> indexes.get(type).add(molecule.getCanonicalSmiles(),
+                    molecule.getSmiles(), molecule.getName(), fingerprint));
+        });
+        logger.info("Structure search index rebuilt with {} stored molecules in {} ms, {} left to fingerprint",
+                indexes.get(FingerprintType.ECFP4).size(), (System.nanoTime() - start) / 1_000_000,
+                unfingerprinted.size());
+    }
+
+    /**
+     * Fingerprint the stored molecules that the rebuild could not index, without
+     * holding up startup. Each molecule is a compute task of its own, which submits
+     * the next one, so requests queue between them rather than behind all of them.
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!unfingerprinted.isEmpty()) {
+            backfill(0, 0, System.nanoTime());
+        }
+    }
+
+    private void backfill(int next, int failed, long start) {
+        if (next == unfingerprinted.size()) {
+            logger.info("Fingerprinted {} stored molecules in {} ms{}", next - failed,
+                    (System.nanoTime() - start) / 1_000_000, failed > 0 ? ", " + failed + " failed" : "");
+            unfingerprinted.clear();
+            return;
+        }
+        try {
+            computeService.submit(() -> {
+                boolean indexed = backfill(unfingerprinted.get(next));
+                backfill(next + 1, indexed ? failed : failed + 1, start);
+                return null;
+            });
+        } catch (MoleculeRejectedException e) {
+            // Requests have filled the compute queue; they go first
+            CompletableFuture.delayedExecutor(BACKFILL_RETRY_MILLIS, TimeUnit.MILLISECONDS)
+                    .execute(() -> backfill(next, failed, start));
+        } catch (RejectedExecutionException e) {
+            logger.info("Fingerprinting of stored molecules stopped by shutdown");
+        }
+    }
+
+    /**
+     * @return whether the molecule is indexed; a molecule that fails is logged and skipped
+     */
+    private boolean backfill(MoleculeStore.StoredMolecule molecule) {
+        try {
+            if (!indexes.values().stream().allMatch(index -> index.contains(molecule.getCanonicalSmiles()))) {
+                index(moleculeService.prepare(molecule.getSmiles()), molecule.getName());
+            }
+            return true;
+        } catch (RuntimeException e) {
+            logger.warn("Could not index stored molecule {}: {}", molecule.getSmiles(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Add a molecule with a fingerprint of every type, keyed by its canonical SMILES,
+     * and store it so that it is indexed again after a restart
+     * @return whether it was added; false if it is indexed already
+     */
+    public boolean add(PreparedMolecule molecule, String name) {
+        // Most processed molecules are indexed already; skip their fingerprints
+        if (indexes.values().stream().allMatch(index -> index.contains(molecule.getCanonicalSmiles()))) {
+            return false;
+        }
+        boolean added = index(molecule, name);
+        store.addMolecule(molecule.getCanonicalSmiles(), molecule.getSmiles(), name);
+        return added;
+    }
+
+    private boolean index(PreparedMolecule molecule, String name) {
+        boolean added = false;
+        for (Map.Entry<FingerprintType, FingerprintIndex> index : indexes.entrySet()) {
+            long[] fingerprint = moleculeService.calculateFingerprint(molecule, index.getKey());
+            added |= index.getValue().add(molecule.getCanonicalSmiles(), molecule.getSmiles(), name, fingerprint);
+        }
+        return added;
+    }
+
+    FingerprintIndex get(FingerprintType type) {
+        return indexes.get(type);
+    }
+
+    /**
+     * @return the pool searching all shards but the first
+     */
+    Executor getSearchers() {
+        return searchers;
+    }
+
+    /**
+     * @return the number of indexed molecules per fingerprint type
+     */
+    public Map<String, Integer> getSizes() {
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        indexes.forEach((type, index) -> sizes.put(type.name().toLowerCase(Locale.ROOT), index.size()));
+        return sizes;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        searchers.shutdownNow();
+    }
+}
@@ -0,0 +1,60 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.imageio.ImageIO;
+
+import org.openscience.cdk.depict.Depiction;
+import org.openscience.cdk.depict.DepictionGenerator;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.springframework.stereotype.Component;
+
+import com.iwomi.cdkapp.service.RenderOptions;
+
+/**
+ * Renders laid out molecules to SVG or PNG with CDK's DepictionGenerator.
+ *
+ * Generators carry the font, generator chain and rendering parameters; each
+ * worker thread configures one on first use and reuses it, so rendering a molecule
+ * only builds its own diagram. The image size is applied per call, on a shallow
+ * copy sharing all of that, so client-chosen sizes never pile up generators. SVG is written as text and
+ * never touches a raster; PNG is drawn into an image of exactly the requested size.
+ */
+@Component
+public class MoleculeRenderer {
+
+    private final PipelineMetrics metrics;
+
+    private final ThreadLocal<DepictionGenerator> generators =
+            ThreadLocal.withInitial(() -> new DepictionGenerator().withFillToFit());
+
+    public MoleculeRenderer(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param molecule a molecule with 2D coordinates
+     * @param options format and size
+     * @return the encoded image
+     * @throws CDKException if the molecule cannot be depicted
+     * @throws IOException if the image cannot be encoded
+     */
+    public byte[] render(IAtomContainer molecule, RenderOptions options) throws CDKException, IOException {
+        DepictionGenerator generator = generators.get().withSize(options.getWidth(), options.getHeight());
+        Depiction depiction = metrics.time("render", () -> generator.depict(molecule));
+
+        return metrics.time("encode", () -> {
+            if (options.getFormat() == RenderOptions.Format.SVG) {
+                return depiction.toSvgStr(Depiction.UNITS_PX).getBytes(StandardCharsets.UTF_8);
+            }
+            BufferedImage image = depiction.toImg();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+            ImageIO.write(image, "png", out);
+            return out.toByteArray();
+        });
+    }
+}
@@ -1,299 +1,565 @@
 package com.iwomi.cdkapp.service.impl;
 
-import java.awt.Color;
-import java.awt.Graphics2D;
-import java.awt.Rectangle;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.StringWriter;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.UUID;
-
-import javax.imageio.ImageIO;
+import java.util.Map;
 
+import org.openscience.cdk.CDK;
 import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.graph.Cycles;
 import org.openscience.cdk.interfaces.IAtomContainer;
-import org.openscience.cdk.io.MDLV2000Writer;
-import org.openscience.cdk.layout.StructureDiagramGenerator;
-import org.openscience.cdk.qsar.DescriptorValue;
-import org.openscience.cdk.qsar.IMolecularDescriptor;
-import org.openscience.cdk.qsar.descriptors.molecular.WeightDescriptor;
-import org.openscience.cdk.qsar.descriptors.molecular.XLogPDescriptor;
-import org.openscience.cdk.qsar.descriptors.molecular.TPSADescriptor;
-import org.openscience.cdk.qsar.descriptors.molecular.RotatableBondsCountDescriptor;
-import org.openscience.cdk.qsar.result.DoubleResult;
-import org.openscience.cdk.qsar.result.IntegerResult;
-import org.openscience.cdk.renderer.AtomContainerRenderer;
-import org.openscience.cdk.renderer.font.AWTFontManager;
-import org.openscience.cdk.renderer.generators.BasicAtomGenerator;
-import org.openscience.cdk.renderer.generators.BasicBondGenerator;
-import org.openscience.cdk.renderer.generators.BasicSceneGenerator;
-import org.openscience.cdk.renderer.generators.IGenerator;
-import org.openscience.cdk.renderer.visitor.AWTDrawVisitor;
-import org.openscience.cdk.silent.SilentChemObjectBuilder;
-import org.openscience.cdk.smiles.SmilesParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import com.iwomi.cdkapp.model.Descriptor;
+import com.iwomi.cdkapp.model.DescriptorVector;
 import com.iwomi.cdkapp.model.Molecule;
+import com.iwomi.cdkapp.service.FingerprintType;
+import com.iwomi.cdkapp.service.MoleculeImage;
+import com.iwomi.cdkapp.service.MoleculeRejectedException;
 import com.iwomi.cdkapp.service.MoleculeService;
+import com.iwomi.cdkapp.service.PreparedMolecule;
+import com.iwomi.cdkapp.service.RenderOptions;
 import com.iwomi.cdkapp.util.CDKDescriptorLister;
+import com.iwomi.cdkapp.util.CDKToolkitPool;
+import com.iwomi.cdkapp.util.DescriptorRegistry;
 
 @Service
 public class MoleculeServiceImpl implements MoleculeService {
 
-    private final SmilesParser smilesParser;
+    private static final Logger logger = LoggerFactory.getLogger(MoleculeServiceImpl.class);
+
+    // Artifacts memoised on a PreparedMolecule
+    private static final String CANONICAL_ORDER = "canonicalOrder";
+    private static final String LAYOUT = "layout";
+    private static final String DESCRIPTOR_INPUT = "descriptorInput";
+    private static final String IMAGE = "image";
+    private static final String MOLFILE = "molfile";
+    private static final String DESCRIPTORS = "descriptors";
+    private static final String DESCRIPTOR_LIST = "descriptorList";
+    private static final String FINGERPRINT = "fingerprint";
+    
+    // Depictions change with the toolkit, so image tags include its version
+    private static final String RENDERER_VERSION = "cdk-" + CDK.getVersion();
+
+    private final CDKToolkitPool toolkit;
     private final CDKDescriptorLister descriptorLister;
+    private final ParallelDescriptorCalculator descriptorCalculator;
+    private final MoleculeRenderer renderer;
+    private final MoleculeCache cache;
+    private final MoleculeStore store;
+    private final DescriptorTable table;
+    private final AdmissionControl admission;
+    private final PipelineMetrics metrics;
+    private final SingleFlight flights;
     
-    public MoleculeServiceImpl(CDKDescriptorLister descriptorLister) {
-        this.smilesParser = new SmilesParser(SilentChemObjectBuilder.getInstance());
+    public MoleculeServiceImpl(CDKToolkitPool toolkit, CDKDescriptorLister descriptorLister,
+            ParallelDescriptorCalculator descriptorCalculator, MoleculeRenderer renderer,
+            MoleculeCache cache, MoleculeStore store, DescriptorTable table, AdmissionControl admission,
+            PipelineMetrics metrics) {
+        this.toolkit = toolkit;
         this.descriptorLister = descriptorLister;
+        this.descriptorCalculator = descriptorCalculator;
+        this.renderer = renderer;
+        this.cache = cache;
+        this.store = store;
+        this.table = table;
+        this.admission = admission;
+        this.metrics = metrics;
+        this.flights = new SingleFlight(metrics);
+    }
+    
+    @Override
+    public PreparedMolecule prepare(String smiles) {
+        try {
+            return prepareStructure(smiles);
+        } catch (CDKException e) {
+            throw new RuntimeException("Error parsing SMILES: " + e.getMessage(), e);
+        }
+    }
+    
+    private PreparedMolecule prepareStructure(String smiles) throws CDKException {
+        IAtomContainer molecule = metrics.time("parse", () -> toolkit.parseSmiles(smiles));
+        // Oversized molecules are refused before any further work is spent on them
+        int cost = admission.admit(molecule);
+        String canonicalSmiles = metrics.time("canonicalize", () -> toolkit.canonicalSmiles(molecule));
+        return new PreparedMolecule(smiles, canonicalSmiles, molecule, cost);
     }
     
     @Override
     public Molecule parseMoleculeFromSmiles(String smiles) {
+        return parseMoleculeFromSmiles(smiles, null);
+    }
+    
+    @Override
+    public Molecule parseMoleculeFromSmiles(String smiles, List<String> descriptorNames) {
+        return parseMoleculeFromSmiles(smiles, descriptorNames, RenderOptions.DEFAULT);
+    }
+    
+    @Override
+    public Molecule parseMoleculeFromSmiles(String smiles, List<String> descriptorNames, RenderOptions options) {
+        DescriptorRegistry selection = descriptorLister.getRegistry().select(descriptorNames);
         try {
-            IAtomContainer molecule = smilesParser.parseSmiles(smiles);
-            String id = UUID.randomUUID().toString();
-            Molecule mol = new Molecule(id, smiles, "");
-            
-            // Generate the 2D coordinates
-            StructureDiagramGenerator sdg = new StructureDiagramGenerator();
-            sdg.setMolecule(molecule);
-            sdg.generateCoordinates();
-            IAtomContainer layoutMolecule = sdg.getMolecule();
-            
-            // Generate image
-            byte[] imageData = generateMoleculeImage(layoutMolecule);
-            mol.setImage(imageData);
-            
-            // Convert to MDL Molfile
-            String molfile = convertToMolfile(layoutMolecule);
-            mol.setMolfile(molfile);
-            
-            // Calculate descriptors
-            List<Descriptor> descriptors = calculateDescriptors(layoutMolecule);
-            mol.setDescriptors(descriptors);
-            
-            return mol;
+            return process(prepareStructure(smiles), selection, options);
+        } catch (IllegalArgumentException | MoleculeRejectedException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException("Error parsing SMILES: " + e.getMessage(), e);
         }
     }
+    
+    @Override
+    public Molecule processMolecule(PreparedMolecule molecule, List<String> descriptorNames, RenderOptions options) {
+        return process(molecule, descriptorLister.getRegistry().select(descriptorNames), options);
+    }
+    
+    private Molecule process(PreparedMolecule prepared, DescriptorRegistry selection, RenderOptions options) {
+        Molecule mol = new Molecule(storeMolecule(prepared), prepared.getSmiles(), "");
+        
+        // Every artifact is served from the same parsed and laid out structure
+        if (options != null) {
+            mol.setImage(generateMoleculeImage(prepared, options));
+        }
+        mol.setMolfile(convertToMolfile(prepared));
+        mol.setDescriptors(calculateDescriptors(prepared, selection));
+        
+        return mol;
+    }
 
     @Override
-    public byte[] generateMoleculeImage(Molecule molecule) {
-        try {
-            IAtomContainer mol = smilesParser.parseSmiles(molecule.getSmiles());
-            StructureDiagramGenerator sdg = new StructureDiagramGenerator();
-            sdg.setMolecule(mol);
-            sdg.generateCoordinates();
-            return generateMoleculeImage(sdg.getMolecule());
-        } catch (Exception e) {
-            throw new RuntimeException("Error generating molecule image: " + e.getMessage(), e);
+    public Molecule getStoredMolecule(String id, List<String> descriptorNames) {
+        DescriptorRegistry selection = descriptorLister.getRegistry().select(descriptorNames);
+        MoleculeStore.StoredMolecule stored = store.getMolecule(id);
+        if (stored == null) {
+            return null;
         }
+        
+        // The structure is parsed only for what neither the cache nor the store holds
+        String molfile = lookupMolfile(stored.getCanonicalSmiles());
+        DescriptorValues values = lookupDescriptors(stored.getCanonicalSmiles(), selection);
+        if (molfile == null || values == null) {
+            PreparedMolecule prepared = prepare(stored.getSmiles());
+            molfile = molfile != null ? molfile : convertToMolfile(prepared);
+            values = values != null ? values : descriptorValues(prepared, selection);
+        }
+        Molecule mol = new Molecule(stored.getId(), stored.getSmiles(), "");
+        mol.setMolfile(molfile);
+        mol.setDescriptors(DescriptorFormatter.format(values));
+        return mol;
     }
     
-    private byte[] generateMoleculeImage(IAtomContainer molecule) {
-        try {
-            // Setup rendering components
-            List<IGenerator<IAtomContainer>> generators = new ArrayList<>();
-            generators.add(new BasicSceneGenerator());
-            generators.add(new BasicBondGenerator());
-            generators.add(new BasicAtomGenerator());
-            
-            // Create the renderer
-            AtomContainerRenderer renderer = new AtomContainerRenderer(
-                    generators, new AWTFontManager());
-            
-            // Setup image and draw
-            int width = 400;
-            int height = 300;
-            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-            Graphics2D g2 = image.createGraphics();
-            g2.setBackground(Color.WHITE);
-            g2.clearRect(0, 0, width, height);
-            
-            // Paint the background white
-            g2.setColor(Color.WHITE);
-            g2.fillRect(0, 0, width, height);
-            
-            // Draw the molecule
-            renderer.setup(molecule, new Rectangle(width, height));
-            renderer.paint(molecule, new AWTDrawVisitor(g2), 
-                    new Rectangle(width, height), true);
-            
-            // Convert to byte array
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ImageIO.write(image, "PNG", baos);
-            
-            return baos.toByteArray();
-        } catch (Exception e) {
-            throw new RuntimeException("Error generating molecule image: " + e.getMessage(), e);
+    @Override
+    public String getStoredMoleculeId(String smiles) {
+        String canonicalSmiles = cache.getCanonicalSmiles(smiles);
+        if (canonicalSmiles == null) {
+            canonicalSmiles = prepare(smiles).getCanonicalSmiles();
+            cache.putCanonicalSmiles(smiles, canonicalSmiles);
         }
+        return store.getMoleculeId(canonicalSmiles);
     }
 
     @Override
-    public List<Descriptor> calculateDescriptors(Molecule molecule) {
-        try {
-            IAtomContainer mol = smilesParser.parseSmiles(molecule.getSmiles());
-            return calculateDescriptors(mol);
-        } catch (Exception e) {
-            throw new RuntimeException("Error calculating descriptors: " + e.getMessage(), e);
+    public String storeMolecule(PreparedMolecule molecule) {
+        // Equivalent inputs get the id the structure was first stored with
+        return store.addMolecule(molecule.getCanonicalSmiles(), molecule.getSmiles());
+    }
+
+    @Override
+    public byte[] generateMoleculeImage(Molecule molecule) {
+        return generateMoleculeImage(prepare(molecule.getSmiles()));
+    }
+    
+    @Override
+    public byte[] generateMoleculeImage(Molecule molecule, RenderOptions options) {
+        return generateMoleculeImage(prepare(molecule.getSmiles()), options);
+    }
+    
+    @Override
+    public byte[] generateMoleculeImage(PreparedMolecule molecule) {
+        return generateMoleculeImage(molecule, RenderOptions.DEFAULT);
+    }
+    
+    @Override
+    public byte[] generateMoleculeImage(PreparedMolecule molecule, RenderOptions options) {
+        return molecule.getArtifact(IMAGE + options.getKey(), () -> {
+            String key = imageKey(molecule.getCanonicalSmiles(), options);
+            byte[] imageData = cache.getImage(key);
+            if (imageData == null) {
+                // Identical requests arriving meanwhile wait for this rendering
+                imageData = flights.run(IMAGE, key, () -> admission.run(molecule.getCost(), () -> {
+                    byte[] rendered = generateMoleculeImage(layout(molecule), options);
+                    cache.putImage(key, rendered);
+                    return rendered;
+                }));
+            }
+            return imageData;
+        });
+    }
+    
+    @Override
+    public MoleculeImage getMoleculeImage(String smiles, RenderOptions options) {
+        String canonicalSmiles = cache.getCanonicalSmiles(smiles);
+        if (canonicalSmiles == null) {
+            PreparedMolecule prepared = prepare(smiles);
+            cache.putCanonicalSmiles(smiles, prepared.getCanonicalSmiles());
+            return new MoleculeImage(imageTag(prepared.getCanonicalSmiles(), options), options,
+                    () -> generateMoleculeImage(prepared, options));
         }
+        return new MoleculeImage(imageTag(canonicalSmiles, options), options, () -> {
+            byte[] imageData = cache.getImage(imageKey(canonicalSmiles, options));
+            // The image may have been evicted since the SMILES was resolved
+            return imageData != null ? imageData : generateMoleculeImage(prepare(smiles), options);
+        });
     }
     
-    private List<Descriptor> calculateDescriptors(IAtomContainer molecule) {
-        List<Descriptor> descriptors = new ArrayList<>();
-        
+    private static String imageKey(String canonicalSmiles, RenderOptions options) {
+        return canonicalSmiles + '\t' + options.getKey();
+    }
+    
+    /**
+     * A digest of everything the image depends on: the structure, the render
+     * options and the toolkit that draws it. The image is drawn from the molecule
+     * in canonical atom order, so inputs sharing a canonical SMILES get the same
+     * bytes and the tag is a strong validator.
+     */
+    private static String imageTag(String canonicalSmiles, RenderOptions options) {
+        MessageDigest digest;
         try {
-            // Prepare molecule with atom types and implicit hydrogens if possible
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        byte[] hash = digest.digest((RENDERER_VERSION + '\n' + imageKey(canonicalSmiles, options))
+                .getBytes(StandardCharsets.UTF_8));
+        StringBuilder tag = new StringBuilder(32);
+        for (int i = 0; i < 16; i++) {
+            tag.append(Character.forDigit((hash[i] >> 4) & 0xf, 16)).append(Character.forDigit(hash[i] & 0xf, 16));
+        }
+        return tag.toString();
+    }
+    
+    /**
+     * The parsed molecule copied into canonical atom order, the starting point of the
+     * layout and the descriptor inputs. Artifacts are cached and shared under the
+     * canonical SMILES, so they must not depend on how the first request wrote the
+     * molecule (CCO or OCC).
+     */
+    private IAtomContainer canonicalOrder(PreparedMolecule molecule) {
+        return molecule.getArtifact(CANONICAL_ORDER, () -> {
             try {
-                // Add hydrogens and atom typing to improve descriptor calculations
-                org.openscience.cdk.tools.manipulator.AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(molecule);
-                org.openscience.cdk.tools.manipulator.AtomContainerManipulator.convertImplicitToExplicitHydrogens(molecule);
-            } catch (Exception e) {
-                // Continue even if molecule preparation fails
-                System.err.println("Warning: Could not prepare molecule fully for descriptor calculation: " + e.getMessage());
+                return toolkit.canonicalOrder(molecule.getParsed());
+            } catch (CDKException e) {
+                throw new RuntimeException("Error ordering molecule: " + e.getMessage(), e);
             }
-            
-            // Get all available descriptor classes from the descriptor lister
-            List<Descriptor> availableDescriptors = descriptorLister.getAllAvailableDescriptors();
-            
-            for (Descriptor descriptorInfo : availableDescriptors) {
+        });
+    }
+    
+    /**
+     * The 2D layout shared by the image and the molfile, generated once
+     */
+    private IAtomContainer layout(PreparedMolecule molecule) {
+        return molecule.getArtifact(LAYOUT, () -> {
+            try {
+                return metrics.time("layout", () -> toolkit.generateCoordinates(copy(canonicalOrder(molecule))));
+            } catch (CDKException e) {
+                throw new RuntimeException("Error generating 2D coordinates: " + e.getMessage(), e);
+            }
+        });
+    }
+    
+    /**
+     * A structure descriptors are calculated on, prepared once and left untouched by
+     * the descriptors (each works on its own clone): a copy of the molecule with atom
+     * types perceived and rings marked, and from that, only for the descriptors
+     * declared to need them, a further copy with the hydrogens made explicit. Every
+     * other descriptor gets the hydrogen-suppressed graph, about half the size, however
+     * it was selected. The 2D layout is used only when a selected descriptor needs it.
+     * The parsed molecule itself is not modified, so images and molfiles are unaffected
+     * by descriptor preparation.
+     */
+    private IAtomContainer descriptorInput(PreparedMolecule molecule, boolean coordinates, boolean explicitHydrogens) {
+        String name = DESCRIPTOR_INPUT + (coordinates ? "+2d" : "") + (explicitHydrogens ? "+h" : "");
+        if (explicitHydrogens) {
+            IAtomContainer typed = descriptorInput(molecule, coordinates, false);
+            return molecule.getArtifact(name, () -> metrics.time("descriptor-preparation", () -> {
+                IAtomContainer prepared = copy(typed);
                 try {
-                    // Load the descriptor class dynamically
-                    String className = descriptorInfo.getId();
-                    Class<?> descriptorClass = Class.forName(className);
-                    Object descriptorInstance = descriptorClass.getDeclaredConstructor().newInstance();
-                    
-                    if (descriptorInstance instanceof IMolecularDescriptor) {
-                        IMolecularDescriptor molecularDescriptor = (IMolecularDescriptor) descriptorInstance;
-                        
-                        // Calculate the descriptor value
-                        DescriptorValue value = molecularDescriptor.calculate(molecule);
-                        
-                        // Format the result based on the return type
-                        String formattedValue = formatDescriptorValue(value);
-                        
-                        // Create a new descriptor with the calculated value
-                        Descriptor calculatedDescriptor = new Descriptor();
-                        calculatedDescriptor.setId(descriptorInfo.getId());
-                        calculatedDescriptor.setName(descriptorInfo.getName());
-                        calculatedDescriptor.setValue(formattedValue);
-                        calculatedDescriptor.setDescription(descriptorInfo.getDescription());
-                        
-                        descriptors.add(calculatedDescriptor);
-                    }
-                } catch (ClassNotFoundException e) {
-                    // Skip descriptors that can't be found
-                    continue;
+                    org.openscience.cdk.tools.manipulator.AtomContainerManipulator.convertImplicitToExplicitHydrogens(prepared);
+                    Cycles.markRingAtomsAndBonds(prepared);
                 } catch (Exception e) {
-                    // Add a descriptor entry with error information
-                    Descriptor errorDescriptor = new Descriptor();
-                    errorDescriptor.setId(descriptorInfo.getId());
-                    errorDescriptor.setName(descriptorInfo.getName());
-                    errorDescriptor.setValue("Error");
-                    errorDescriptor.setDescription("Failed to calculate: " + e.getMessage());
-                    
-                    descriptors.add(errorDescriptor);
+                    logger.warn("Could not add explicit hydrogens for descriptor calculation: {}", e.getMessage());
                 }
-            }
+                return prepared;
+            }));
+        }
+        return molecule.getArtifact(name, () -> metrics.time("descriptor-preparation", () -> {
+            IAtomContainer prepared = copy(coordinates ? layout(molecule) : canonicalOrder(molecule));
             
-            return descriptors;
+            // Prepare molecule with atom types if possible
+            try {
+                org.openscience.cdk.tools.manipulator.AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(prepared);
+                // The layout marks ring atoms and bonds as a side effect; without it,
+                // descriptors reading the ring flags need them set explicitly
+                Cycles.markRingAtomsAndBonds(prepared);
+            } catch (Exception e) {
+                // Continue even if molecule preparation fails
+                logger.warn("Could not prepare molecule fully for descriptor calculation: {}", e.getMessage());
+            }
+            return prepared;
+        }));
+    }
+    
+    private static IAtomContainer copy(IAtomContainer molecule) {
+        try {
+            return molecule.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException("Error copying molecule: " + e.getMessage(), e);
+        }
+    }
+    
+    private byte[] generateMoleculeImage(IAtomContainer molecule, RenderOptions options) {
+        try {
+            return renderer.render(molecule, options);
         } catch (Exception e) {
-            throw new RuntimeException("Error calculating descriptors: " + e.getMessage(), e);
+            throw new RuntimeException("Error generating molecule image: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<Descriptor> calculateDescriptors(Molecule molecule) {
+        return calculateDescriptors(prepare(molecule.getSmiles()));
+    }
+    
+    @Override
+    public List<Descriptor> calculateDescriptors(PreparedMolecule molecule) {
+        return calculateDescriptors(molecule, descriptorLister.getRegistry());
+    }
+    
+    @Override
+    public List<Descriptor> calculateDescriptors(PreparedMolecule molecule, List<String> descriptorNames) {
+        return calculateDescriptors(molecule, descriptorLister.getRegistry().select(descriptorNames));
+    }
+    
+    private List<Descriptor> calculateDescriptors(PreparedMolecule molecule, DescriptorRegistry selection) {
+        // Strings are for display only and are built from the numeric values on demand
+        return molecule.getArtifact(DESCRIPTOR_LIST + selection.getKey(),
+                () -> DescriptorFormatter.format(descriptorValues(molecule, selection)));
+    }
+    
+    @Override
+    public DescriptorVector calculateDescriptorVector(PreparedMolecule molecule, List<String> descriptorNames) {
+        DescriptorValues values = descriptorValues(molecule, descriptorLister.getRegistry().select(descriptorNames));
+        DescriptorRegistry descriptors = values.getDescriptors();
+        
+        Map<String, String> errors = null;
+        for (int i = 0; i < descriptors.size(); i++) {
+            if (values.getStatus(i) != DescriptorResult.Status.OK) {
+                if (errors == null) {
+                    errors = new LinkedHashMap<>();
+                }
+                errors.put(descriptors.get(i).getClassName(), values.getMessage(i));
+            }
         }
+        return new DescriptorVector(molecule.getSmiles(), null, values.getValues(), errors);
+    }
+    
+    @Override
+    public List<String> getDescriptorColumns(List<String> descriptorNames) {
+        return descriptorLister.getRegistry().select(descriptorNames).getColumns();
+    }
+    
+    private DescriptorValues descriptorValues(PreparedMolecule molecule, DescriptorRegistry selection) {
+        return molecule.getArtifact(DESCRIPTORS + selection.getKey(), () -> {
+            DescriptorValues values = lookupDescriptors(molecule.getCanonicalSmiles(), selection);
+            if (values == null) {
+                values = flights.run(DESCRIPTORS, descriptorKey(molecule.getCanonicalSmiles(), selection),
+                        () -> admission.run(molecule.getCost(), () -> calculateDescriptorValues(molecule, selection)));
+            }
+            return values;
+        });
+    }
+    
+    private static String descriptorKey(String canonicalSmiles, DescriptorRegistry selection) {
+        return selection.getKey().isEmpty() ? canonicalSmiles : canonicalSmiles + '\t' + selection.getKey();
     }
     
     /**
-     * Format descriptor value based on its type
+     * Look up descriptor values in the cache, then in the store, which refills the cache
+     * @return the values, or null if they need calculating
      */
-    private String formatDescriptorValue(DescriptorValue value) {
-        if (value == null || value.getValue() == null) {
-            return "N/A";
+    private DescriptorValues lookupDescriptors(String canonicalSmiles, DescriptorRegistry selection) {
+        String key = descriptorKey(canonicalSmiles, selection);
+        DescriptorValues values = cache.getDescriptors(key);
+        if (values == null && !selection.getKey().isEmpty()) {
+            // A cached full result covers every selection
+            DescriptorValues all = cache.getDescriptors(canonicalSmiles);
+            values = all == null ? null : all.select(selection);
         }
-        
-        Object resultValue = value.getValue();
-        
-        if (resultValue instanceof DoubleResult) {
-            double val = ((DoubleResult) resultValue).doubleValue();
-            return String.format("%.4f", val);
-        } else if (resultValue instanceof IntegerResult) {
-            int val = ((IntegerResult) resultValue).intValue();
-            return String.valueOf(val);
-        } else if (resultValue instanceof org.openscience.cdk.qsar.result.BooleanResult) {
-            boolean val = ((org.openscience.cdk.qsar.result.BooleanResult) resultValue).booleanValue();
-            return String.valueOf(val);
-        } else if (resultValue instanceof org.openscience.cdk.qsar.result.DoubleArrayResult) {
-            org.openscience.cdk.qsar.result.DoubleArrayResult array = 
-                    (org.openscience.cdk.qsar.result.DoubleArrayResult) resultValue;
-            
-            StringBuilder sb = new StringBuilder();
-            sb.append("[");
-            for (int i = 0; i < array.length(); i++) {
-                if (i > 0) sb.append(", ");
-                sb.append(String.format("%.4f", array.get(i)));
-                // Limit array display to prevent overflow
-                if (i >= 9 && array.length() > 10) {
-                    sb.append(", ... (").append(array.length() - 10).append(" more values)");
-                    break;
-                }
+        if (values == null) {
+            values = store.getDescriptors(key, selection);
+            if (values == null && !selection.getKey().isEmpty()) {
+                DescriptorValues all = store.getDescriptors(canonicalSmiles, descriptorLister.getRegistry());
+                values = all == null ? null : all.select(selection);
             }
-            sb.append("]");
-            return sb.toString();
-        } else if (resultValue instanceof org.openscience.cdk.qsar.result.IntegerArrayResult) {
-            org.openscience.cdk.qsar.result.IntegerArrayResult array = 
-                    (org.openscience.cdk.qsar.result.IntegerArrayResult) resultValue;
-            
-            StringBuilder sb = new StringBuilder();
-            sb.append("[");
-            for (int i = 0; i < array.length(); i++) {
-                if (i > 0) sb.append(", ");
-                sb.append(array.get(i));
-                // Limit array display to prevent overflow
-                if (i >= 9 && array.length() > 10) {
-                    sb.append(", ... (").append(array.length() - 10).append(" more values)");
-                    break;
-                }
+            if (values != null) {
+                cache.putDescriptors(key, values);
             }
-            sb.append("]");
-            return sb.toString();
-        } else {
-            // Handle arrays and other result types
-            return resultValue.toString();
+        }
+        return values;
+    }
+    
+    /**
+     * Calculate descriptors, then cache, store and tabulate them, unless some descriptor
+     * timed out or was skipped: a timeout reflects load, not the molecule, and should be
+     * retried, and which descriptors are skipped for large molecules is configuration.
+     * Heavy molecules have their descriptors calculated on the heavy-lane workers.
+     */
+    private DescriptorValues calculateDescriptorValues(PreparedMolecule molecule, DescriptorRegistry selection) {
+        DescriptorValues values = evaluateDescriptors(molecule, selection);
+        if (values.isComplete()) {
+            String key = descriptorKey(molecule.getCanonicalSmiles(), selection);
+            cache.putDescriptors(key, values);
+            store.putDescriptors(key, values);
+            table.add(molecule.getCanonicalSmiles(), molecule.getSmiles(), values);
+        }
+        return values;
+    }
+    
+    private DescriptorValues evaluateDescriptors(PreparedMolecule molecule, DescriptorRegistry selection) {
+        boolean coordinates = selection.requiresCoordinates();
+        IAtomContainer implicitInput = selection.usesImplicitHydrogens()
+                ? descriptorInput(molecule, coordinates, false) : null;
+        IAtomContainer explicitInput = selection.requiresExplicitHydrogens()
+                ? descriptorInput(molecule, coordinates, true) : null;
+        try {
+            // Evaluate the selected descriptors in parallel, each on its own copy
+            int cost = molecule.getCost();
+            DescriptorResult[] results = metrics.time("descriptors", () -> descriptorCalculator.calculate(
+                    entry -> entry.requiresExplicitHydrogens() ? explicitInput : implicitInput,
+                    selection, admission.isHeavy(cost), entry -> admission.skipReason(cost, entry)));
+            return DescriptorValues.of(selection, results);
+        } catch (Exception e) {
+            throw new RuntimeException("Error calculating descriptors: " + e.getMessage(), e);
         }
     }
 
     @Override
-    public String convertToMolfile(Molecule molecule) {
+    public long[] calculateFingerprint(PreparedMolecule molecule, FingerprintType type) {
+        return molecule.getArtifact(FINGERPRINT + type.name(), () -> {
+            long[] stored = store.getFingerprint(molecule.getCanonicalSmiles(), type);
+            if (stored != null) {
+                return stored;
+            }
+            return flights.run(FINGERPRINT, molecule.getCanonicalSmiles() + '\t' + type.name(), () -> {
+                long[] fingerprint = fingerprint(molecule, type);
+                store.putFingerprint(molecule.getCanonicalSmiles(), type, fingerprint);
+                return fingerprint;
+            });
+        });
+    }
+    
+    private long[] fingerprint(PreparedMolecule molecule, FingerprintType type) {
         try {
-            IAtomContainer mol = smilesParser.parseSmiles(molecule.getSmiles());
-            StructureDiagramGenerator sdg = new StructureDiagramGenerator();
-            sdg.setMolecule(mol);
-            sdg.generateCoordinates();
-            return convertToMolfile(sdg.getMolecule());
-        } catch (Exception e) {
-            throw new RuntimeException("Error converting to molfile: " + e.getMessage(), e);
+            // Fingerprinters perceive aromaticity in place, each in their own way, so
+            // each works on its own copy and the parsed molecule is left as it is
+            IAtomContainer copy = molecule.getParsed().clone();
+            BitSet bits = metrics.time("fingerprint", () -> {
+                switch (type) {
+                    case ECFP4:
+                        return toolkit.ecfp4Fingerprint(copy);
+                    case MACCS:
+                        return toolkit.maccsFingerprint(copy);
+                    default:
+                        return toolkit.pathFingerprint(copy);
+                }
+            });
+            return Arrays.copyOf(bits.toLongArray(), type.getWords());
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException("Error copying molecule: " + e.getMessage(), e);
+        } catch (CDKException e) {
+            throw new RuntimeException("Error calculating fingerprint: " + e.getMessage(), e);
         }
     }
+
+    @Override
+    public String convertToMolfile(Molecule molecule) {
+        return convertToMolfile(prepare(molecule.getSmiles()));
+    }
+    
+    @Override
+    public String convertToMolfile(PreparedMolecule molecule) {
+        return molecule.getArtifact(MOLFILE, () -> {
+            String molfile = lookupMolfile(molecule.getCanonicalSmiles());
+            if (molfile == null) {
+                molfile = flights.run(MOLFILE, molecule.getCanonicalSmiles(),
+                        () -> admission.run(molecule.getCost(), () -> {
+                            String converted = convertToMolfile(layout(molecule));
+                            cache.putMolfile(molecule.getCanonicalSmiles(), converted);
+                            store.putMolfile(molecule.getCanonicalSmiles(), converted);
+                            return converted;
+                        }));
+            }
+            return molfile;
+        });
+    }
+    
+    /**
+     * Look up a molfile in the cache, then in the store, which refills the cache
+     * @return the molfile, or null if it needs converting
+     */
+    private String lookupMolfile(String canonicalSmiles) {
+        String molfile = cache.getMolfile(canonicalSmiles);
+        if (molfile == null) {
+            molfile = store.getMolfile(canonicalSmiles);
+            if (molfile != null) {
+                cache.putMolfile(canonicalSmiles, molfile);
+            }
+        }
+        return molfile;
+    }
     
     private String convertToMolfile(IAtomContainer molecule) {
         try {
-            StringWriter writer = new StringWriter();
-            MDLV2000Writer mdlWriter = new MDLV2000Writer(writer);
-            mdlWriter.write(molecule);
-            mdlWriter.close();
-            return writer.toString();
-        } catch (CDKException | IOException e) {
+            return metrics.time("molfile", () -> toolkit.writeMolfile(molecule));
+        } catch (CDKException e) {
             throw new RuntimeException("Error converting to molfile: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Run every step of the pipeline on a molecule, all descriptors, both image formats
+     * and every fingerprint, without caching, storing or coalescing anything, so that
+     * classes, parameter tables and compiled code are in place before the first request
+     * @param smiles a representative molecule
+     */
+    void warmUp(String smiles) {
+        PreparedMolecule molecule = prepare(smiles);
+        for (RenderOptions.Format format : RenderOptions.Format.values()) {
+            generateMoleculeImage(layout(molecule), RenderOptions.of(format,
+                    RenderOptions.DEFAULT.getWidth(), RenderOptions.DEFAULT.getHeight()));
+        }
+        convertToMolfile(layout(molecule));
+        evaluateDescriptors(molecule, descriptorLister.getRegistry());
+        for (FingerprintType type : FingerprintType.values()) {
+            fingerprint(molecule, type);
+        }
+    }
+
     @Override
     public List<Descriptor> getAllAvailableDescriptors() {
         return descriptorLister.getAllAvailableDescriptors();
     }
+    
+    @Override
+    public Map<String, Object> getCacheStatistics() {
+        Map<String, Object> statistics = cache.getStatistics();
+        statistics.put("store", store.getStatistics());
+        return statistics;
+    }
 }
@@ -0,0 +1,814 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.annotation.PreDestroy;
+
+import org.openscience.cdk.CDK;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.iwomi.cdkapp.service.FingerprintType;
+import com.iwomi.cdkapp.util.DescriptorRegistry;
+
+/**
+ * Embedded, persistent store of computed molecule artifacts, the level behind
+ * {@link MoleculeCache} that survives restarts.
+ *
+ * Molfiles, descriptor vectors and fingerprints are appended as records to segment
+ * files that stay memory-mapped, so reading one back is a copy out of the page
+ * cache. Records are keyed by canonical SMILES, and a later record for a key
+ * supersedes earlier ones. A molecule record gives each structure a stable id, and
+ * the molecule records are what the structure search index is rebuilt from. The
+ * index on the heap holds only a 64-bit hash and the location of each key; keys
+ * are compared against the mapped record, so the heap does not grow with the
+ * size of the records.
+ *
+ * Every record carries a CRC32 of its body. On startup the segments are scanned
+ * to rebuild the index, up to the first incomplete record of a segment (one torn
+ * by a crash, say); writing then goes on in a new segment. Segments written with
+ * another CDK version contribute their molecule ids only, as this version may
+ * compute different artifacts. Records are not forced to disk one by one: they
+ * survive the process crashing, and are flushed when the application stops.
+ */
+@Component
+public class MoleculeStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(MoleculeStore.class);
+
+    private static final byte[] MAGIC = { 'C', 'D', 'K', 'S', 'T', 'O', 'R', 1 };
+    private static final String VERSION = "cdk-" + CDK.getVersion();
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    // Record types; an id is looked up in the molecule records
+    private static final byte MOLECULE = 1;
+    private static final byte MOLFILE = 2;
+    private static final byte DESCRIPTORS = 3;
+    private static final byte FINGERPRINT = 4;
+    private static final byte ID = 5;
+
+    // Each record starts with the length and CRC32 of its body
+    private static final int RECORD_HEADER = 8;
+
+    /**
+     * A molecule known to the store
+     */
+    static final class StoredMolecule {
+        private final String id;
+        private final String canonicalSmiles;
+        private final String smiles;
+        private final String name;
+
+        StoredMolecule(String id, String canonicalSmiles, String smiles, String name) {
+            this.id = id;
+            this.canonicalSmiles = canonicalSmiles;
+            this.smiles = smiles;
+            this.name = name;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        String getCanonicalSmiles() {
+            return canonicalSmiles;
+        }
+
+        /**
+         * @return the SMILES the molecule was first stored with
+         */
+        String getSmiles() {
+            return smiles;
+        }
+
+        /**
+         * @return the name the molecule was first stored with, or null
+         */
+        String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * One mapped segment file
+     */
+    private static final class Segment {
+        final MappedByteBuffer buffer;
+        // Whether the records are from this CDK version
+        boolean current;
+        // Offset of the first free byte
+        int end;
+
+        Segment(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Segment> segments = new ArrayList<>();
+    private final int segmentBytes;
+    private Path directory;
+    private FileChannel lockChannel;
+    private boolean enabled;
+    private Segment writable;
+    private int nextSegment;
+
+    // Open addressing over hash and location; a location of 0 marks a free slot
+    private long[] hashes = new long[1024];
+    private long[] locations = new long[1024];
+    private int keys;
+    private long molecules;
+    private long bytes;
+
+    public MoleculeStore(@Value("${cdk.store.enabled:true}") boolean enabled,
+            @Value("${cdk.store.directory:${java.io.tmpdir}/cdk-store}") String directory,
+            @Value("${cdk.store.segment-bytes:67108864}") int segmentBytes,
+            PipelineMetrics metrics) {
+        this.segmentBytes = segmentBytes;
+        if (!enabled) {
+            logger.info("Molecule store disabled");
+            return;
+        }
+        try {
+            this.directory = Paths.get(directory);
+            Files.createDirectories(this.directory);
+            // Two processes appending to the same segments would corrupt them
+            lockChannel = FileChannel.open(this.directory.resolve("store.lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock fileLock = lockChannel.tryLock();
+            if (fileLock == null) {
+                lockChannel.close();
+                logger.warn("Molecule store {} is in use by another process; running without it", directory);
+                return;
+            }
+            long start = System.nanoTime();
+            open();
+            this.enabled = true;
+            logger.info("Molecule store {} holds {} molecules, {} keys in {} segments, loaded in {} ms",
+                    directory, molecules, keys, segments.size(), (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException e) {
+            logger.warn("Could not open molecule store {}: {}; running without it", directory, e.getMessage());
+            return;
+        }
+        metrics.gauge("cdk.store.keys", "Keys in the molecule store", this, store -> store.size()[0]);
+        metrics.gauge("cdk.store.bytes", "Bytes of records in the molecule store", this, store -> store.size()[1]);
+    }
+
+    /**
+     * Look up the id of a molecule, storing the molecule under a new id if it is not known
+     * @param canonicalSmiles the canonical SMILES
+     * @param smiles the SMILES as submitted, stored with a new molecule
+     * @return the id of the molecule; a random one if the store is disabled
+     */
+    public String addMolecule(String canonicalSmiles, String smiles) {
+        return addMolecule(canonicalSmiles, smiles, null);
+    }
+
+    /**
+     * Look up the id of a molecule, storing the molecule under a new id if it is not known
+     * @param canonicalSmiles the canonical SMILES
+     * @param smiles the SMILES as submitted, stored with a new molecule
+     * @param name an optional name stored with a new molecule, or null
+     * @return the id of the molecule; a random one if the store is disabled
+     */
+    public String addMolecule(String canonicalSmiles, String smiles, String name) {
+        if (!enabled) {
+            return UUID.randomUUID().toString();
+        }
+        byte[] key = encode(canonicalSmiles);
+        StoredMolecule stored = getMolecule(MOLECULE, key);
+        if (stored != null) {
+            return stored.getId();
+        }
+        String id = UUID.randomUUID().toString();
+        try {
+            byte[] body = record(MOLECULE, canonicalSmiles, data -> {
+                writeString(data, id);
+                writeString(data, smiles);
+                writeString(data, name);
+            });
+            lock.writeLock().lock();
+            try {
+                // Another thread may have stored it meanwhile
+                long location = find(MOLECULE, key);
+                if (location != 0) {
+                    return readMolecule(location).getId();
+                }
+                location = append(body);
+                if (location != 0) {
+                    index(MOLECULE, key, location);
+                    index(ID, encode(id), location);
+                    molecules++;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (IOException e) {
+            logger.warn("Could not store molecule: {}", e.getMessage());
+        }
+        return id;
+    }
+
+    /**
+     * Pass every stored molecule to a consumer, such as an index being rebuilt. The
+     * store is locked against writes meanwhile.
+     * @param consumer called with each molecule once
+     */
+    void forEachMolecule(Consumer<StoredMolecule> consumer) {
+        if (!enabled) {
+            return;
+        }
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < locations.length; slot++) {
+                if (locations[slot] == 0 || read(locations[slot]).get() != MOLECULE) {
+                    continue;
+                }
+                // Molecule records are indexed by canonical SMILES and by id; pass each on
+                // from the slot of its canonical SMILES only
+                StoredMolecule molecule = readMolecule(locations[slot]);
+                if (hashes[slot] == hash(MOLECULE, encode(molecule.getCanonicalSmiles()))) {
+                    consumer.accept(molecule);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param id a molecule id returned by {@link #addMolecule(String, String)}
+     * @return the molecule, or null if the id is unknown
+     */
+    StoredMolecule getMolecule(String id) {
+        return enabled ? getMolecule(ID, encode(id)) : null;
+    }
+
+    /**
+     * @param canonicalSmiles the canonical SMILES
+     * @return the id of the molecule, or null if it is not stored
+     */
+    public String getMoleculeId(String canonicalSmiles) {
+        StoredMolecule stored = enabled ? getMolecule(MOLECULE, encode(canonicalSmiles)) : null;
+        return stored == null ? null : stored.getId();
+    }
+
+    public String getMolfile(String canonicalSmiles) {
+        ByteBuffer record = get(MOLFILE, canonicalSmiles);
+        return record == null ? null : readString(record);
+    }
+
+    public void putMolfile(String canonicalSmiles, String molfile) {
+        put(MOLFILE, canonicalSmiles, data -> writeString(data, molfile));
+    }
+
+    /**
+     * @param key the canonical SMILES, with the selection key as for {@link MoleculeCache}
+     * @param selection the descriptors the values are wanted for
+     * @return the stored values, or null if none are stored for the selection as it
+     *         is now registered
+     */
+    public DescriptorValues getDescriptors(String key, DescriptorRegistry selection) {
+        ByteBuffer record = get(DESCRIPTORS, key);
+        return record == null ? null : readDescriptors(record, selection);
+    }
+
+    /**
+     * Pass the latest descriptor values of every stored key to a consumer, such as
+     * an index being rebuilt. Values of descriptors that are no longer registered are
+     * skipped. The store is locked against writes meanwhile.
+     * @param registry the registered descriptors
+     * @param consumer called with the canonical SMILES and the values
+     */
+    public void forEachDescriptors(DescriptorRegistry registry, BiConsumer<String, DescriptorValues> consumer) {
+        if (!enabled) {
+            return;
+        }
+        lock.readLock().lock();
+        try {
+            for (long location : locations) {
+                if (location == 0) {
+                    continue;
+                }
+                ByteBuffer record = read(location);
+                if (record.get() != DESCRIPTORS) {
+                    continue;
+                }
+                String key = readString(record);
+                int start = record.position();
+                List<String> classNames = new ArrayList<>();
+                for (int i = record.getInt(); i > 0; i--) {
+                    classNames.add(readString(record));
+                    record.position(record.position() + 1);
+                    readBytes(record);
+                    record.position(record.position() + 5);
+                }
+                DescriptorValues values;
+                try {
+                    values = readDescriptors(record.position(start), registry.select(classNames));
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                if (values != null) {
+                    int selection = key.indexOf('\t');
+                    consumer.accept(selection < 0 ? key : key.substring(0, selection), values);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static DescriptorValues readDescriptors(ByteBuffer record, DescriptorRegistry selection) {
+        int count = record.getInt();
+        if (count != selection.size()) {
+            return null;
+        }
+        DescriptorResult.Status[] statuses = new DescriptorResult.Status[count];
+        String[] messages = new String[count];
+        DescriptorValues.Kind[] kinds = new DescriptorValues.Kind[count];
+        int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            if (!selection.get(i).getClassName().equals(readString(record))) {
+                return null;
+            }
+            statuses[i] = DescriptorResult.Status.values()[record.get()];
+            messages[i] = readString(record);
+            kinds[i] = DescriptorValues.Kind.values()[record.get()];
+            lengths[i] = record.getInt();
+        }
+        double[] values = new double[record.getInt()];
+        if (values.length != selection.getColumnCount()) {
+            return null;
+        }
+        record.asDoubleBuffer().get(values);
+        return DescriptorValues.of(selection, values, statuses, messages, kinds, lengths);
+    }
+
+    public void putDescriptors(String key, DescriptorValues values) {
+        DescriptorRegistry descriptors = values.getDescriptors();
+        put(DESCRIPTORS, key, data -> {
+            data.writeInt(descriptors.size());
+            for (int i = 0; i < descriptors.size(); i++) {
+                writeString(data, descriptors.get(i).getClassName());
+                data.writeByte(values.getStatus(i).ordinal());
+                writeString(data, values.getMessage(i));
+                data.writeByte(values.getKind(i).ordinal());
+                data.writeInt(values.getLength(i));
+            }
+            data.writeInt(values.getValues().length);
+            for (double value : values.getValues()) {
+                data.writeDouble(value);
+            }
+        });
+    }
+
+    public long[] getFingerprint(String canonicalSmiles, FingerprintType type) {
+        ByteBuffer record = get(FINGERPRINT, canonicalSmiles + '\t' + type.name());
+        if (record == null) {
+            return null;
+        }
+        long[] fingerprint = new long[record.getInt()];
+        if (fingerprint.length != type.getWords()) {
+            return null;
+        }
+        record.asLongBuffer().get(fingerprint);
+        return fingerprint;
+    }
+
+    public void putFingerprint(String canonicalSmiles, FingerprintType type, long[] fingerprint) {
+        put(FINGERPRINT, canonicalSmiles + '\t' + type.name(), data -> {
+            data.writeInt(fingerprint.length);
+            for (long word : fingerprint) {
+                data.writeLong(word);
+            }
+        });
+    }
+
+    /**
+     * @return whether the store is enabled, its location, and how much it holds
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("enabled", enabled);
+        if (directory != null) {
+            statistics.put("directory", directory.toString());
+        }
+        lock.readLock().lock();
+        try {
+            statistics.put("molecules", molecules);
+            statistics.put("keys", keys);
+            statistics.put("segments", segments.size());
+            statistics.put("bytes", bytes);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return statistics;
+    }
+
+    /**
+     * @return the number of keys and the bytes of records
+     */
+    private long[] size() {
+        lock.readLock().lock();
+        try {
+            return new long[] { keys, bytes };
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (!enabled) {
+                return;
+            }
+            enabled = false;
+            for (Segment segment : segments) {
+                segment.buffer.force();
+            }
+            lockChannel.close();
+        } catch (IOException e) {
+            logger.warn("Could not close molecule store: {}", e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Map the existing segments and index their records
+     */
+    private void open() throws IOException {
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files.filter(path -> path.getFileName().toString().matches(SEGMENT_PREFIX + "\\d+\\" + SEGMENT_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        boolean complete = true;
+        for (Path path : paths) {
+            String name = path.getFileName().toString();
+            int number = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                segment = new Segment(channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            }
+            nextSegment = number + 1;
+            segments.add(segment);
+            complete = scan(segment, segments.size() - 1);
+            if (!complete) {
+                logger.warn("Molecule store segment {} ends in an incomplete record at {}", name, segment.end);
+            }
+        }
+        if (complete && !segments.isEmpty() && segments.get(segments.size() - 1).current) {
+            writable = segments.get(segments.size() - 1);
+        }
+    }
+
+    /**
+     * Index the records of a segment
+     * @return whether the segment ends cleanly; false if it ends in an incomplete record
+     */
+    private boolean scan(Segment segment, int index) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        byte[] magic = new byte[MAGIC.length];
+        try {
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                return false;
+            }
+            segment.current = VERSION.equals(readString(buffer));
+        } catch (RuntimeException e) {
+            // Too short for a header
+            return false;
+        }
+        int position = buffer.position();
+        boolean complete = true;
+        CRC32 crc = new CRC32();
+        while (position + RECORD_HEADER <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length == 0) {
+                break;
+            }
+            if (length < 0 || length > buffer.capacity() - position - RECORD_HEADER) {
+                complete = false;
+                break;
+            }
+            ByteBuffer body = buffer.duplicate();
+            body.limit(position + RECORD_HEADER + length).position(position + RECORD_HEADER);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                complete = false;
+                break;
+            }
+
+            long location = ((long) index << 32) | position;
+            ByteBuffer record = read(location);
+            byte type = record.get();
+            byte[] key = readBytes(record);
+            if (type == MOLECULE) {
+                index(MOLECULE, key, location);
+                index(ID, readBytes(record), location);
+                molecules++;
+            } else if (segment.current) {
+                index(type, key, location);
+            }
+            position += RECORD_HEADER + length;
+        }
+        segment.end = position;
+        bytes += position;
+        return complete;
+    }
+
+    private StoredMolecule getMolecule(byte type, byte[] key) {
+        lock.readLock().lock();
+        try {
+            long location = find(type, key);
+            return location == 0 ? null : readMolecule(location);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private StoredMolecule readMolecule(long location) {
+        ByteBuffer record = read(location);
+        record.get();
+        String canonicalSmiles = readString(record);
+        String id = readString(record);
+        String smiles = readString(record);
+        // Records written before names were stored end after the SMILES
+        return new StoredMolecule(id, canonicalSmiles, smiles, record.hasRemaining() ? readString(record) : null);
+    }
+
+    /**
+     * @return the record of a key, positioned after the key, or null if there is none
+     */
+    private ByteBuffer get(byte type, String key) {
+        if (!enabled) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            long location = find(type, encode(key));
+            if (location == 0) {
+                return null;
+            }
+            ByteBuffer record = read(location);
+            record.get();
+            record.position(record.position() + 4 + record.getInt(record.position()));
+            return record;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Payload {
+        void write(DataOutputStream data) throws IOException;
+    }
+
+    private void put(byte type, String key, Payload payload) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            byte[] body = record(type, key, payload);
+            lock.writeLock().lock();
+            try {
+                long location = append(body);
+                if (location != 0) {
+                    index(type, encode(key), location);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (IOException e) {
+            logger.warn("Could not store molecule record: {}", e.getMessage());
+        }
+    }
+
+    private static byte[] record(byte type, String key, Payload payload) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        DataOutputStream data = new DataOutputStream(body);
+        data.writeByte(type);
+        writeString(data, key);
+        payload.write(data);
+        data.flush();
+        return body.toByteArray();
+    }
+
+    /**
+     * Append a record to the writable segment, starting a new one when it is full.
+     * Called with the write lock held.
+     * @return the location of the record; 0 if the store is closed or the record
+     *         does not fit in a segment
+     */
+    private long append(byte[] body) throws IOException {
+        if (!enabled) {
+            return 0;
+        }
+        int length = RECORD_HEADER + body.length;
+        if (writable == null || writable.end + length > writable.buffer.capacity()) {
+            if (writable != null) {
+                writable.buffer.force();
+            }
+            writable = newSegment();
+            if (writable.end + length > writable.buffer.capacity()) {
+                logger.warn("Record of {} bytes exceeds the molecule store segment size", body.length);
+                return 0;
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer buffer = writable.buffer.duplicate();
+        buffer.position(writable.end);
+        buffer.putInt(body.length).putInt((int) crc.getValue()).put(body);
+
+        // The writable segment is always the last one
+        long location = ((long) (segments.size() - 1) << 32) | writable.end;
+        writable.end += length;
+        bytes += length;
+        return location;
+    }
+
+    private Segment newSegment() throws IOException {
+        int number = nextSegment++;
+        Path path = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+        Segment segment;
+        // Mapping past the end grows the file; the unwritten tail stays sparse and reads as zeros
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = new Segment(channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+        }
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.put(MAGIC);
+        byte[] version = encode(VERSION);
+        buffer.putInt(version.length).put(version);
+        segment.current = true;
+        segment.end = buffer.position();
+        bytes += segment.end;
+        segments.add(segment);
+        return segment;
+    }
+
+    /**
+     * @return the body of the record at a location, positioned at its type
+     */
+    private ByteBuffer read(long location) {
+        ByteBuffer buffer = segments.get((int) (location >>> 32)).buffer.duplicate();
+        int offset = (int) location;
+        buffer.limit(offset + RECORD_HEADER + buffer.getInt(offset)).position(offset + RECORD_HEADER);
+        return buffer;
+    }
+
+    /**
+     * @return the location of the latest record of a key, or 0 if there is none
+     */
+    private long find(byte type, byte[] key) {
+        long hash = hash(type, key);
+        int mask = hashes.length - 1;
+        for (int slot = (int) hash & mask; locations[slot] != 0; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash && matches(locations[slot], type, key)) {
+                return locations[slot];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Point a key at a record, superseding the record it pointed at
+     */
+    private void index(byte type, byte[] key, long location) {
+        long hash = hash(type, key);
+        int mask = hashes.length - 1;
+        int slot = (int) hash & mask;
+        for (; locations[slot] != 0; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash && matches(locations[slot], type, key)) {
+                locations[slot] = location;
+                return;
+            }
+        }
+        hashes[slot] = hash;
+        locations[slot] = location;
+        if (++keys * 3 > hashes.length * 2) {
+            resize();
+        }
+    }
+
+    private void resize() {
+        long[] oldHashes = hashes;
+        long[] oldLocations = locations;
+        hashes = new long[oldHashes.length * 2];
+        locations = new long[oldLocations.length * 2];
+        int mask = hashes.length - 1;
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldLocations[i] != 0) {
+                int slot = (int) oldHashes[i] & mask;
+                while (locations[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = oldHashes[i];
+                locations[slot] = oldLocations[i];
+            }
+        }
+    }
+
+    /**
+     * @return whether the record at a location holds the key; ids are compared
+     *         against the id of molecule records
+     */
+    private boolean matches(long location, byte type, byte[] key) {
+        ByteBuffer record = read(location);
+        byte recordType = record.get();
+        if (type == ID) {
+            if (recordType != MOLECULE) {
+                return false;
+            }
+            record.position(record.position() + 4 + record.getInt(record.position()));
+        } else if (recordType != type) {
+            return false;
+        }
+        if (record.getInt() != key.length) {
+            return false;
+        }
+        for (byte b : key) {
+            if (record.get() != b) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * FNV-1a over the type and key, with a final mix so that the low bits select slots well
+     */
+    private static long hash(byte type, byte[] key) {
+        long hash = 0xcbf29ce484222325L ^ type;
+        for (byte b : key) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static byte[] encode(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        if (value == null) {
+            data.writeInt(-1);
+            return;
+        }
+        byte[] encoded = encode(value);
+        data.writeInt(encoded.length);
+        data.write(encoded);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return value;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] value = readBytes(buffer);
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,163 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import javax.annotation.PreDestroy;
+
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.qsar.DescriptorValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.iwomi.cdkapp.util.DescriptorRegistry;
+import com.iwomi.cdkapp.util.NamedThreadFactory;
+
+/**
+ * Evaluates registry descriptors concurrently on a bounded worker pool.
+ *
+ * Every descriptor works on its own clone of the prepared molecule and has its own
+ * time budget, counted from the moment it starts running. A descriptor that exceeds
+ * its budget is reported as timed out; CDK does not react to interrupts, so the
+ * worker finishes the calculation in the background and the value is discarded.
+ * The request as a whole is also capped, so a saturated pool cannot block a caller
+ * indefinitely. Descriptors of heavy molecules run on a separate, smaller pool, so
+ * that they never queue ahead of those of the light ones.
+ */
+@Component
+public class ParallelDescriptorCalculator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParallelDescriptorCalculator.class);
+
+    private final ExecutorService workers;
+    private final ExecutorService heavyWorkers;
+    private final ScheduledExecutorService watchdog;
+    private final PipelineMetrics metrics;
+    private final long descriptorTimeoutMillis;
+    private final long requestTimeoutMillis;
+
+    public ParallelDescriptorCalculator(
+            @Value("${cdk.descriptors.parallelism:0}") int parallelism,
+            @Value("${cdk.descriptors.timeout-ms:5000}") long descriptorTimeoutMillis,
+            @Value("${cdk.descriptors.request-timeout-ms:15000}") long requestTimeoutMillis,
+            @Value("${cdk.admission.heavy-workers:1}") int heavyParallelism,
+            PipelineMetrics metrics) {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.workers = metrics.monitor(
+                Executors.newFixedThreadPool(threads, new NamedThreadFactory("descriptor-worker-")),
+                "descriptor-workers");
+        this.heavyWorkers = metrics.monitor(
+                Executors.newFixedThreadPool(Math.max(1, heavyParallelism), new NamedThreadFactory("descriptor-heavy-worker-")),
+                "descriptor-heavy-workers");
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("descriptor-watchdog-"));
+        this.descriptorTimeoutMillis = descriptorTimeoutMillis;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.metrics = metrics;
+        logger.info("Descriptor calculator using {} threads, {} for heavy molecules, {} ms per descriptor", threads,
+                Math.max(1, heavyParallelism), descriptorTimeoutMillis);
+    }
+
+    /**
+     * Evaluate every descriptor of the registry on the given molecule
+     * @param molecule the prepared molecule; it is cloned, never modified
+     * @param registry the descriptors to evaluate
+     * @return one result per registry entry, in registry order
+     */
+    public DescriptorResult[] calculate(IAtomContainer molecule, DescriptorRegistry registry) {
+        return calculate(entry -> molecule, registry, false, entry -> null);
+    }
+
+    /**
+     * Evaluate the descriptors of the registry, each on the preparation of the molecule
+     * it needs, leaving some out
+     * @param inputs the prepared molecule for each descriptor; it is cloned, never modified
+     * @param registry the descriptors to evaluate
+     * @param heavy whether to run on the heavy-molecule workers
+     * @param skipped the reason a descriptor is not to be evaluated, or null to evaluate it
+     * @return one result per registry entry, in registry order
+     */
+    public DescriptorResult[] calculate(Function<DescriptorRegistry.Entry, IAtomContainer> inputs,
+            DescriptorRegistry registry, boolean heavy, Function<DescriptorRegistry.Entry, String> skipped) {
+        int count = registry.size();
+        @SuppressWarnings("unchecked")
+        CompletableFuture<DescriptorResult>[] futures = new CompletableFuture[count];
+        for (int i = 0; i < count; i++) {
+            DescriptorRegistry.Entry entry = registry.get(i);
+            String reason = skipped.apply(entry);
+            futures[i] = reason == null ? submit(heavy ? heavyWorkers : workers, inputs.apply(entry), entry)
+                    : CompletableFuture.completedFuture(DescriptorResult.skipped(entry, reason));
+        }
+
+        try {
+            CompletableFuture.allOf(futures).get(requestTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("Descriptor calculation exceeded the {} ms request budget", requestTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Tasks never complete exceptionally; failures are reported as results
+        }
+
+        DescriptorResult[] results = new DescriptorResult[count];
+        for (int i = 0; i < count; i++) {
+            // Anything still pending (queued or running) is reported as timed out;
+            // queued tasks see the completed future and skip the work
+            timeOut(futures[i], registry.get(i));
+            results[i] = futures[i].join();
+        }
+        return results;
+    }
+
+    private CompletableFuture<DescriptorResult> submit(ExecutorService executor, IAtomContainer molecule,
+            DescriptorRegistry.Entry entry) {
+        CompletableFuture<DescriptorResult> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            if (future.isDone()) {
+                return;
+            }
+            ScheduledFuture<?> timeout = watchdog.schedule(() -> timeOut(future, entry),
+                    descriptorTimeoutMillis, TimeUnit.MILLISECONDS);
+            long start = System.nanoTime();
+            try {
+                IAtomContainer copy = molecule.clone();
+                DescriptorValue value = entry.newInstance().calculate(copy);
+                metrics.recordDescriptor(entry, System.nanoTime() - start, false);
+                future.complete(DescriptorResult.ok(entry, value));
+            } catch (Throwable e) {
+                // Errors too (a stack overflow in a deep ring walk, a missing class): the
+                // descriptor failed, and the caller must not wait out its budget for it
+                metrics.recordDescriptor(entry, System.nanoTime() - start, true);
+                future.complete(DescriptorResult.error(entry,
+                        e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName()));
+                if (e instanceof VirtualMachineError) {
+                    throw (VirtualMachineError) e;
+                }
+            } finally {
+                timeout.cancel(false);
+            }
+        });
+        return future;
+    }
+
+    private void timeOut(CompletableFuture<DescriptorResult> future, DescriptorRegistry.Entry entry) {
+        if (future.complete(DescriptorResult.timedOut(entry, descriptorTimeoutMillis))) {
+            metrics.recordDescriptorTimeout(entry);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+        heavyWorkers.shutdownNow();
+        watchdog.shutdownNow();
+    }
+}
@@ -0,0 +1,205 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+
+import org.springframework.stereotype.Component;
+
+import com.iwomi.cdkapp.util.DescriptorRegistry;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+/**
+ * Micrometer instrumentation of the molecule pipeline.
+ *
+ * Every pipeline stage (parse, canonicalize, layout, render, encode, molfile,
+ * descriptor preparation, descriptors, fingerprint, similarity and substructure
+ * search, descriptor query) gets a timer tagged with its outcome and an in-flight gauge; every
+ * descriptor class gets a timer of its actual run time and counters of its failures
+ * and timeouts; computations shared between identical concurrent requests are counted
+ * with the time they saved, and molecules by their estimated cost and the lane
+ * admission control gave them. Meters are created on first use and kept, so recording
+ * does not go through the registry lookup.
+ */
+@Component
+public class PipelineMetrics {
+
+    static final String STAGE_TIMER = "cdk.pipeline.stage";
+    static final String STAGE_IN_FLIGHT = "cdk.pipeline.in.flight";
+    static final String DESCRIPTOR_TIMER = "cdk.descriptor.duration";
+    static final String DESCRIPTOR_FAILURES = "cdk.descriptor.failures";
+    static final String SINGLE_FLIGHT_COMPUTED = "cdk.singleflight.computed";
+    static final String SINGLE_FLIGHT_SHARED = "cdk.singleflight.shared";
+    static final String ADMISSION_DECISIONS = "cdk.admission.decisions";
+    static final String MOLECULE_COST = "cdk.molecule.cost";
+
+    /**
+     * A pipeline stage; CDK steps throw checked exceptions
+     */
+    @FunctionalInterface
+    public interface Stage<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    private final MeterRegistry registry;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    private final DistributionSummary moleculeCost;
+
+    public PipelineMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.moleculeCost = DistributionSummary.builder(MOLECULE_COST)
+                .description("Estimated cost of the molecules parsed, from their atom, bond and ring counts")
+                .register(registry);
+    }
+
+    /**
+     * Run a pipeline stage, recording its duration and outcome
+     * @param stage the stage name, used as the stage tag
+     * @param work the stage itself
+     * @return the stage result
+     * @throws E whatever the stage throws, after it was recorded as an error
+     */
+    public <T, E extends Exception> T time(String stage, Stage<T, E> work) throws E {
+        AtomicInteger running = inFlight.computeIfAbsent(stage, s -> registry.gauge(STAGE_IN_FLIGHT,
+                Tags.of("stage", s), new AtomicInteger()));
+        running.incrementAndGet();
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            T result = work.run();
+            outcome = "success";
+            return result;
+        } finally {
+            running.decrementAndGet();
+            stageTimer(stage, outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Record the actual run time of one descriptor, whether or not its result was
+     * still used; CDK cannot be interrupted, so the time is spent either way
+     * @param entry the descriptor
+     * @param nanos the run time in nanoseconds
+     * @param failed whether the calculation threw
+     */
+    public void recordDescriptor(DescriptorRegistry.Entry entry, long nanos, boolean failed) {
+        String outcome = failed ? "error" : "success";
+        descriptorTimer(entry, outcome).record(nanos, TimeUnit.NANOSECONDS);
+        if (failed) {
+            descriptorFailures(entry, "error").increment();
+        }
+    }
+
+    /**
+     * Count a descriptor reported as timed out, either because it exceeded its own
+     * budget or because the request budget ran out before it started
+     */
+    public void recordDescriptorTimeout(DescriptorRegistry.Entry entry) {
+        descriptorFailures(entry, "timeout").increment();
+    }
+
+    /**
+     * Count an artifact computed by a request that no identical request was already computing
+     * @param artifact the artifact type, used as the artifact tag
+     */
+    public void recordComputed(String artifact) {
+        counters.computeIfAbsent(SINGLE_FLIGHT_COMPUTED + '|' + artifact,
+                key -> Counter.builder(SINGLE_FLIGHT_COMPUTED)
+                        .description("Artifacts computed, not taken from a concurrent identical request")
+                        .tags("artifact", artifact)
+                        .register(registry))
+                .increment();
+    }
+
+    /**
+     * Record an artifact a request took from a concurrent identical request instead
+     * of computing it, timed by the computation it saved
+     * @param artifact the artifact type, used as the artifact tag
+     * @param savedNanos how long the computation that was shared took
+     */
+    public void recordShared(String artifact, long savedNanos) {
+        timers.computeIfAbsent(SINGLE_FLIGHT_SHARED + '|' + artifact,
+                key -> Timer.builder(SINGLE_FLIGHT_SHARED)
+                        .description("Artifacts taken from a concurrent identical request, by the time each saved")
+                        .tags("artifact", artifact)
+                        .register(registry))
+                .record(savedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record the estimated cost of a parsed molecule
+     */
+    public void recordCost(int cost) {
+        moleculeCost.record(cost);
+    }
+
+    /**
+     * Count an admission decision: the lane a molecule was given, or why its work was refused
+     * @param decision light, heavy, degraded, too-large or overloaded, used as the decision tag
+     */
+    public void recordAdmission(String decision) {
+        counters.computeIfAbsent(ADMISSION_DECISIONS + '|' + decision,
+                key -> Counter.builder(ADMISSION_DECISIONS)
+                        .description("Molecules admitted to each lane, or refused")
+                        .tags("decision", decision)
+                        .register(registry))
+                .increment();
+    }
+
+    /**
+     * Wrap a worker pool so its queue depth, active threads and task times are
+     * exported as executor metrics under the given name
+     */
+    public ExecutorService monitor(ExecutorService executor, String name) {
+        return ExecutorServiceMetrics.monitor(registry, executor, name);
+    }
+
+    /**
+     * Publish a value of some object, such as the size of an index, as a gauge
+     * @param name the meter name
+     * @param description what the value means
+     * @param tags the meter tags, as key value pairs
+     */
+    public <T> void gauge(String name, String description, T object, ToDoubleFunction<T> value, String... tags) {
+        Gauge.builder(name, object, value)
+                .description(description)
+                .tags(tags)
+                .register(registry);
+    }
+
+    private Timer stageTimer(String stage, String outcome) {
+        return timers.computeIfAbsent(STAGE_TIMER + '|' + stage + '|' + outcome,
+                key -> Timer.builder(STAGE_TIMER)
+                        .description("Time spent in one molecule pipeline stage")
+                        .tags("stage", stage, "outcome", outcome)
+                        .register(registry));
+    }
+
+    private Timer descriptorTimer(DescriptorRegistry.Entry entry, String outcome) {
+        return timers.computeIfAbsent(DESCRIPTOR_TIMER + '|' + entry.getClassName() + '|' + outcome,
+                key -> Timer.builder(DESCRIPTOR_TIMER)
+                        .description("Run time of one descriptor calculation")
+                        .tags("descriptor", entry.getSimpleName(), "outcome", outcome)
+                        .register(registry));
+    }
+
+    private Counter descriptorFailures(DescriptorRegistry.Entry entry, String reason) {
+        return counters.computeIfAbsent(entry.getClassName() + '|' + reason,
+                key -> Counter.builder(DESCRIPTOR_FAILURES)
+                        .description("Descriptor calculations that failed or timed out")
+                        .tags("descriptor", entry.getSimpleName(), "reason", reason)
+                        .register(registry));
+    }
+}
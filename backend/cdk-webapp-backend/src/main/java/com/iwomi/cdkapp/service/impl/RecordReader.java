@@ -0,0 +1,166 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import com.iwomi.cdkapp.service.BatchService.InputFormat;
+
+/**
+ * Splits batch input into raw records on the reading thread.
+ *
+ * Records are only split here, not parsed: parsing happens on the batch workers,
+ * so it runs in parallel and a malformed record fails on its own while the next
+ * one is read as usual. CDK's IteratingSDFReader parses on the reading thread and
+ * either stops at the first bad record or skips it silently, which would lose
+ * both the parallelism and the per-record error. Records are capped in size, and
+ * so are lines, which are read without ever holding more than the cap: neither an
+ * SD file with missing "$$$$" separators nor an upload without line breaks can
+ * exhaust memory.
+ */
+final class RecordReader {
+
+    static final int MAX_RECORD_CHARS = 4 * 1024 * 1024;
+
+    /**
+     * One raw record: a SMILES line or the molfile part of an SD record
+     */
+    static final class Record {
+        final long index;
+        final InputFormat format;
+        final String text;
+        final String error;
+
+        Record(long index, InputFormat format, String text, String error) {
+            this.index = index;
+            this.format = format;
+            this.text = text;
+            this.error = error;
+        }
+    }
+
+    private final Reader reader;
+    private final InputFormat format;
+    private final char[] buffer = new char[64 * 1024];
+    private int position;
+    private int limit;
+    // A line ended with '\r'; a '\n' right after it belongs to the same line break
+    private boolean carriageReturn;
+    private final StringBuilder chars = new StringBuilder();
+    // Whether the last line read was cut at MAX_RECORD_CHARS
+    private boolean truncated;
+    private long index;
+
+    RecordReader(Reader input, InputFormat format) {
+        this.reader = input;
+        this.format = format;
+    }
+
+    /**
+     * @return the next record, or null at the end of the input
+     */
+    Record next() throws IOException {
+        return format == InputFormat.SDF ? nextSdfRecord() : nextSmilesLine();
+    }
+
+    /**
+     * Read a line ended by "\n", "\r\n" or "\r", keeping at most MAX_RECORD_CHARS
+     * of it; the rest of a longer line is skipped and {@link #truncated} set
+     * @return the line without its line break, or null at the end of the input
+     */
+    private String readLine() throws IOException {
+        chars.setLength(0);
+        truncated = false;
+        boolean read = false;
+        while (true) {
+            if (position == limit) {
+                limit = Math.max(0, reader.read(buffer));
+                position = 0;
+                if (limit == 0) {
+                    return read ? chars.toString() : null;
+                }
+            }
+            if (carriageReturn) {
+                carriageReturn = false;
+                if (buffer[position] == '\n') {
+                    position++;
+                    continue;
+                }
+            }
+            read = true;
+            int start = position;
+            while (position < limit && buffer[position] != '\n' && buffer[position] != '\r') {
+                position++;
+            }
+            int room = MAX_RECORD_CHARS - chars.length();
+            if (position - start > room) {
+                chars.append(buffer, start, room);
+                truncated = true;
+            } else {
+                chars.append(buffer, start, position - start);
+            }
+            if (position < limit) {
+                carriageReturn = buffer[position++] == '\r';
+                return chars.toString();
+            }
+        }
+    }
+
+    private Record nextSmilesLine() throws IOException {
+        String line;
+        while ((line = readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if (truncated) {
+                return new Record(index++, format, null, "Record exceeds " + MAX_RECORD_CHARS + " characters");
+            }
+            return new Record(index++, format, line, null);
+        }
+        return null;
+    }
+
+    private Record nextSdfRecord() throws IOException {
+        StringBuilder molfile = new StringBuilder(4096);
+        boolean inMolfile = true;
+        boolean blank = true;
+        boolean oversized = false;
+        String line;
+        while ((line = readLine()) != null) {
+            if (line.startsWith("$$$$")) {
+                if (blank) {
+                    // Stray separator or trailing whitespace between records
+                    molfile.setLength(0);
+                    inMolfile = true;
+                    continue;
+                }
+                return record(molfile, oversized);
+            }
+            if (blank && !line.trim().isEmpty()) {
+                blank = false;
+            }
+            if (!inMolfile) {
+                // Data items after "M  END" are not needed for the calculation
+                continue;
+            }
+            if (truncated || molfile.length() + line.length() > MAX_RECORD_CHARS) {
+                oversized = true;
+                inMolfile = false;
+                continue;
+            }
+            molfile.append(line).append('\n');
+            if (line.startsWith("M  END")) {
+                inMolfile = false;
+            }
+        }
+        // A last record without separator still counts
+        return blank ? null : record(molfile, oversized);
+    }
+
+    private Record record(StringBuilder molfile, boolean oversized) {
+        if (oversized) {
+            return new Record(index++, format, null, "Record exceeds " + MAX_RECORD_CHARS + " characters");
+        }
+        return new Record(index++, format, molfile.toString(), null);
+    }
+}
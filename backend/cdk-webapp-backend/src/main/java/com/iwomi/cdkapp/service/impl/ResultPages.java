@@ -0,0 +1,103 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Paged reads of a finished NDJSON results file.
+ *
+ * The file is scanned once, on the first read, for the byte offset of every
+ * {@value #CHECKPOINT_INTERVAL}th line. A page then seeks to the nearest
+ * checkpoint and skips fewer than that many lines, so reading deep into a file
+ * of millions of results does not rescan it from the start.
+ */
+final class ResultPages {
+
+    static final int CHECKPOINT_INTERVAL = 1024;
+
+    private final Path file;
+    private long[] checkpoints;
+    private long lines = -1;
+
+    ResultPages(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @return the number of lines in the file
+     */
+    synchronized long size() throws IOException {
+        index();
+        return lines;
+    }
+
+    /**
+     * @return up to limit lines starting at line offset
+     */
+    List<String> read(long offset, int limit) throws IOException {
+        long start;
+        synchronized (this) {
+            index();
+            if (offset >= lines || limit <= 0) {
+                return Collections.emptyList();
+            }
+            start = checkpoints[(int) (offset / CHECKPOINT_INTERVAL)];
+        }
+
+        List<String> page = new ArrayList<>(limit);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.position(start);
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8), 64 * 1024);
+            for (long skip = offset % CHECKPOINT_INTERVAL; skip > 0; skip--) {
+                reader.readLine();
+            }
+            String line;
+            while (page.size() < limit && (line = reader.readLine()) != null) {
+                page.add(line);
+            }
+        }
+        return page;
+    }
+
+    private void index() throws IOException {
+        if (lines >= 0) {
+            return;
+        }
+        long[] offsets = new long[16];
+        long count = 0;
+        long position = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ))) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    if (buffer[i] == '\n') {
+                        count++;
+                        if (count % CHECKPOINT_INTERVAL == 0) {
+                            int slot = (int) (count / CHECKPOINT_INTERVAL);
+                            if (slot >= offsets.length) {
+                                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                            }
+                            offsets[slot] = position + i + 1;
+                        }
+                    }
+                }
+                position += n;
+            }
+        }
+        checkpoints = offsets;
+        lines = count;
+    }
+}
@@ -0,0 +1,77 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import com.iwomi.cdkapp.model.SimilarityHit;
+import com.iwomi.cdkapp.service.ComputeService;
+import com.iwomi.cdkapp.service.FingerprintType;
+import com.iwomi.cdkapp.service.MoleculeRejectedException;
+import com.iwomi.cdkapp.service.MoleculeService;
+import com.iwomi.cdkapp.service.PreparedMolecule;
+import com.iwomi.cdkapp.service.SimilarityService;
+
+@Service
+public class SimilarityServiceImpl implements SimilarityService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SimilarityServiceImpl.class);
+
+    private final MoleculeService moleculeService;
+    private final MoleculeIndex index;
+    private final ComputeService computeService;
+    private final PipelineMetrics metrics;
+
+    public SimilarityServiceImpl(MoleculeService moleculeService, MoleculeIndex index,
+            ComputeService computeService, PipelineMetrics metrics) {
+        this.moleculeService = moleculeService;
+        this.index = index;
+        this.computeService = computeService;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean add(PreparedMolecule molecule, String name) {
+        return index.add(molecule, name);
+    }
+
+    @Override
+    public void addProcessed(PreparedMolecule molecule, String name) {
+        try {
+            index.add(molecule, name);
+        } catch (RuntimeException e) {
+            logger.warn("Could not index {}: {}", molecule.getSmiles(), e.getMessage());
+        }
+    }
+
+    @Override
+    public void addProcessedLater(PreparedMolecule molecule, String name) {
+        try {
+            computeService.submit(() -> {
+                addProcessed(molecule, name);
+                return null;
+            });
+        } catch (MoleculeRejectedException e) {
+            // Requests come first; the molecule is indexed when it is processed again
+            logger.debug("Not indexing {}: {}", molecule.getSmiles(), e.getMessage());
+        }
+    }
+
+    @Override
+    public List<SimilarityHit> search(String smiles, FingerprintType type, int k, double threshold) {
+        if (threshold < 0 || threshold > 1) {
+            throw new IllegalArgumentException("Threshold must be between 0 and 1: " + threshold);
+        }
+        long[] query = moleculeService.calculateFingerprint(moleculeService.prepare(smiles), type);
+        return metrics.time("similarity-search",
+                () -> index.get(type).search(query, k, threshold, index.getSearchers()));
+    }
+
+    @Override
+    public Map<String, Integer> getIndexSizes() {
+        return index.getSizes();
+    }
+}
@@ -0,0 +1,76 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent computations of the same artifact: the first request for a
+ * key computes it, and requests for that key arriving meanwhile wait for its result
+ * instead of computing it again. Failures are shared the same way. Once the
+ * computation finishes the key is forgotten; later requests are served by the
+ * result cache, so computations should fill the cache before returning.
+ */
+final class SingleFlight {
+
+    /**
+     * A computation in progress; its run time is set before its result
+     */
+    private static final class Flight {
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        volatile long nanos;
+    }
+
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+    private final PipelineMetrics metrics;
+
+    SingleFlight(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Compute an artifact, or wait for the identical computation already running
+     * @param artifact the artifact type, for metrics
+     * @param key identifies the artifact, such as its cache key
+     * @param work computes the artifact; runs on the calling thread
+     * @return the artifact, possibly shared with other requests, so never to be modified
+     */
+    @SuppressWarnings("unchecked")
+    <T> T run(String artifact, String key, Supplier<T> work) {
+        Flight flight = new Flight();
+        Flight running = flights.putIfAbsent(artifact + '|' + key, flight);
+        if (running != null) {
+            try {
+                T result = (T) running.result.join();
+                metrics.recordShared(artifact, running.nanos);
+                return result;
+            } catch (CompletionException e) {
+                // The computation threw; rethrow what it threw
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        long start = System.nanoTime();
+        try {
+            T result = work.get();
+            flight.nanos = System.nanoTime() - start;
+            flight.result.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.nanos = System.nanoTime() - start;
+            flight.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(artifact + '|' + key, flight);
+            metrics.recordComputed(artifact);
+        }
+    }
+}
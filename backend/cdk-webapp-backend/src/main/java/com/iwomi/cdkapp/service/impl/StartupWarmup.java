@@ -0,0 +1,100 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * Warm-up on startup: a set of representative molecules is run through parsing,
+ * layout, rendering, descriptors and fingerprints before the application reports
+ * itself ready, so the first requests after a (re)start do not pay for class
+ * loading, CDK's lazily built tables and interpreted code.
+ *
+ * Spring Boot reports readiness once application runners are done, so load
+ * balancers and /health see the instance as starting until the warm-up is over.
+ * With {@code cdk.warmup.exit} the application stops after the warm-up; this is
+ * how the build records a class data sharing archive of everything loaded.
+ */
+@Component
+public class StartupWarmup implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupWarmup.class);
+
+    private static final String MOLECULES = "/warmup/molecules.smi";
+
+    private final MoleculeServiceImpl moleculeService;
+    private final ApplicationContext context;
+    private final boolean enabled;
+    private final int rounds;
+    private final boolean exit;
+
+    public StartupWarmup(MoleculeServiceImpl moleculeService, ApplicationContext context,
+            @Value("${cdk.warmup.enabled:true}") boolean enabled,
+            @Value("${cdk.warmup.rounds:2}") int rounds,
+            @Value("${cdk.warmup.exit:false}") boolean exit) {
+        this.moleculeService = moleculeService;
+        this.context = context;
+        this.enabled = enabled;
+        this.rounds = rounds;
+        this.exit = exit;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws IOException {
+        if (enabled || exit) {
+            warmUp();
+        }
+        if (exit) {
+            logger.info("Warm-up done, exiting");
+            System.exit(SpringApplication.exit(context));
+        }
+    }
+
+    private void warmUp() throws IOException {
+        List<String> molecules = readMolecules();
+        long start = System.nanoTime();
+        int failed = 0;
+        for (int round = 0; round < Math.max(1, rounds); round++) {
+            for (String smiles : molecules) {
+                try {
+                    moleculeService.warmUp(smiles);
+                } catch (RuntimeException e) {
+                    // A molecule that fails only leaves its own code paths cold
+                    logger.warn("Warm-up of {} failed: {}", smiles, e.getMessage());
+                    failed++;
+                }
+            }
+        }
+        logger.info("Warmed up with {} molecules in {} rounds in {} ms{}", molecules.size(), Math.max(1, rounds),
+                (System.nanoTime() - start) / 1_000_000, failed > 0 ? ", " + failed + " failed" : "");
+    }
+
+    private static List<String> readMolecules() throws IOException {
+        List<String> molecules = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                StartupWarmup.class.getResourceAsStream(MOLECULES), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                // SMILES, then an optional name
+                molecules.add(line.split("\\s+", 2)[0]);
+            }
+        }
+        return molecules;
+    }
+}
@@ -0,0 +1,168 @@
+package com.iwomi.cdkapp.service.impl;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.openscience.cdk.aromaticity.Aromaticity;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.graph.Cycles;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.isomorphism.AtomMatcher;
+import org.openscience.cdk.isomorphism.BondMatcher;
+import org.openscience.cdk.isomorphism.Pattern;
+import org.openscience.cdk.isomorphism.VentoFoggia;
+import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.iwomi.cdkapp.model.SimilarityHit;
+import com.iwomi.cdkapp.model.SubstructureSearch;
+import com.iwomi.cdkapp.service.FingerprintType;
+import com.iwomi.cdkapp.service.MoleculeService;
+import com.iwomi.cdkapp.service.PreparedMolecule;
+import com.iwomi.cdkapp.service.SubstructureService;
+import com.iwomi.cdkapp.util.CDKToolkitPool;
+
+/**
+ * Screens the path fingerprints of the structure search index and confirms the
+ * candidates by VF2 matching on the search threads. Only SMILES are kept for
+ * indexed molecules, so every candidate is parsed again for matching.
+ */
+@Service
+public class SubstructureServiceImpl implements SubstructureService {
+
+    // The CDK legacy model the path fingerprinter perceives with, spelled out with
+    // the non-deprecated API (Aromaticity.cdkLegacy() is this exact instance);
+    // immutable and thread-safe
+    private static final Aromaticity FINGERPRINT_AROMATICITY =
+            new Aromaticity(Aromaticity.Model.CDK_AtomTypes, Cycles.cdkAromaticSet());
+
+    private final MoleculeService moleculeService;
+    private final MoleculeIndex index;
+    private final CDKToolkitPool toolkit;
+    private final PipelineMetrics metrics;
+    private final long timeoutMillis;
+
+    public SubstructureServiceImpl(MoleculeService moleculeService, MoleculeIndex index, CDKToolkitPool toolkit,
+            @Value("${cdk.substructure.timeout-ms:10000}") long timeoutMillis,
+            PipelineMetrics metrics) {
+        this.moleculeService = moleculeService;
+        this.index = index;
+        this.toolkit = toolkit;
+        this.metrics = metrics;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public SubstructureSearch search(String smiles, int limit, MatchListener listener) throws IOException {
+        PreparedMolecule prepared = moleculeService.prepare(smiles);
+        long[] screen = moleculeService.calculateFingerprint(prepared, FingerprintType.PATH);
+        IAtomContainer query;
+        try {
+            query = perceive(prepared.getParsed().clone());
+        } catch (CloneNotSupportedException | CDKException e) {
+            throw new RuntimeException("Error preparing query: " + e.getMessage(), e);
+        }
+
+        FingerprintIndex paths = index.get(FingerprintType.PATH);
+        SubstructureSearch search = new SubstructureSearch(smiles, paths.size());
+        long start = System.nanoTime();
+        Run run = new Run(limit, start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis), listener);
+        metrics.time("substructure-search", () -> {
+            paths.screen(screen, () -> {
+                // One pattern per thread; each holds the query prepared for matching
+                Pattern pattern = VentoFoggia.findSubstructure(query, AtomMatcher.forElement(),
+                        BondMatcher.forStrictOrder());
+                return (target, name, similarity) -> run.check(pattern, target, name, similarity);
+            }, index.getSearchers());
+            return null;
+        });
+        if (run.failure.get() != null) {
+            throw run.failure.get();
+        }
+
+        search.setCandidates(run.candidates.get());
+        search.setMatches(Math.min(run.matches.get(), limit));
+        search.setLimited(run.limited.get());
+        search.setTimedOut(run.timedOut.get());
+        search.setElapsedMs((System.nanoTime() - start) / 1_000_000);
+        search.setDone(true);
+        return search;
+    }
+
+    /**
+     * Apply the perception the path fingerprinter applies, so that matching sees
+     * the same aromatic bonds as the screen
+     */
+    private static IAtomContainer perceive(IAtomContainer molecule) throws CDKException {
+        AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(molecule);
+        FINGERPRINT_AROMATICITY.apply(molecule);
+        return molecule;
+    }
+
+    /**
+     * State of one search, shared by the threads screening its shards
+     */
+    private final class Run {
+        final int limit;
+        final long deadline;
+        final MatchListener listener;
+        final AtomicLong candidates = new AtomicLong();
+        final AtomicInteger matches = new AtomicInteger();
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final AtomicBoolean limited = new AtomicBoolean();
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+
+        Run(int limit, long deadline, MatchListener listener) {
+            this.limit = limit;
+            this.deadline = deadline;
+            this.listener = listener;
+        }
+
+        /**
+         * @return whether the search goes on
+         */
+        boolean check(Pattern pattern, String smiles, String name, double similarity) {
+            if (stopped.get()) {
+                return false;
+            }
+            if (System.nanoTime() > deadline) {
+                timedOut.set(true);
+                stopped.set(true);
+                return false;
+            }
+            candidates.incrementAndGet();
+            if (!contains(pattern, smiles)) {
+                return true;
+            }
+            if (matches.incrementAndGet() > limit) {
+                limited.set(true);
+                stopped.set(true);
+                return false;
+            }
+            try {
+                synchronized (listener) {
+                    listener.onMatch(new SimilarityHit(smiles, name, similarity));
+                }
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+                stopped.set(true);
+                return false;
+            }
+            return true;
+        }
+
+        private boolean contains(Pattern pattern, String smiles) {
+            try {
+                return pattern.matches(perceive(toolkit.parseSmiles(smiles)));
+            } catch (CDKException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -1,14 +1,24 @@
 package com.iwomi.cdkapp.util;
 
+import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
+import org.openscience.cdk.qsar.DescriptorEngine;
 import org.openscience.cdk.qsar.IDescriptor;
 import org.openscience.cdk.qsar.IMolecularDescriptor;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import com.iwomi.cdkapp.model.Descriptor;
@@ -44,8 +54,110 @@ public class CDKDescriptorLister {
         // Add more as needed...
     }
     
+    private static Map<String, String> descriptorDescriptions = new TreeMap<>();
+    
+    static {
+        // Map of descriptor class names to human-readable descriptions
+        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.ALOGPDescriptor", "Calculates Ghose-Crippen LogKow (octanol/water partition coefficient) and other descriptors related to molecular hydrophobicity");
+        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.APolDescriptor", "Sum of the atomic polarizabilities");
+        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.AcidicGroupCountDescriptor", "Returns the number of acidic groups in a molecule");
+        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.AromaticAtomsCountDescriptor", "Returns the number of aromatic atoms in a molecule");
+        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.AromaticBondsCountDescriptor", "Returns the number of aromatic bonds in a molecule");
+        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.AtomCountDescriptor", "Returns the number of atoms of a given element type in a molecule");
+        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.BCUTDescriptor", "Eigenvalue-based descriptor that reflects atomic properties relevant to intermolecular interactions");
+        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.BondCountDescriptor", "Returns the number of bonds of a certain bond order");
+        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.TPSADescriptor", "Calculation of topological polar surface area based on fragment contributions");
+        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.XLogPDescriptor", "Calculates the XLogP value for a molecule");
+        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.WeightDescriptor", "Calculates the molecular weight");
+        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.RotatableBondsCountDescriptor", "Returns the number of rotatable bonds in a molecule");
+        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.RuleOfFiveDescriptor", "Evaluates Lipinski's Rule of Five: molecular weight, logP, H-bond donors, H-bond acceptors");
+        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.HBondAcceptorCountDescriptor", "Returns the number of hydrogen bond acceptors in a molecule");
+        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.HBondDonorCountDescriptor", "Returns the number of hydrogen bond donors in a molecule");
+    }
+    
+    // Molecular descriptors exposed by the application, in display order
+    private static final String[] DESCRIPTOR_CLASSES = {
+        "org.openscience.cdk.qsar.descriptors.molecular.ALOGPDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.APolDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.AcidicGroupCountDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.AromaticAtomsCountDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.AromaticBondsCountDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.AtomCountDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.AutocorrelationDescriptorCharge",
+        "org.openscience.cdk.qsar.descriptors.molecular.AutocorrelationDescriptorMass",
+        "org.openscience.cdk.qsar.descriptors.molecular.AutocorrelationDescriptorPolarizability",
+        "org.openscience.cdk.qsar.descriptors.molecular.BasicGroupCountDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.BCUTDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.BondCountDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.BPol",
+        "org.openscience.cdk.qsar.descriptors.molecular.CarbonTypesDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.CPSADescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.ChiIndexUtils",
+        "org.openscience.cdk.qsar.descriptors.molecular.ChiPathClusterDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.ChiPathDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.EccentricConnectivityIndexDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.FMFDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.FragmentComplexityDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.HBondAcceptorCountDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.HBondDonorCountDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.KappaShapeIndicesDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.KierHallSmartsDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.LargestChainDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.LargestPiSystemDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.LengthOverBreadthDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.LongestAliphaticChainDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.MDEDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.MomentOfInertiaDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.PetitjeanNumberDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.PetitjeanShapeIndexDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.RotatableBondsCountDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.RuleOfFiveDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.SmallRingDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.TPSADescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.VAdjMaDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.WeightDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.WHIMDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.WienerNumbersDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.XLogPDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.ZagrebIndexDescriptor"
+    };
+    
+    // Descriptors of the list above that get the molecule with explicit hydrogens; all
+    // others give identical results on the hydrogen-suppressed molecule.
+    // FMF counts the hydrogens as atoms of the framework ratio (benzene: 0.5, not 1.0),
+    // and LargestPiSystem counts a lone double bond as 2 atoms only with them (C=C: 2,
+    // not 1), so both change value. APol and Weight sum per-atom terms, and differ only
+    // in the last bits of the sum when hydrogens are added implicitly; they are here to
+    // keep their values bit for bit, and a new descriptor like them need not be.
+    private static final Set<String> EXPLICIT_HYDROGEN_DESCRIPTORS = new HashSet<>(Arrays.asList(
+        "org.openscience.cdk.qsar.descriptors.molecular.APolDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.FMFDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.LargestPiSystemDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.WeightDescriptor"
+    ));
+    
+    // Descriptors of the list above that read atom coordinates (3D geometry)
+    private static final Set<String> COORDINATE_DESCRIPTORS = new HashSet<>(Arrays.asList(
+        "org.openscience.cdk.qsar.descriptors.molecular.CPSADescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.LengthOverBreadthDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.MomentOfInertiaDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.PetitjeanShapeIndexDescriptor",
+        "org.openscience.cdk.qsar.descriptors.molecular.WHIMDescriptor"
+    ));
+    
+    private final DescriptorRegistry registry;
+    
     public CDKDescriptorLister() {
-        // Default constructor
+        this(false);
+    }
+    
+    /**
+     * @param discover also register descriptors found through the CDK descriptor engine
+     *                 (service loader) that are not part of the default list
+     */
+    @Autowired
+    public CDKDescriptorLister(@Value("${cdk.descriptors.discover:false}") boolean discover) {
+        this.registry = buildRegistry(discover);
     }
     
     /**
@@ -53,70 +165,57 @@ public class CDKDescriptorLister {
      * @return A list of descriptor information
      */
     public List<Descriptor> getAllAvailableDescriptors() {
-        List<Descriptor> descriptors = new ArrayList<>();
+        return registry.getListing();
+    }
+    
+    /**
+     * Get the resolved descriptor registry built at startup
+     * @return the descriptor registry
+     */
+    public DescriptorRegistry getRegistry() {
+        return registry;
+    }
+    
+    /**
+     * Resolve every descriptor class once: load the class, keep its constructor and
+     * record its metadata, value names, groups and preparation requirements.
+     * Descriptors outside the default list get the full preparation (explicit
+     * hydrogens and coordinates), as their requirements are not known.
+     */
+    private DescriptorRegistry buildRegistry(boolean discover) {
+        List<DescriptorRegistry.Entry> entries = new ArrayList<>();
         
         try {
             logger.info("Collecting all available CDK descriptors...");
             
-            // Get all available molecular descriptors directly from the class path
-            String[] descriptorClasses = {
-                "org.openscience.cdk.qsar.descriptors.molecular.ALOGPDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.APolDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.AcidicGroupCountDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.AromaticAtomsCountDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.AromaticBondsCountDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.AtomCountDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.AutocorrelationDescriptorCharge",
-                "org.openscience.cdk.qsar.descriptors.molecular.AutocorrelationDescriptorMass",
-                "org.openscience.cdk.qsar.descriptors.molecular.AutocorrelationDescriptorPolarizability",
-                "org.openscience.cdk.qsar.descriptors.molecular.BasicGroupCountDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.BCUTDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.BondCountDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.BPol",
-                "org.openscience.cdk.qsar.descriptors.molecular.CarbonTypesDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.CPSADescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.ChiIndexUtils",
-                "org.openscience.cdk.qsar.descriptors.molecular.ChiPathClusterDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.ChiPathDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.EccentricConnectivityIndexDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.FMFDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.FragmentComplexityDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.HBondAcceptorCountDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.HBondDonorCountDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.KappaShapeIndicesDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.KierHallSmartsDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.LargestChainDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.LargestPiSystemDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.LengthOverBreadthDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.LongestAliphaticChainDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.MDEDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.MomentOfInertiaDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.PetitjeanNumberDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.PetitjeanShapeIndexDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.RotatableBondsCountDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.RuleOfFiveDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.SmallRingDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.TPSADescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.VAdjMaDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.WeightDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.WHIMDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.WienerNumbersDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.XLogPDescriptor",
-                "org.openscience.cdk.qsar.descriptors.molecular.ZagrebIndexDescriptor"
-            };
+            DescriptorEngine engine = new DescriptorEngine(IMolecularDescriptor.class,
+                    SilentChemObjectBuilder.getInstance());
+            List<String> knownClassNames = Arrays.asList(DESCRIPTOR_CLASSES);
+            Set<String> classNames = new LinkedHashSet<>(knownClassNames);
+            if (discover) {
+                classNames.addAll(discoverDescriptorClasses(engine));
+            }
             
-            for (String className : descriptorClasses) {
+            for (String className : classNames) {
                 try {
                     Class<?> descriptorClass = Class.forName(className);
-                    Object instance = descriptorClass.getDeclaredConstructor().newInstance();
-                    
-                    if (instance instanceof IMolecularDescriptor) {
-                        IMolecularDescriptor descriptor = (IMolecularDescriptor) instance;
-                        String descriptorName = getFriendlyDescriptorName(className);
-                        String description = getDescriptionFromDescriptor(descriptor);
-                        
-                        descriptors.add(new Descriptor(className, descriptorName, description, true));
+                    if (!IMolecularDescriptor.class.isAssignableFrom(descriptorClass)) {
+                        continue;
                     }
+                    
+                    Constructor<? extends IMolecularDescriptor> constructor = descriptorClass
+                            .asSubclass(IMolecularDescriptor.class).getDeclaredConstructor();
+                    IMolecularDescriptor descriptor = constructor.newInstance();
+                    String descriptorName = getFriendlyDescriptorName(className);
+                    String description = getDescriptionFromDescriptor(descriptor);
+                    String[] groups = getDescriptorGroups(engine, descriptor);
+                    boolean known = knownClassNames.contains(className);
+                    boolean explicitHydrogens = !known || EXPLICIT_HYDROGEN_DESCRIPTORS.contains(className);
+                    boolean coordinates = !known || COORDINATE_DESCRIPTORS.contains(className);
+                    
+                    entries.add(new DescriptorRegistry.Entry(className, descriptorName, description,
+                            descriptor.getDescriptorNames(), groups, explicitHydrogens, coordinates,
+                            constructor));
                 } catch (ClassNotFoundException e) {
                     logger.warn("Descriptor class not found: {}", className);
                 } catch (Exception e) {
@@ -124,12 +223,52 @@ public class CDKDescriptorLister {
                 }
             }
             
-            logger.info("Found {} available descriptors", descriptors.size());
+            logger.info("Found {} available descriptors", entries.size());
         } catch (Exception e) {
             logger.error("Error getting CDK descriptors", e);
         }
         
-        return descriptors;
+        return new DescriptorRegistry(entries);
+    }
+    
+    /**
+     * Find molecular descriptors registered with the CDK descriptor engine
+     * @param engine the descriptor engine
+     * @return the discovered class names
+     */
+    private List<String> discoverDescriptorClasses(DescriptorEngine engine) {
+        List<String> classNames = new ArrayList<>();
+        try {
+            for (IDescriptor descriptor : engine.getDescriptorInstances()) {
+                classNames.add(descriptor.getClass().getName());
+            }
+        } catch (Exception e) {
+            logger.warn("Descriptor discovery failed: {}", e.getMessage());
+        }
+        return classNames;
+    }
+    
+    /**
+     * Look up the groups of a descriptor in the CDK descriptor dictionary, e.g.
+     * "topologicalDescriptor" becomes "topological"
+     * @param engine the descriptor engine holding the dictionary
+     * @param descriptor the descriptor instance
+     * @return the group names, empty if the descriptor is not in the dictionary
+     */
+    private String[] getDescriptorGroups(DescriptorEngine engine, IDescriptor descriptor) {
+        try {
+            String[] groups = engine.getDictionaryClass(descriptor.getSpecification());
+            if (groups == null) {
+                return new String[0];
+            }
+            for (int i = 0; i < groups.length; i++) {
+                groups[i] = groups[i].replace("Descriptor", "").toLowerCase(Locale.ROOT);
+            }
+            return groups;
+        } catch (Exception e) {
+            logger.warn("Could not look up groups for {}", descriptor.getClass().getName());
+            return new String[0];
+        }
     }
     
     /**
@@ -161,24 +300,6 @@ public class CDKDescriptorLister {
      * @return A description string
      */
     private String getDescriptionFromDescriptor(IDescriptor descriptor) {
-        // Map of descriptor class names to human-readable descriptions
-        Map<String, String> descriptorDescriptions = new TreeMap<>();
-        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.ALOGPDescriptor", "Calculates Ghose-Crippen LogKow (octanol/water partition coefficient) and other descriptors related to molecular hydrophobicity");
-        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.APolDescriptor", "Sum of the atomic polarizabilities");
-        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.AcidicGroupCountDescriptor", "Returns the number of acidic groups in a molecule");
-        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.AromaticAtomsCountDescriptor", "Returns the number of aromatic atoms in a molecule");
-        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.AromaticBondsCountDescriptor", "Returns the number of aromatic bonds in a molecule");
-        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.AtomCountDescriptor", "Returns the number of atoms of a given element type in a molecule");
-        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.BCUTDescriptor", "Eigenvalue-based descriptor that reflects atomic properties relevant to intermolecular interactions");
-        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.BondCountDescriptor", "Returns the number of bonds of a certain bond order");
-        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.TPSADescriptor", "Calculation of topological polar surface area based on fragment contributions");
-        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.XLogPDescriptor", "Calculates the XLogP value for a molecule");
-        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.WeightDescriptor", "Calculates the molecular weight");
-        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.RotatableBondsCountDescriptor", "Returns the number of rotatable bonds in a molecule");
-        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.RuleOfFiveDescriptor", "Evaluates Lipinski's Rule of Five: molecular weight, logP, H-bond donors, H-bond acceptors");
-        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.HBondAcceptorCountDescriptor", "Returns the number of hydrogen bond acceptors in a molecule");
-        descriptorDescriptions.put("org.openscience.cdk.qsar.descriptors.molecular.HBondDonorCountDescriptor", "Returns the number of hydrogen bond donors in a molecule");
-        
         // Try to get description from the map
         String className = descriptor.getClass().getName();
         if (descriptorDescriptions.containsKey(className)) {
@@ -0,0 +1,296 @@
+package com.iwomi.cdkapp.util;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.openscience.cdk.aromaticity.Aromaticity;
+import org.openscience.cdk.aromaticity.Kekulization;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.exception.InvalidSmilesException;
+import org.openscience.cdk.fingerprint.CircularFingerprinter;
+import org.openscience.cdk.fingerprint.Fingerprinter;
+import org.openscience.cdk.fingerprint.MACCSFingerprinter;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+import org.openscience.cdk.interfaces.IDoubleBondStereochemistry;
+import org.openscience.cdk.interfaces.IStereoElement;
+import org.openscience.cdk.graph.Cycles;
+import org.openscience.cdk.graph.GraphUtil;
+import org.openscience.cdk.graph.invariant.Canon;
+import org.openscience.cdk.io.MDLV2000Reader;
+import org.openscience.cdk.io.MDLV2000Writer;
+import org.openscience.cdk.layout.StructureDiagramGenerator;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+import org.openscience.cdk.smiles.SmiFlavor;
+import org.openscience.cdk.smiles.SmilesGenerator;
+import org.openscience.cdk.smiles.SmilesParser;
+import org.openscience.cdk.stereo.DoubleBondStereochemistry;
+import org.springframework.stereotype.Component;
+
+/**
+ * Thread-confined CDK toolkit instances.
+ *
+ * SmilesParser, SmilesGenerator, StructureDiagramGenerator, MDLV2000Reader,
+ * MDLV2000Writer and the fingerprinters keep state between calls and must not be shared across request threads. Each
+ * worker thread gets its own instance of each, created on first use and reused
+ * afterwards.
+ */
+@Component
+public class CDKToolkitPool {
+
+    private final ThreadLocal<SmilesParser> smilesParsers =
+            ThreadLocal.withInitial(() -> new SmilesParser(SilentChemObjectBuilder.getInstance()));
+
+    private final ThreadLocal<SmilesGenerator> uniqueGenerators =
+            ThreadLocal.withInitial(() -> new SmilesGenerator(SmiFlavor.Unique));
+
+    private final ThreadLocal<SmilesGenerator> isomericGenerators =
+            ThreadLocal.withInitial(() -> new SmilesGenerator(SmiFlavor.Isomeric));
+
+    private final ThreadLocal<SmilesGenerator> aromaticGenerators =
+            ThreadLocal.withInitial(() -> new SmilesGenerator(SmiFlavor.Isomeric | SmiFlavor.UseAromaticSymbols));
+
+    // Daylight aromaticity, as written in SMILES; immutable and thread-safe
+    private static final Aromaticity SMILES_AROMATICITY =
+            new Aromaticity(Aromaticity.Model.Daylight, Cycles.or(Cycles.all(), Cycles.all(6)));
+
+    private final ThreadLocal<StructureDiagramGenerator> diagramGenerators =
+            ThreadLocal.withInitial(StructureDiagramGenerator::new);
+
+    private final ThreadLocal<MDLV2000Writer> molfileWriters =
+            ThreadLocal.withInitial(MDLV2000Writer::new);
+
+    private final ThreadLocal<MDLV2000Reader> molfileReaders =
+            ThreadLocal.withInitial(MDLV2000Reader::new);
+
+    private final ThreadLocal<CircularFingerprinter> ecfp4Fingerprinters =
+            ThreadLocal.withInitial(() -> new CircularFingerprinter(CircularFingerprinter.CLASS_ECFP4, 2048));
+
+    private final ThreadLocal<MACCSFingerprinter> maccsFingerprinters =
+            ThreadLocal.withInitial(MACCSFingerprinter::new);
+
+    private final ThreadLocal<Fingerprinter> pathFingerprinters =
+            ThreadLocal.withInitial(Fingerprinter::new);
+
+    /**
+     * Parse a SMILES string with the calling thread's parser
+     * @param smiles the SMILES string
+     * @return a new atom container
+     * @throws InvalidSmilesException if the SMILES cannot be parsed
+     */
+    public IAtomContainer parseSmiles(String smiles) throws InvalidSmilesException {
+        return smilesParsers.get().parseSmiles(smiles);
+    }
+
+    /**
+     * Write a molecule as isomeric SMILES with aromatic symbols, the way SMILES are
+     * usually submitted; aromaticity is perceived on the molecule in place
+     * @param molecule the molecule, e.g. read from a molfile
+     * @return the SMILES string
+     * @throws CDKException if aromaticity cannot be perceived or no SMILES can be generated
+     */
+    public String writeSmiles(IAtomContainer molecule) throws CDKException {
+        SMILES_AROMATICITY.apply(molecule);
+        return aromaticGenerators.get().create(molecule);
+    }
+
+    /**
+     * Create a canonical key for a molecule: equivalent inputs such as "OCC" and
+     * "CCO" give the same string. Canonical stereo SMILES (SmiFlavor.Absolute)
+     * needs the native cdk-inchi module, so molecules with stereo or isotopes get
+     * their isomeric SMILES appended; stereoisomers never share a key, at the cost
+     * of differently ordered inputs of the same stereoisomer not sharing one either.
+     * @param molecule the molecule
+     * @return the canonical key
+     * @throws CDKException if no SMILES can be generated
+     */
+    public String canonicalSmiles(IAtomContainer molecule) throws CDKException {
+        String unique = uniqueGenerators.get().create(molecule);
+        if (molecule.stereoElements().iterator().hasNext() || hasIsotopes(molecule)) {
+            return unique + " " + isomericGenerators.get().create(molecule);
+        }
+        return unique;
+    }
+
+    /**
+     * Copy a molecule into canonical order: atoms in the order of their canonical
+     * labels, bonds by their atoms' labels, each bond running from its lower to its
+     * higher labelled atom, and aromatic rings given their Kekulé structure afresh in
+     * that order. Layout, depiction and molfile follow atom and bond order, so
+     * equivalent inputs such as "OCC" and "CCO" give the same coordinates, image and
+     * molfile from their copies. Stereo is carried over unchanged.
+     * @param molecule the molecule; it is not modified
+     * @return the reordered copy, with aromatic flags as in the input
+     * @throws CDKException if aromaticity cannot be perceived or no Kekulé structure assigned
+     */
+    public IAtomContainer canonicalOrder(IAtomContainer molecule) throws CDKException {
+        IAtomContainer ordered;
+        try {
+            ordered = molecule.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new CDKException("Error copying molecule: " + e.getMessage(), e);
+        }
+        long[] labels = Canon.label(ordered, GraphUtil.toAdjList(ordered));
+        Integer[] order = new Integer[ordered.getAtomCount()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> labels[i]));
+        IAtom[] atoms = new IAtom[order.length];
+        int[] ranks = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            atoms[i] = ordered.getAtom(order[i]);
+            ranks[order[i]] = i;
+        }
+
+        IBond[] bonds = new IBond[ordered.getBondCount()];
+        Set<IBond> reversed = new HashSet<>();
+        for (int i = 0; i < bonds.length; i++) {
+            IBond bond = ordered.getBond(i);
+            if (ranks[bond.getBegin().getIndex()] > ranks[bond.getEnd().getIndex()]) {
+                bond.setAtoms(new IAtom[] {bond.getEnd(), bond.getBegin()});
+                reversed.add(bond);
+            }
+            bonds[i] = bond;
+        }
+        // Double bond stereo lists the ligand on the begin atom first
+        List<IStereoElement> stereo = new ArrayList<>();
+        for (IStereoElement element : ordered.stereoElements()) {
+            if (element instanceof IDoubleBondStereochemistry
+                    && reversed.contains(((IDoubleBondStereochemistry) element).getStereoBond())) {
+                IDoubleBondStereochemistry doubleBond = (IDoubleBondStereochemistry) element;
+                IBond[] ligands = doubleBond.getBonds();
+                element = new DoubleBondStereochemistry(doubleBond.getStereoBond(),
+                        new IBond[] {ligands[1], ligands[0]}, doubleBond.getStereo());
+            }
+            stereo.add(element);
+        }
+        ordered.setStereoElements(stereo);
+        Arrays.sort(bonds, Comparator.comparingInt((IBond bond) -> ranks[bond.getBegin().getIndex()])
+                .thenComparingInt(bond -> ranks[bond.getEnd().getIndex()]));
+        ordered.setAtoms(atoms);
+        ordered.setBonds(bonds);
+
+        // Which Kekulé structure a SMILES parser assigns depends on the input order;
+        // the aromatic flags are put back as parsed, since descriptors read them
+        boolean[] aromaticAtoms = new boolean[atoms.length];
+        for (int i = 0; i < atoms.length; i++) {
+            aromaticAtoms[i] = atoms[i].isAromatic();
+        }
+        boolean[] aromaticBonds = new boolean[bonds.length];
+        for (int i = 0; i < bonds.length; i++) {
+            aromaticBonds[i] = bonds[i].isAromatic();
+        }
+        SMILES_AROMATICITY.apply(ordered);
+        for (IBond bond : ordered.bonds()) {
+            if (bond.isAromatic()) {
+                bond.setOrder(IBond.Order.UNSET);
+            }
+        }
+        Kekulization.kekulize(ordered);
+        for (int i = 0; i < aromaticAtoms.length; i++) {
+            ordered.getAtom(i).setIsAromatic(aromaticAtoms[i]);
+        }
+        for (int i = 0; i < aromaticBonds.length; i++) {
+            ordered.getBond(i).setIsAromatic(aromaticBonds[i]);
+        }
+        return ordered;
+    }
+
+    private static boolean hasIsotopes(IAtomContainer molecule) {
+        for (IAtom atom : molecule.atoms()) {
+            if (atom.getMassNumber() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Generate 2D coordinates in place with the calling thread's layout generator
+     * @param molecule the molecule to lay out
+     * @return the same molecule, now with 2D coordinates
+     * @throws CDKException if the layout fails
+     */
+    public IAtomContainer generateCoordinates(IAtomContainer molecule) throws CDKException {
+        diagramGenerators.get().generateCoordinates(molecule);
+        return molecule;
+    }
+
+    /**
+     * Read an MDL V2000 molfile, such as one SD file record, with the calling thread's reader
+     * @param molfile the molfile text, up to and including "M  END"
+     * @return a new atom container, titled with the molfile's header line
+     * @throws CDKException if the molfile cannot be read
+     */
+    public IAtomContainer readMolfile(String molfile) throws CDKException {
+        MDLV2000Reader reader = molfileReaders.get();
+        reader.setReader(new StringReader(molfile));
+        return reader.read(SilentChemObjectBuilder.getInstance().newAtomContainer());
+    }
+
+    /**
+     * Calculate the 2048 bit ECFP4 fingerprint of a molecule with the calling thread's fingerprinter
+     * @param molecule the molecule, with implicit hydrogen counts; it is not modified
+     * @return the set bits
+     * @throws CDKException if the fingerprint cannot be calculated
+     */
+    public BitSet ecfp4Fingerprint(IAtomContainer molecule) throws CDKException {
+        return ecfp4Fingerprinters.get().getBitFingerprint(molecule).asBitSet();
+    }
+
+    /**
+     * Calculate the 166 bit MACCS keys of a molecule with the calling thread's fingerprinter
+     * @param molecule the molecule, with implicit hydrogen counts; ring and aromaticity
+     *                 flags are perceived on it in place
+     * @return the set bits
+     * @throws CDKException if the fingerprint cannot be calculated
+     */
+    public BitSet maccsFingerprint(IAtomContainer molecule) throws CDKException {
+        return maccsFingerprinters.get().getBitFingerprint(molecule).asBitSet();
+    }
+
+    /**
+     * Calculate the 1024 bit hashed path fingerprint of a molecule with the calling
+     * thread's fingerprinter
+     * @param molecule the molecule, with implicit hydrogen counts; atom types and CDK
+     *                 legacy aromaticity are perceived on it in place
+     * @return the set bits
+     * @throws CDKException if the fingerprint cannot be calculated
+     */
+    public BitSet pathFingerprint(IAtomContainer molecule) throws CDKException {
+        return pathFingerprinters.get().getBitFingerprint(molecule).asBitSet();
+    }
+
+    /**
+     * Write a molecule as an MDL V2000 molfile with the calling thread's writer
+     * @param molecule the molecule to write
+     * @return the molfile text
+     * @throws CDKException if the molecule cannot be written
+     */
+    public String writeMolfile(IAtomContainer molecule) throws CDKException {
+        StringWriter out = new StringWriter();
+        MDLV2000Writer writer = molfileWriters.get();
+        writer.setWriter(out);
+        try {
+            writer.write(molecule);
+        } finally {
+            try {
+                // Flushes into the StringWriter; the writer itself stays reusable
+                writer.close();
+            } catch (IOException e) {
+                throw new CDKException("Error closing molfile writer: " + e.getMessage(), e);
+            }
+        }
+        return out.toString();
+    }
+}
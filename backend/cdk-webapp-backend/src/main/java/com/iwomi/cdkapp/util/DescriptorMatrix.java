@@ -0,0 +1,154 @@
+package com.iwomi.cdkapp.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reader of descriptor matrix files: a molecule-by-column matrix of float64
+ * values stored column by column, so a column can be memory-mapped and read in
+ * place.
+ *
+ * Layout, all integers little-endian:
+ * <pre>
+ *   0  magic "CDKMTX" 0x00 0x01
+ *   8  int64  number of rows (molecules, in input order)
+ *  16  int32  number of columns
+ *  20  int32  length of the schema in bytes
+ *  24  schema, UTF-8 JSON: {"rows", "columns": [names], "descriptors": [{"id", "offset", "width"}],
+ *                           "dtype": "&lt;f8", "order": "column-major", "dataOffset"}
+ *      zero padding up to dataOffset, a multiple of 64
+ *      column 0 (rows float64 values), column 1, ...
+ * </pre>
+ * Values that could not be calculated, and all values of molecules that failed,
+ * are NaN. In numpy: {@code np.memmap(path, dtype='<f8', mode='r', offset=dataOffset,
+ * shape=(columns, rows))}.
+ */
+public final class DescriptorMatrix implements Closeable {
+
+    public static final byte[] MAGIC = { 'C', 'D', 'K', 'M', 'T', 'X', 0, 1 };
+    public static final int PREFIX_BYTES = 24;
+    public static final int ALIGNMENT = 64;
+
+    private final FileChannel channel;
+    private final long rows;
+    private final List<String> columns;
+    private final long dataOffset;
+
+    private DescriptorMatrix(FileChannel channel, long rows, List<String> columns, long dataOffset) {
+        this.channel = channel;
+        this.rows = rows;
+        this.columns = columns;
+        this.dataOffset = dataOffset;
+    }
+
+    /**
+     * @param file a descriptor matrix file
+     * @return the opened matrix; close it when done, mapped columns stay readable
+     * @throws IOException if the file cannot be read or is not a descriptor matrix
+     */
+    public static DescriptorMatrix open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer prefix = ByteBuffer.allocate(PREFIX_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, prefix, 0);
+            byte[] magic = new byte[MAGIC.length];
+            prefix.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a descriptor matrix file: " + file);
+            }
+            long rows = prefix.getLong();
+            int columnCount = prefix.getInt();
+            int schemaLength = prefix.getInt();
+
+            ByteBuffer schema = ByteBuffer.allocate(schemaLength);
+            readFully(channel, schema, PREFIX_BYTES);
+            JsonNode json = new ObjectMapper().readTree(new String(schema.array(), StandardCharsets.UTF_8));
+            String[] columns = new String[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                columns[i] = json.get("columns").get(i).asText();
+            }
+            return new DescriptorMatrix(channel, rows, Collections.unmodifiableList(Arrays.asList(columns)),
+                    dataOffset(schemaLength));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param schemaLength length of the JSON schema in bytes
+     * @return the offset of the first column, past the schema and its padding
+     */
+    public static long dataOffset(int schemaLength) {
+        long end = PREFIX_BYTES + (long) schemaLength;
+        return (end + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated descriptor matrix file");
+            }
+        }
+        buffer.flip();
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Map one column read-only; values are read straight from the page cache
+     * @param index the column index
+     * @return the column's values, one per row
+     * @throws IOException if the column cannot be mapped
+     */
+    public DoubleBuffer getColumn(int index) throws IOException {
+        if (index < 0 || index >= columns.size()) {
+            throw new IndexOutOfBoundsException("Column " + index + " of " + columns.size());
+        }
+        long bytes = rows * Double.BYTES;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("Column too large to map: " + rows + " rows");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + index * bytes, bytes)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asDoubleBuffer();
+    }
+
+    /**
+     * @param name a column name
+     * @return the column's values, one per row
+     * @throws IllegalArgumentException if there is no such column
+     * @throws IOException if the column cannot be mapped
+     */
+    public DoubleBuffer getColumn(String name) throws IOException {
+        int index = columns.indexOf(name);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown column: " + name);
+        }
+        return getColumn(index);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
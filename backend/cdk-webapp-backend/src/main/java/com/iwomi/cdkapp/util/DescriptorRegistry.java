@@ -0,0 +1,371 @@
+package com.iwomi.cdkapp.util;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.openscience.cdk.qsar.IMolecularDescriptor;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+
+import com.iwomi.cdkapp.model.Descriptor;
+
+/**
+ * Immutable, pre-resolved view of the molecular descriptors available to the
+ * application. Built once by {@link CDKDescriptorLister} so that request
+ * handling never has to go through {@code Class.forName} again.
+ *
+ * A request that only needs some descriptors works on a selection: a smaller
+ * registry holding just those entries, see {@link #select(Collection)}.
+ *
+ * The registry also defines the column schema of numeric descriptor vectors: the
+ * value names of every entry, in registry order, one column per value.
+ */
+public final class DescriptorRegistry {
+
+    private final Entry[] entries;
+    private final int[] offsets;
+    private final List<String> columns;
+    private final List<Descriptor> listing;
+    private final String key;
+    private final boolean explicitHydrogens;
+    private final boolean implicitHydrogens;
+    private final boolean coordinates;
+
+    DescriptorRegistry(List<Entry> entries) {
+        this(entries, "");
+    }
+
+    private DescriptorRegistry(List<Entry> entries, String key) {
+        this.entries = entries.toArray(new Entry[0]);
+        this.key = key;
+
+        boolean explicitHydrogens = false;
+        boolean implicitHydrogens = false;
+        boolean coordinates = false;
+        for (Entry entry : this.entries) {
+            explicitHydrogens |= entry.requiresExplicitHydrogens();
+            implicitHydrogens |= !entry.requiresExplicitHydrogens();
+            coordinates |= entry.requiresCoordinates();
+        }
+        this.explicitHydrogens = explicitHydrogens;
+        this.implicitHydrogens = implicitHydrogens;
+        this.coordinates = coordinates;
+
+        this.offsets = new int[this.entries.length + 1];
+        List<String> columns = new ArrayList<>();
+        Set<String> used = new HashSet<>();
+        for (int i = 0; i < this.entries.length; i++) {
+            Entry entry = this.entries[i];
+            offsets[i] = columns.size();
+            for (int j = 0; j < entry.getDescriptorNameCount(); j++) {
+                String column = entry.getDescriptorName(j);
+                if (!used.add(column)) {
+                    // Value names are unique across the default descriptors; qualify clashes
+                    // from discovered ones so every column name stays unique
+                    column = entry.getSimpleName() + "." + column;
+                    used.add(column);
+                }
+                columns.add(column);
+            }
+        }
+        offsets[this.entries.length] = columns.size();
+        this.columns = Collections.unmodifiableList(columns);
+
+        List<Descriptor> descriptors = new ArrayList<>(entries.size());
+        for (Entry entry : this.entries) {
+            descriptors.add(new Descriptor(entry.getClassName(), entry.getName(), entry.getDescription(), true));
+        }
+        this.listing = Collections.unmodifiableList(descriptors);
+    }
+
+    /**
+     * @return the number of registered descriptors
+     */
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * @param index position of the descriptor in the registry
+     * @return the registry entry at the given position
+     */
+    public Entry get(int index) {
+        return entries[index];
+    }
+
+    /**
+     * Find the position of an entry in this registry
+     * @param entry an entry of this registry or of the registry it was selected from
+     * @return its index, or -1 if it is not part of this registry
+     */
+    public int indexOf(Entry entry) {
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i] == entry) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of columns of a descriptor vector over this registry
+     */
+    public int getColumnCount() {
+        return offsets[entries.length];
+    }
+
+    /**
+     * @param index position of the descriptor in the registry
+     * @return the first vector column of that descriptor; its columns run up to the
+     *         offset of the next one
+     */
+    public int getColumnOffset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * @return the vector column names, in column order
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Look up an entry by its fully qualified class name
+     * @param className the descriptor class name
+     * @return the entry, or null if the class is not registered
+     */
+    public Entry find(String className) {
+        for (Entry entry : entries) {
+            if (entry.getClassName().equals(className)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the descriptor listing exposed through the API, in registry order
+     */
+    public List<Descriptor> getListing() {
+        return listing;
+    }
+
+    /**
+     * @return a key identifying this selection, for use in cache keys; empty for
+     *         the full registry
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return whether any descriptor needs the molecule with explicit hydrogens
+     */
+    public boolean requiresExplicitHydrogens() {
+        return explicitHydrogens;
+    }
+
+    /**
+     * @return whether any descriptor works on the molecule with hydrogens left implicit
+     */
+    public boolean usesImplicitHydrogens() {
+        return implicitHydrogens;
+    }
+
+    /**
+     * @return whether any descriptor reads atom coordinates
+     */
+    public boolean requiresCoordinates() {
+        return coordinates;
+    }
+
+    /**
+     * Resolve a descriptor selection to the entries it names, in registry order.
+     * A name matches, in order of precedence: a descriptor by class name, simple
+     * class name with or without the "Descriptor" suffix, or display name; the
+     * descriptors producing a value of that name (e.g. "TopoPSA", "nRotB"); the
+     * descriptors of a group (e.g. "topological"). Matching ignores case.
+     * @param names the selection; null or empty selects every descriptor
+     * @return this registry if everything is selected, otherwise a registry holding
+     *         only the selected entries
+     * @throws IllegalArgumentException if a name matches no descriptor
+     */
+    public DescriptorRegistry select(Collection<String> names) {
+        if (names == null || names.isEmpty()) {
+            return this;
+        }
+
+        boolean[] selected = new boolean[entries.length];
+        for (String name : names) {
+            String token = normalize(name);
+            if (token.isEmpty()) {
+                continue;
+            }
+            boolean found = false;
+            for (int level = 0; level < Entry.MATCH_LEVELS && !found; level++) {
+                for (int i = 0; i < entries.length; i++) {
+                    if (entries[i].matches(token, level)) {
+                        selected[i] = true;
+                        found = true;
+                    }
+                }
+            }
+            if (!found) {
+                throw new IllegalArgumentException("Unknown descriptor: " + name.trim());
+            }
+        }
+
+        List<Entry> subset = new ArrayList<>();
+        StringBuilder subsetKey = new StringBuilder();
+        for (int i = 0; i < entries.length; i++) {
+            if (selected[i]) {
+                subset.add(entries[i]);
+                subsetKey.append(subsetKey.length() > 0 ? "," : "").append(i);
+            }
+        }
+        if (subset.size() == entries.length) {
+            return this;
+        }
+        return new DescriptorRegistry(subset, subsetKey.toString());
+    }
+
+    private static String normalize(String name) {
+        String token = name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+        // Accept the common adjective for the CDK "geometrical" group
+        return "geometric".equals(token) ? "geometrical" : token;
+    }
+
+    /**
+     * A single resolved descriptor: its metadata plus a factory for fresh instances.
+     * CDK descriptors keep per-calculation state, so each calculation gets its own instance.
+     */
+    public static final class Entry {
+
+        static final int MATCH_LEVELS = 3;
+
+        private final String className;
+        private final String name;
+        private final String description;
+        private final String[] descriptorNames;
+        private final List<String> groups;
+        private final boolean explicitHydrogens;
+        private final boolean coordinates;
+        private final Constructor<? extends IMolecularDescriptor> constructor;
+
+        Entry(String className, String name, String description, String[] descriptorNames,
+                String[] groups, boolean explicitHydrogens, boolean coordinates,
+                Constructor<? extends IMolecularDescriptor> constructor) {
+            this.className = className;
+            this.name = name;
+            this.description = description;
+            this.descriptorNames = descriptorNames.clone();
+            this.groups = Collections.unmodifiableList(Arrays.asList(groups.clone()));
+            this.explicitHydrogens = explicitHydrogens;
+            this.coordinates = coordinates;
+            this.constructor = constructor;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the class name without its package
+         */
+        public String getSimpleName() {
+            return className.substring(className.lastIndexOf('.') + 1);
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * @return the number of values this descriptor produces
+         */
+        public int getDescriptorNameCount() {
+            return descriptorNames.length;
+        }
+
+        /**
+         * @param index value position within this descriptor's result
+         * @return the CDK name of that value (e.g. "XLogP", "BCUTw-1l")
+         */
+        public String getDescriptorName(int index) {
+            return descriptorNames[index];
+        }
+
+        /**
+         * @return the descriptor groups from the CDK descriptor dictionary
+         *         (constitutional, topological, geometrical, electronic, hybrid)
+         */
+        public List<String> getGroups() {
+            return groups;
+        }
+
+        /**
+         * @return whether this descriptor gives different values unless hydrogens
+         *         are explicit atoms
+         */
+        public boolean requiresExplicitHydrogens() {
+            return explicitHydrogens;
+        }
+
+        /**
+         * @return whether this descriptor reads atom coordinates
+         */
+        public boolean requiresCoordinates() {
+            return coordinates;
+        }
+
+        /**
+         * Match a lower-case selection token against this entry: level 0 is the
+         * descriptor itself, level 1 its value names, level 2 its groups
+         */
+        boolean matches(String token, int level) {
+            switch (level) {
+                case 0:
+                    String simpleName = getSimpleName();
+                    return className.equalsIgnoreCase(token)
+                            || simpleName.equalsIgnoreCase(token)
+                            || simpleName.equalsIgnoreCase(token + "descriptor")
+                            || name.equalsIgnoreCase(token);
+                case 1:
+                    for (String descriptorName : descriptorNames) {
+                        if (descriptorName.equalsIgnoreCase(token)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                default:
+                    return groups.contains(token);
+            }
+        }
+
+        /**
+         * Create a new, independent and initialised descriptor instance
+         * @return the descriptor
+         */
+        public IMolecularDescriptor newInstance() {
+            try {
+                IMolecularDescriptor descriptor = constructor.newInstance();
+                // Some descriptors (acidic and basic group counts) refuse to run uninitialised
+                descriptor.initialise(SilentChemObjectBuilder.getInstance());
+                return descriptor;
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Cannot instantiate descriptor " + className, e);
+            }
+        }
+    }
+}
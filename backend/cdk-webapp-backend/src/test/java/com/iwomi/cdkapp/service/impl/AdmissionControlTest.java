@@ -0,0 +1,164 @@
+package com.iwomi.cdkapp.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openscience.cdk.exception.InvalidSmilesException;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+import org.openscience.cdk.smiles.SmilesParser;
+
+import com.iwomi.cdkapp.service.MoleculeRejectedException;
+import com.iwomi.cdkapp.util.CDKDescriptorLister;
+import com.iwomi.cdkapp.util.DescriptorRegistry;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Molecule costs must count rings, the heavy, degrade and maximum costs must be
+ * applied from their thresholds on, and heavy molecules beyond the heavy lane and
+ * its queue must be refused rather than left waiting.
+ */
+public class AdmissionControlTest {
+
+    // Benzene costs 6 + 6 + 8 = 20, naphthalene 10 + 11 + 16 = 37, anthracene 14 + 16 + 24 = 54
+    private static final int HEAVY_COST = 20;
+    private static final int DEGRADE_COST = 37;
+    private static final int MAX_COST = 40;
+
+    private final SmilesParser parser = new SmilesParser(SilentChemObjectBuilder.getInstance());
+    private CDKDescriptorLister descriptorLister;
+    private SimpleMeterRegistry registry;
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void setUp() {
+        descriptorLister = new CDKDescriptorLister();
+        registry = new SimpleMeterRegistry();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private AdmissionControl admission(int queueCapacity, long waitMillis) {
+        return new AdmissionControl(descriptorLister, HEAVY_COST, DEGRADE_COST, MAX_COST, 1, queueCapacity,
+                waitMillis, "ChiPathDescriptor", new PipelineMetrics(registry));
+    }
+
+    private int admit(AdmissionControl admission, String smiles) throws InvalidSmilesException {
+        return admission.admit(parser.parseSmiles(smiles));
+    }
+
+    @Test
+    public void costCountsAtomsBondsAndRings() throws InvalidSmilesException {
+        AdmissionControl admission = admission(8, 30000);
+        assertEquals(3 + 2, admit(admission, "CCO"));
+        assertEquals(6 + 6 + 8, admit(admission, "c1ccccc1"));
+        assertEquals(10 + 11 + 2 * 8, admit(admission, "c1ccc2ccccc2c1"));
+        // Spiro: two rings sharing an atom
+        assertEquals(10 + 11 + 2 * 8, admit(admission, "C1CCC2(CC1)OCCO2"));
+        // Disconnected components are not rings
+        assertEquals(3 + 2 + 6 + 6 + 8, admit(admission, "CCO.c1ccccc1"));
+    }
+
+    @Test
+    public void thresholdsApplyFromTheirCostOn() throws InvalidSmilesException {
+        AdmissionControl admission = admission(8, 30000);
+        assertFalse(admission.isHeavy(HEAVY_COST - 1));
+        assertTrue(admission.isHeavy(HEAVY_COST));
+        assertFalse(admission.isDegraded(DEGRADE_COST - 1));
+        assertTrue(admission.isDegraded(DEGRADE_COST));
+
+        DescriptorRegistry.Entry expensive = descriptorLister.getRegistry()
+                .select(Collections.singletonList("ChiPathDescriptor")).get(0);
+        DescriptorRegistry.Entry cheap = descriptorLister.getRegistry()
+                .select(Collections.singletonList("WeightDescriptor")).get(0);
+        assertNull(admission.skipReason(DEGRADE_COST - 1, expensive));
+        assertNotNull(admission.skipReason(DEGRADE_COST, expensive));
+        assertNull(admission.skipReason(DEGRADE_COST, cheap));
+
+        assertEquals(DEGRADE_COST, admit(admission, "c1ccc2ccccc2c1"));
+        assertThrows(IllegalArgumentException.class, () -> admit(admission, "c1ccc2cc3ccccc3cc2c1"));
+        assertEquals(1, registry.get(PipelineMetrics.ADMISSION_DECISIONS).tag("decision", "degraded").counter()
+                .count());
+        assertEquals(1, registry.get(PipelineMetrics.ADMISSION_DECISIONS).tag("decision", "too-large").counter()
+                .count());
+    }
+
+    @Test
+    public void heavyMoleculesBeyondTheQueueAreRejected() throws Exception {
+        AdmissionControl admission = admission(1, 30000);
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> running = executor.submit(() -> admission.run(HEAVY_COST, () -> {
+            holding.countDown();
+            // Nested steps of a heavy molecule do not queue behind it
+            admission.run(HEAVY_COST, () -> null);
+            await(release);
+            return "running";
+        }));
+        assertTrue(holding.await(10, TimeUnit.SECONDS));
+        Future<String> queued = executor.submit(() -> admission.run(HEAVY_COST, () -> "queued"));
+        awaitWaiting(1);
+
+        assertThrows(MoleculeRejectedException.class, () -> admission.run(HEAVY_COST, () -> "rejected"));
+        // Light molecules never wait for the heavy lane
+        assertEquals("light", admission.run(HEAVY_COST - 1, () -> "light"));
+
+        release.countDown();
+        assertEquals("running", running.get(10, TimeUnit.SECONDS));
+        assertEquals("queued", queued.get(10, TimeUnit.SECONDS));
+        assertEquals("free", admission.run(HEAVY_COST, () -> "free"));
+    }
+
+    @Test
+    public void heavyMoleculesWaitingTooLongAreRejected() throws Exception {
+        AdmissionControl admission = admission(8, 50);
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> running = executor.submit(() -> admission.run(HEAVY_COST, () -> {
+            holding.countDown();
+            await(release);
+            return "running";
+        }));
+        assertTrue(holding.await(10, TimeUnit.SECONDS));
+
+        assertThrows(MoleculeRejectedException.class, () -> admission.run(HEAVY_COST, () -> "timed out"));
+        assertEquals(0, registry.get("cdk.admission.heavy.waiting").gauge().value());
+        release.countDown();
+        assertEquals("running", running.get(10, TimeUnit.SECONDS));
+    }
+
+    private void awaitWaiting(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (registry.get("cdk.admission.heavy.waiting").gauge().value() != count) {
+            assertTrue(System.nanoTime() < deadline, "No molecule waiting for the heavy lane");
+            Thread.sleep(1);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.iwomi.cdkapp.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.iwomi.cdkapp.model.Descriptor;
+import com.iwomi.cdkapp.util.CDKDescriptorLister;
+import com.iwomi.cdkapp.util.CDKToolkitPool;
+import com.iwomi.cdkapp.util.DescriptorRegistry;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Golden values: descriptor results must not change with how the molecule is
+ * prepared for them, nor with which other descriptors are selected alongside.
+ */
+public class DescriptorGoldenValuesTest {
+
+    private static final String GOLDEN_VALUES = "/golden/descriptors.tsv";
+
+    // Values by descriptor simple name, by SMILES
+    private Map<String, Map<String, String>> golden;
+    private CDKDescriptorLister descriptorLister;
+    private ParallelDescriptorCalculator calculator;
+    private MoleculeServiceImpl service;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        golden = readGoldenValues();
+        // Generous budgets and no caching, so every value is calculated
+        PipelineMetrics metrics = new PipelineMetrics(new SimpleMeterRegistry());
+        calculator = new ParallelDescriptorCalculator(4, 600000, 1200000, 1, metrics);
+        descriptorLister = new CDKDescriptorLister();
+        MoleculeStore store = new MoleculeStore(false, null, 0, metrics);
+        service = new MoleculeServiceImpl(new CDKToolkitPool(), descriptorLister, calculator,
+                new MoleculeRenderer(metrics), new MoleculeCache(0, 0, 0, 0), store,
+                new DescriptorTable(descriptorLister, store, "", metrics),
+                new AdmissionControl(descriptorLister, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 1, 0, 0,
+                        "", metrics), metrics);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        calculator.shutdown();
+    }
+
+    @Test
+    public void allDescriptorsMatchGoldenValues() {
+        List<String> mismatches = new ArrayList<>();
+        for (Map.Entry<String, Map<String, String>> molecule : golden.entrySet()) {
+            compare(molecule.getKey(), null, molecule.getValue(), mismatches);
+        }
+        assertEquals(new ArrayList<>(), mismatches);
+    }
+
+    /**
+     * Descriptors needing explicit hydrogens and those working on the hydrogen-suppressed
+     * graph get different preparations; selected on their own, each group must still
+     * give the values of the full selection
+     */
+    @Test
+    public void hydrogenVariantsMatchGoldenValues() {
+        DescriptorRegistry registry = descriptorLister.getRegistry();
+        List<String> explicitHydrogens = new ArrayList<>();
+        List<String> implicitHydrogens = new ArrayList<>();
+        for (int i = 0; i < registry.size(); i++) {
+            DescriptorRegistry.Entry entry = registry.get(i);
+            (entry.requiresExplicitHydrogens() ? explicitHydrogens : implicitHydrogens).add(entry.getClassName());
+        }
+        assertFalse(explicitHydrogens.isEmpty());
+        assertFalse(implicitHydrogens.isEmpty());
+
+        List<String> mismatches = new ArrayList<>();
+        for (Map.Entry<String, Map<String, String>> molecule : golden.entrySet()) {
+            compare(molecule.getKey(), explicitHydrogens, molecule.getValue(), mismatches);
+            compare(molecule.getKey(), implicitHydrogens, molecule.getValue(), mismatches);
+        }
+        assertEquals(new ArrayList<>(), mismatches);
+    }
+
+    private void compare(String smiles, List<String> selection, Map<String, String> expected, List<String> mismatches) {
+        for (Descriptor descriptor : service.calculateDescriptors(service.prepare(smiles), selection)) {
+            String name = descriptor.getId().substring(descriptor.getId().lastIndexOf('.') + 1);
+            if (!descriptor.getValue().equals(expected.get(name))) {
+                mismatches.add(smiles + " " + name + ": " + descriptor.getValue() + ", expected " + expected.get(name));
+            }
+        }
+    }
+
+    private static Map<String, Map<String, String>> readGoldenValues() throws IOException {
+        Map<String, Map<String, String>> values = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                DescriptorGoldenValuesTest.class.getResourceAsStream(GOLDEN_VALUES), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t", 3);
+                values.computeIfAbsent(fields[0], smiles -> new LinkedHashMap<>()).put(fields[1], fields[2]);
+            }
+        }
+        return values;
+    }
+}
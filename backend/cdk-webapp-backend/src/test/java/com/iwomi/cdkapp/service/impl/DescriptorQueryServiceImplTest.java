@@ -0,0 +1,112 @@
+package com.iwomi.cdkapp.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.iwomi.cdkapp.model.DescriptorHit;
+import com.iwomi.cdkapp.model.DescriptorQuery;
+import com.iwomi.cdkapp.util.CDKDescriptorLister;
+import com.iwomi.cdkapp.util.DescriptorRegistry;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Filters must be read into the intended bounds, open bounds must exclude their
+ * endpoint, and molecules without a value in a column must never match on it.
+ */
+public class DescriptorQueryServiceImplTest {
+
+    private DescriptorRegistry registry;
+    private DescriptorTable table;
+    private DescriptorQueryServiceImpl service;
+
+    @BeforeEach
+    public void setUp() {
+        PipelineMetrics metrics = new PipelineMetrics(new SimpleMeterRegistry());
+        CDKDescriptorLister descriptorLister = new CDKDescriptorLister();
+        registry = descriptorLister.getRegistry();
+        MoleculeStore store = new MoleculeStore(false, null, 0, metrics);
+        table = new DescriptorTable(descriptorLister, store, "MW,nRotB", metrics);
+        service = new DescriptorQueryServiceImpl(table, store, metrics);
+
+        add("A", 100, 1);
+        add("B", 300, 5);
+        add("C", 500, 10);
+        // Weight was never calculated for D
+        add("D", Double.NaN, 3);
+    }
+
+    private void add(String smiles, double weight, double rotatableBonds) {
+        double[] values = new double[registry.getColumnCount()];
+        Arrays.fill(values, Double.NaN);
+        values[registry.getColumns().indexOf("MW")] = weight;
+        values[registry.getColumns().indexOf("nRotB")] = rotatableBonds;
+        int count = registry.size();
+        table.add(smiles, smiles, DescriptorValues.of(registry, values, new DescriptorResult.Status[count],
+                new String[count], new DescriptorValues.Kind[count], new int[count]));
+    }
+
+    private List<String> smiles(String filter) {
+        List<String> smiles = new ArrayList<>();
+        for (DescriptorHit hit : service.query(filter, 100).getHits()) {
+            smiles.add(hit.getSmiles());
+        }
+        return smiles;
+    }
+
+    @Test
+    public void operatorsGiveOpenAndClosedBounds() {
+        assertEquals(List.of("A"), smiles("MW<300"));
+        assertEquals(List.of("A", "B"), smiles("MW<=300"));
+        assertEquals(List.of("C"), smiles("MW>300"));
+        assertEquals(List.of("B", "C"), smiles("MW>=300"));
+        assertEquals(List.of("B"), smiles("MW=300"));
+        assertEquals(List.of("A", "B"), smiles("MW=100..300"));
+        assertEquals(List.of(), smiles("MW>100,MW<300"));
+    }
+
+    @Test
+    public void conditionsOnOneColumnNarrowToTheTightestBounds() {
+        DescriptorQuery query = service.query("MW>=100, MW<=500, MW<500, MW>100", 100);
+        assertEquals(List.of("100.0 < MW < 500.0"), query.getConditions());
+        assertEquals(1, query.getMatches());
+        assertEquals(List.of("A", "B"), smiles("MW>=100,MW<=500,MW<400"));
+        assertEquals(List.of("C"), smiles("MW>100,nRotB>=10"));
+    }
+
+    @Test
+    public void rowsWithoutAValueNeverMatchOnItsColumn() {
+        assertEquals(List.of("A", "B", "C"), smiles("MW>=-1e308"));
+        assertEquals(List.of("A", "D"), smiles("nRotB<=3"));
+        assertEquals(List.of("A"), smiles("nRotB<=3,MW<1e9"));
+    }
+
+    @Test
+    public void allMatchesAreCountedBeyondTheLimit() {
+        DescriptorQuery query = service.query("nRotB>0", 2);
+        assertEquals(4, query.getRows());
+        assertEquals(4, query.getMatches());
+        assertEquals(2, query.getHits().size());
+        assertEquals(3, service.query("MW>0", 0).getMatches());
+    }
+
+    @Test
+    public void columnNamesIgnoreCaseAndSpaces() {
+        assertEquals(List.of("B", "C"), smiles(" mw >= 300 "));
+    }
+
+    @Test
+    public void unreadableFiltersAreRejected() {
+        for (String filter : new String[] { "", " , ", "MW", "MW 300", ">300", "XLogP<5", "MW<abc", "MW>NaN",
+                "MW=100..", "MW<=" }) {
+            assertThrows(IllegalArgumentException.class, () -> service.query(filter, 10), filter);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.iwomi.cdkapp.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.iwomi.cdkapp.model.SimilarityHit;
+
+/**
+ * The pruned, sharded search must find the same top hits as comparing the query
+ * with every indexed fingerprint.
+ */
+public class FingerprintIndexTest {
+
+    private static final int BITS = 1024;
+    private static final int WORDS = BITS / 64;
+    private static final int MOLECULES = 3000;
+    private static final int SCAFFOLDS = 5;
+
+    private final Random random = new Random(42);
+    private final List<long[]> fingerprints = new ArrayList<>();
+    private final List<String> keys = new ArrayList<>();
+    private final List<long[]> scaffolds = new ArrayList<>();
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(3);
+        for (int i = 0; i < SCAFFOLDS; i++) {
+            scaffolds.add(randomFingerprint(0.1));
+        }
+        for (int i = 0; i < MOLECULES; i++) {
+            if (i % 2 == 0) {
+                // Densities from sparse to dense spread the molecules over many bit counts
+                fingerprints.add(randomFingerprint(0.01 + 0.3 * random.nextDouble()));
+            } else {
+                // Subsets and supersets of a scaffold are exactly as similar to it as
+                // their bit counts allow, so a search for it prunes right at its bound
+                long[] scaffold = scaffolds.get(random.nextInt(SCAFFOLDS));
+                long[] bits = randomFingerprint(random.nextDouble() * 0.2);
+                long[] fingerprint = new long[WORDS];
+                for (int w = 0; w < WORDS; w++) {
+                    fingerprint[w] = i % 4 == 1 ? scaffold[w] & ~bits[w] : scaffold[w] | bits[w];
+                }
+                fingerprints.add(fingerprint);
+            }
+            keys.add("M" + i);
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private long[] randomFingerprint(double density) {
+        long[] fingerprint = new long[WORDS];
+        for (int bit = 0; bit < BITS; bit++) {
+            if (random.nextDouble() < density) {
+                fingerprint[bit / 64] |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @return a copy of a fingerprint with some bits flipped, to have near neighbours
+     */
+    private long[] mutate(long[] fingerprint, int flips) {
+        long[] mutated = fingerprint.clone();
+        for (int i = 0; i < flips; i++) {
+            int bit = random.nextInt(BITS);
+            mutated[bit / 64] ^= 1L << bit;
+        }
+        return mutated;
+    }
+
+    private FingerprintIndex index(int shards) {
+        FingerprintIndex index = new FingerprintIndex(BITS, shards);
+        for (int i = 0; i < MOLECULES; i++) {
+            assertTrue(index.add(keys.get(i), keys.get(i), null, fingerprints.get(i)));
+        }
+        return index;
+    }
+
+    private List<SimilarityHit> bruteForce(long[] query, int k, double threshold) {
+        int queryCount = FingerprintIndex.cardinality(query);
+        List<SimilarityHit> hits = new ArrayList<>();
+        for (int i = 0; i < MOLECULES; i++) {
+            long[] fingerprint = fingerprints.get(i);
+            int common = 0;
+            for (int w = 0; w < WORDS; w++) {
+                common += Long.bitCount(query[w] & fingerprint[w]);
+            }
+            double similarity = (double) common / (queryCount + FingerprintIndex.cardinality(fingerprint) - common);
+            if (similarity > 0 && similarity >= threshold) {
+                hits.add(new SimilarityHit(keys.get(i), null, similarity));
+            }
+        }
+        hits.sort(Comparator.comparingDouble(SimilarityHit::getSimilarity).reversed()
+                .thenComparing(SimilarityHit::getSmiles));
+        return hits.size() > k ? hits.subList(0, k) : hits;
+    }
+
+    @Test
+    public void searchFindsTheBruteForceTopHits() {
+        for (int shards : new int[] { 1, 4 }) {
+            FingerprintIndex index = index(shards);
+            for (int q = 0; q < 60; q++) {
+                long[] query = q % 4 == 0 ? randomFingerprint(0.01 + 0.3 * random.nextDouble())
+                        : q % 4 == 1 ? scaffolds.get(q % SCAFFOLDS)
+                        : mutate(fingerprints.get(random.nextInt(MOLECULES)), q % 4 == 2 ? 0 : 20);
+                for (int k : new int[] { 1, 10, 100 }) {
+                    for (double threshold : new double[] { 0, 0.3, 0.9 }) {
+                        String context = shards + " shards, query " + q + ", k " + k + ", threshold " + threshold;
+                        assertSameHits(bruteForce(query, k, threshold), index.search(query, k, threshold, executor),
+                                context);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Hits tied at the k-th similarity may be any of the tied molecules, so only
+     * the similarities are compared there
+     */
+    private static void assertSameHits(List<SimilarityHit> expected, List<SimilarityHit> actual, String context) {
+        assertEquals(expected.size(), actual.size(), context);
+        if (expected.isEmpty()) {
+            return;
+        }
+        double last = expected.get(expected.size() - 1).getSimilarity();
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getSimilarity(), actual.get(i).getSimilarity(), context);
+            if (expected.get(i).getSimilarity() > last) {
+                assertEquals(expected.get(i).getSmiles(), actual.get(i).getSmiles(), context);
+            }
+        }
+    }
+
+    @Test
+    public void moleculesAreIndexedOnce() {
+        FingerprintIndex index = index(2);
+        assertFalse(index.add(keys.get(0), "other", null, fingerprints.get(1)));
+        assertEquals(MOLECULES, index.size());
+        assertTrue(index.contains(keys.get(0)));
+        assertEquals(keys.get(0), index.search(fingerprints.get(0), 1, 0, executor).get(0).getSmiles());
+    }
+}
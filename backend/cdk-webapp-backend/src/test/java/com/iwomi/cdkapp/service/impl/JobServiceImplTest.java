@@ -0,0 +1,196 @@
+package com.iwomi.cdkapp.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.iwomi.cdkapp.model.IngestProgress;
+import com.iwomi.cdkapp.model.JobStatus;
+import com.iwomi.cdkapp.model.JobStatus.State;
+import com.iwomi.cdkapp.service.BatchService;
+import com.iwomi.cdkapp.service.JobRejectedException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * A job holds one place in the queue from submission until it is cancelled or
+ * finishes, and cancelling must give that place back exactly once, whether the
+ * job was still queued or already running.
+ */
+public class JobServiceImplTest {
+
+    @TempDir
+    Path directory;
+
+    private BlockingBatchService batchService;
+    private JobServiceImpl jobs;
+
+    @BeforeEach
+    public void setUp() {
+        batchService = new BlockingBatchService();
+        // One job running and one waiting
+        jobs = new JobServiceImpl(batchService, 1, 1, 100, directory.toString(),
+                new PipelineMetrics(new SimpleMeterRegistry()));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        batchService.release.countDown();
+        jobs.shutdown();
+    }
+
+    private String submit() throws IOException {
+        return jobs.submit(target -> Files.write(target, "CCO ethanol\n".getBytes(StandardCharsets.UTF_8)), false,
+                BatchService.InputFormat.SMILES, null, BatchService.OutputFormat.DESCRIPTORS).getId();
+    }
+
+    private String awaitStarted() throws InterruptedException {
+        String id = batchService.started.poll(10, TimeUnit.SECONDS);
+        assertTrue(id != null, "No job started");
+        return id;
+    }
+
+    private JobStatus awaitFinished(String id) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        JobStatus status = jobs.getStatus(id);
+        while (status.getFinishedAt() == null) {
+            assertTrue(System.nanoTime() < deadline, "Job " + id + " did not finish");
+            Thread.sleep(1);
+            status = jobs.getStatus(id);
+        }
+        return status;
+    }
+
+    /**
+     * Fill the queue with a running and a waiting job, and check that no third one fits
+     */
+    private void assertCapacityIsTwo() throws Exception {
+        batchService.started.clear();
+        batchService.release = new CountDownLatch(1);
+        String running = submit();
+        assertEquals(running, awaitStarted());
+        String waiting = submit();
+        assertThrows(JobRejectedException.class, this::submit);
+        batchService.release.countDown();
+        assertEquals(State.SUCCEEDED, awaitFinished(running).getState());
+        assertEquals(State.SUCCEEDED, awaitFinished(waiting).getState());
+    }
+
+    @Test
+    public void cancellingAQueuedJobFreesOnePlace() throws Exception {
+        String running = submit();
+        assertEquals(running, awaitStarted());
+        String queued = submit();
+        assertThrows(JobRejectedException.class, this::submit);
+
+        JobStatus cancelled = jobs.cancel(queued);
+        assertEquals(State.CANCELLED, cancelled.getState());
+        String replacement = submit();
+        assertThrows(JobRejectedException.class, this::submit);
+        // Cancelling it again only forgets it
+        jobs.cancel(queued);
+        assertNull(jobs.getStatus(queued));
+        assertThrows(JobRejectedException.class, this::submit);
+
+        batchService.release.countDown();
+        assertEquals(State.SUCCEEDED, awaitFinished(running).getState());
+        assertEquals(State.SUCCEEDED, awaitFinished(replacement).getState());
+        assertFalse(batchService.ingested.contains(queued));
+        assertCapacityIsTwo();
+    }
+
+    @Test
+    public void cancellingARunningJobFreesOnePlace() throws Exception {
+        String running = submit();
+        assertEquals(running, awaitStarted());
+        String queued = submit();
+
+        assertEquals(State.CANCELLED, jobs.cancel(running).getState());
+        // The waiting job takes the runner once the cancelled one has wound down
+        assertEquals(queued, awaitStarted());
+        JobStatus cancelled = awaitFinished(running);
+        assertEquals(State.CANCELLED, cancelled.getState());
+        assertNull(cancelled.getError());
+        String next = submit();
+        assertThrows(JobRejectedException.class, this::submit);
+        // Cancelling it again only forgets it
+        jobs.cancel(running);
+        assertNull(jobs.getStatus(running));
+        assertThrows(JobRejectedException.class, this::submit);
+
+        batchService.release.countDown();
+        assertEquals(State.SUCCEEDED, awaitFinished(queued).getState());
+        assertEquals(State.SUCCEEDED, awaitFinished(next).getState());
+        assertCapacityIsTwo();
+    }
+
+    /**
+     * Ingests block until released, or fail once interrupted
+     */
+    private static final class BlockingBatchService implements BatchService {
+        final BlockingQueue<String> started = new LinkedBlockingQueue<>();
+        final BlockingQueue<String> ingested = new LinkedBlockingQueue<>();
+        volatile CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public IngestProgress ingest(String id, InputStream input, InputFormat format, List<String> descriptors,
+                OutputFormat outputFormat, ProgressListener listener) throws IOException {
+            ingested.add(id);
+            started.add(id);
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Cancelled");
+            }
+            return null;
+        }
+
+        @Override
+        public void process(Reader input, InputFormat format, OutputStream output, List<String> descriptors,
+                OutputFormat outputFormat) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public IngestProgress ingest(InputStream input, InputFormat format, List<String> descriptors,
+                OutputFormat outputFormat, ProgressListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public IngestProgress index(InputStream input, InputFormat format, ProgressListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Path getIngestResults(String id) {
+            return null;
+        }
+
+        @Override
+        public Path getIngestMatrix(String id) {
+            return null;
+        }
+    }
+}
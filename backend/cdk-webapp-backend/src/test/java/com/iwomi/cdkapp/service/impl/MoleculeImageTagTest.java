@@ -0,0 +1,63 @@
+package com.iwomi.cdkapp.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.iwomi.cdkapp.service.MoleculeImage;
+import com.iwomi.cdkapp.service.RenderOptions;
+import com.iwomi.cdkapp.util.CDKDescriptorLister;
+import com.iwomi.cdkapp.util.CDKToolkitPool;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * The image ETag is derived from the canonical SMILES, so inputs sharing a canonical
+ * SMILES must give byte-identical images for the tag to be a strong validator.
+ */
+public class MoleculeImageTagTest {
+
+    private static final String[][] EQUIVALENT = {
+            {"CCO", "OCC"},
+            {"c1ccccc1C(=O)O", "OC(=O)c1ccccc1"},
+            {"C1=CC=CC=C1C(=O)O", "OC(=O)C1=CC=CC=C1"},
+            {"C/C=C/c1ccccc1", "C\\C=C\\c1ccccc1"}};
+
+    private ParallelDescriptorCalculator calculator;
+    private MoleculeServiceImpl service;
+
+    @BeforeEach
+    public void setUp() {
+        // No caching: each image is drawn from the input it was requested with
+        PipelineMetrics metrics = new PipelineMetrics(new SimpleMeterRegistry());
+        calculator = new ParallelDescriptorCalculator(4, 60000, 120000, 1, metrics);
+        CDKDescriptorLister descriptorLister = new CDKDescriptorLister();
+        MoleculeStore store = new MoleculeStore(false, null, 0, metrics);
+        service = new MoleculeServiceImpl(new CDKToolkitPool(), descriptorLister, calculator,
+                new MoleculeRenderer(metrics), new MoleculeCache(0, 0, 0, 0), store,
+                new DescriptorTable(descriptorLister, store, "", metrics),
+                new AdmissionControl(descriptorLister, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 1, 0, 0,
+                        "", metrics), metrics);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        calculator.shutdown();
+    }
+
+    @Test
+    public void equivalentInputsGiveTheSameTagAndImage() {
+        for (RenderOptions.Format format : RenderOptions.Format.values()) {
+            RenderOptions options = RenderOptions.of(format, 300, 200);
+            for (String[] pair : EQUIVALENT) {
+                MoleculeImage first = service.getMoleculeImage(pair[0], options);
+                MoleculeImage second = service.getMoleculeImage(pair[1], options);
+                assertEquals(first.getTag(), second.getTag(), pair[0] + " and " + pair[1]);
+                assertArrayEquals(first.getData(), second.getData(), pair[0] + " and " + pair[1] + " as " + format);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.iwomi.cdkapp.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.iwomi.cdkapp.model.Descriptor;
+import com.iwomi.cdkapp.model.Molecule;
+import com.iwomi.cdkapp.util.CDKDescriptorLister;
+import com.iwomi.cdkapp.util.CDKToolkitPool;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Stress test: concurrent parsing must give the same results as serial parsing.
+ */
+public class MoleculeServiceImplConcurrencyTest {
+
+    private static final List<String> SMILES = Arrays.asList(
+            "CCO",
+            "OCC",
+            "c1ccccc1",
+            "CC(=O)OC1=CC=CC=C1C(=O)O",
+            "CN1C=NC2=C1C(=O)N(C(=O)N2C)C",
+            "CC(C)CC1=CC=C(C=C1)C(C)C(=O)O",
+            "C1CCC2(CC1)OCCO2",
+            "O=C(O)C[C@H](N)C(=O)O",
+            "CC(C)(C)NCC(O)c1ccc(O)c(CO)c1",
+            "C1=CC=C2C(=C1)C=CC=C2",
+            "N#Cc1ccc(cc1)C(F)(F)F",
+            "OC[C@H]1OC(O)[C@H](O)[C@@H](O)[C@@H]1O");
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 3;
+
+    private ParallelDescriptorCalculator calculator;
+    private MoleculeServiceImpl service;
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void setUp() {
+        // Generous budgets and no caching: this test is about concurrent computation
+        PipelineMetrics metrics = new PipelineMetrics(new SimpleMeterRegistry());
+        calculator = new ParallelDescriptorCalculator(4, 60000, 120000, 1, metrics);
+        CDKDescriptorLister descriptorLister = new CDKDescriptorLister();
+        MoleculeStore store = new MoleculeStore(false, null, 0, metrics);
+        service = new MoleculeServiceImpl(new CDKToolkitPool(), descriptorLister, calculator,
+                new MoleculeRenderer(metrics), new MoleculeCache(0, 0, 0, 0), store,
+                new DescriptorTable(descriptorLister, store, "", metrics),
+                new AdmissionControl(descriptorLister, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 1, 0, 0,
+                        "", metrics), metrics);
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+        calculator.shutdown();
+    }
+
+    @Test
+    public void concurrentParsingMatchesSerialParsing() throws Exception {
+        List<String> expected = new ArrayList<>();
+        for (String smiles : SMILES) {
+            expected.add(fingerprint(service.parseMoleculeFromSmiles(smiles)));
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> futures = new ArrayList<>();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (String smiles : SMILES) {
+                Callable<String> task = () -> {
+                    start.await();
+                    return fingerprint(service.parseMoleculeFromSmiles(smiles));
+                };
+                futures.add(executor.submit(task));
+            }
+        }
+        start.countDown();
+
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(expected.get(i % SMILES.size()), futures.get(i).get(),
+                    "Concurrent result differs for " + SMILES.get(i % SMILES.size()));
+        }
+    }
+
+    /**
+     * Reduce a parse result to the parts that must be deterministic: the molfile
+     * without its timestamped header and every descriptor value.
+     */
+    private static String fingerprint(Molecule molecule) {
+        StringBuilder sb = new StringBuilder();
+        String[] lines = molecule.getMolfile().split("\n");
+        for (int i = 3; i < lines.length; i++) {
+            sb.append(lines[i]).append('\n');
+        }
+        for (Descriptor descriptor : molecule.getDescriptors()) {
+            sb.append(descriptor.getId()).append('=').append(descriptor.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,165 @@
+package com.iwomi.cdkapp.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.iwomi.cdkapp.service.FingerprintType;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Records must survive reopening the store, later records must supersede earlier
+ * ones, and damaged or foreign segments must not be served.
+ */
+public class MoleculeStoreTest {
+
+    private static final int SEGMENT_BYTES = 1 << 16;
+
+    @TempDir
+    Path directory;
+
+    private final List<MoleculeStore> stores = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        for (MoleculeStore store : stores) {
+            store.close();
+        }
+    }
+
+    private MoleculeStore open() {
+        MoleculeStore store = new MoleculeStore(true, directory.toString(), SEGMENT_BYTES,
+                new PipelineMetrics(new SimpleMeterRegistry()));
+        stores.add(store);
+        return store;
+    }
+
+    private Path segment(int number) {
+        return directory.resolve(String.format("segment-%06d.dat", number));
+    }
+
+    @Test
+    public void reopenedStoreServesItsRecords() {
+        MoleculeStore store = open();
+        String id = store.addMolecule("CCO", "OCC", "ethanol");
+        long[] fingerprint = new long[FingerprintType.MACCS.getWords()];
+        fingerprint[0] = 0x5L;
+        fingerprint[2] = Long.MIN_VALUE;
+        store.putMolfile("CCO", "ethanol molfile");
+        store.putFingerprint("CCO", FingerprintType.MACCS, fingerprint);
+        assertEquals(id, store.addMolecule("CCO", "CCO"));
+        store.close();
+
+        MoleculeStore reopened = open();
+        assertEquals(id, reopened.getMoleculeId("CCO"));
+        assertEquals(id, reopened.addMolecule("CCO", "CCO"));
+        MoleculeStore.StoredMolecule molecule = reopened.getMolecule(id);
+        assertEquals("CCO", molecule.getCanonicalSmiles());
+        assertEquals("OCC", molecule.getSmiles());
+        assertEquals("ethanol", molecule.getName());
+        assertEquals("ethanol molfile", reopened.getMolfile("CCO"));
+        assertArrayEquals(fingerprint, reopened.getFingerprint("CCO", FingerprintType.MACCS));
+        assertNull(reopened.getFingerprint("CCO", FingerprintType.ECFP4));
+        assertNull(reopened.getMoleculeId("CCC"));
+
+        List<String> ids = new ArrayList<>();
+        reopened.forEachMolecule(stored -> ids.add(stored.getId()));
+        assertEquals(List.of(id), ids);
+    }
+
+    @Test
+    public void laterRecordSupersedesEarlierOne() {
+        MoleculeStore store = open();
+        store.putMolfile("CCO", "first");
+        store.putMolfile("CCO", "second");
+        assertEquals("second", store.getMolfile("CCO"));
+        store.close();
+
+        assertEquals("second", open().getMolfile("CCO"));
+    }
+
+    @Test
+    public void tornTrailingRecordIsDropped() throws IOException {
+        MoleculeStore store = open();
+        store.putMolfile("CCO", "complete record");
+        store.putMolfile("CCC", "torn record");
+        store.close();
+        // Damage the last record as a crash in the middle of writing it would
+        byte[] segment = Files.readAllBytes(segment(0));
+        int torn = indexOf(segment, "torn record".getBytes(StandardCharsets.UTF_8));
+        segment[torn] ^= 1;
+        Files.write(segment(0), segment);
+
+        MoleculeStore reopened = open();
+        assertEquals("complete record", reopened.getMolfile("CCO"));
+        assertNull(reopened.getMolfile("CCC"));
+        // Writing goes on in a new segment, leaving the damaged one as it is
+        reopened.putMolfile("CCC", "rewritten record");
+        assertTrue(Files.exists(segment(1)));
+        reopened.close();
+
+        MoleculeStore again = open();
+        assertEquals("complete record", again.getMolfile("CCO"));
+        assertEquals("rewritten record", again.getMolfile("CCC"));
+    }
+
+    @Test
+    public void otherVersionContributesMoleculeIdsOnly() throws IOException {
+        MoleculeStore store = open();
+        String id = store.addMolecule("CCO", "CCO");
+        store.putMolfile("CCO", "molfile of another version");
+        store.close();
+        // The segment header is the magic number and the CDK version that wrote it
+        byte[] segment = Files.readAllBytes(segment(0));
+        int version = indexOf(segment, "cdk-".getBytes(StandardCharsets.UTF_8));
+        segment[version + 3] = '_';
+        Files.write(segment(0), segment);
+
+        MoleculeStore reopened = open();
+        assertEquals(id, reopened.getMoleculeId("CCO"));
+        assertNull(reopened.getMolfile("CCO"));
+        reopened.putMolfile("CCO", "molfile of this version");
+        assertEquals("molfile of this version", reopened.getMolfile("CCO"));
+        reopened.close();
+
+        MoleculeStore again = open();
+        assertEquals(id, again.getMoleculeId("CCO"));
+        assertEquals("molfile of this version", again.getMolfile("CCO"));
+    }
+
+    @Test
+    public void disabledStoreHandsOutFreshIds() {
+        MoleculeStore store = new MoleculeStore(false, null, 0, new PipelineMetrics(new SimpleMeterRegistry()));
+        assertNotEquals(store.addMolecule("CCO", "CCO"), store.addMolecule("CCO", "CCO"));
+        assertNull(store.getMoleculeId("CCO"));
+        store.putMolfile("CCO", "molfile");
+        assertNull(store.getMolfile("CCO"));
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        for (int i = 0; i + pattern.length <= data.length; i++) {
+            int j = 0;
+            while (j < pattern.length && data[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        throw new AssertionError("Pattern not found");
+    }
+}
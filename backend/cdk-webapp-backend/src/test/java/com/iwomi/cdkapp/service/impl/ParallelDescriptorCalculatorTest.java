@@ -0,0 +1,151 @@
+package com.iwomi.cdkapp.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.silent.AtomContainer;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+import org.openscience.cdk.smiles.SmilesParser;
+
+import com.iwomi.cdkapp.util.CDKDescriptorLister;
+import com.iwomi.cdkapp.util.DescriptorRegistry;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * A descriptor that overruns its budget, or the request's, must be reported as timed
+ * out, and one that fails, even with an Error, as failed, without holding up the
+ * results of the others.
+ */
+public class ParallelDescriptorCalculatorTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private SimpleMeterRegistry meterRegistry;
+    private DescriptorRegistry registry;
+    private IAtomContainer molecule;
+    private ParallelDescriptorCalculator calculator;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        meterRegistry = new SimpleMeterRegistry();
+        registry = new CDKDescriptorLister().getRegistry()
+                .select(Arrays.asList("WeightDescriptor", "RotatableBondsCountDescriptor", "TPSADescriptor"));
+        molecule = new SmilesParser(SilentChemObjectBuilder.getInstance()).parseSmiles("CCOC(=O)c1ccccc1");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        release.countDown();
+        calculator.shutdown();
+    }
+
+    /**
+     * Calculate every descriptor, the first one stalled until the test ends
+     */
+    private DescriptorResult[] calculate() {
+        DescriptorRegistry.Entry slow = registry.get(0);
+        IAtomContainer stalled = new StalledMolecule(molecule, release);
+        return calculator.calculate(entry -> entry == slow ? stalled : molecule, registry, false, entry -> null);
+    }
+
+    private void assertPartialResults(DescriptorResult[] results) {
+        assertEquals(registry.size(), results.length);
+        assertEquals(DescriptorResult.Status.TIMED_OUT, results[0].getStatus());
+        assertNotNull(results[0].getMessage());
+        for (int i = 1; i < results.length; i++) {
+            assertEquals(DescriptorResult.Status.OK, results[i].getStatus(), registry.get(i).getName());
+            assertNotNull(results[i].getValue());
+        }
+    }
+
+    @Test
+    public void descriptorOverrunningItsBudgetIsTimedOut() {
+        calculator = new ParallelDescriptorCalculator(4, 200, 60000, 1, new PipelineMetrics(meterRegistry));
+        long start = System.nanoTime();
+        DescriptorResult[] results = calculate();
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30), "Waited for the stalled descriptor");
+        assertPartialResults(results);
+    }
+
+    @Test
+    public void descriptorOverrunningTheRequestBudgetIsTimedOut() {
+        calculator = new ParallelDescriptorCalculator(4, 60000, 500, 1, new PipelineMetrics(meterRegistry));
+        long start = System.nanoTime();
+        DescriptorResult[] results = calculate();
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30), "Waited for the stalled descriptor");
+        assertPartialResults(results);
+        // Timed out by the calling thread, so counted before it returns
+        assertEquals(1, meterRegistry.get(PipelineMetrics.DESCRIPTOR_FAILURES).tag("reason", "timeout").counter()
+                .count());
+    }
+
+    @Test
+    public void descriptorThrowingAnErrorFailsAtOnce() {
+        calculator = new ParallelDescriptorCalculator(4, 60000, 60000, 1, new PipelineMetrics(meterRegistry));
+        DescriptorRegistry.Entry failing = registry.get(0);
+        IAtomContainer broken = new BrokenMolecule(molecule);
+        long start = System.nanoTime();
+        DescriptorResult[] results = calculator.calculate(entry -> entry == failing ? broken : molecule, registry,
+                false, entry -> null);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30), "Waited out the budget");
+
+        assertEquals(DescriptorResult.Status.ERROR, results[0].getStatus());
+        assertEquals("StackOverflowError", results[0].getMessage());
+        for (int i = 1; i < results.length; i++) {
+            assertEquals(DescriptorResult.Status.OK, results[i].getStatus(), registry.get(i).getName());
+        }
+        assertEquals(1, meterRegistry.get(PipelineMetrics.DESCRIPTOR_FAILURES).tag("reason", "error").counter()
+                .count());
+    }
+
+    /**
+     * A molecule whose copy, which the worker makes within the descriptor's budget,
+     * takes until it is released
+     */
+    private static final class StalledMolecule extends AtomContainer {
+        private static final long serialVersionUID = 1L;
+
+        private final transient CountDownLatch release;
+
+        StalledMolecule(IAtomContainer molecule, CountDownLatch release) {
+            super(molecule);
+            this.release = release;
+        }
+
+        @Override
+        public IAtomContainer clone() throws CloneNotSupportedException {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.clone();
+        }
+    }
+
+    /**
+     * A molecule whose copy, which the worker makes as part of the descriptor's work,
+     * throws an Error
+     */
+    private static final class BrokenMolecule extends AtomContainer {
+        private static final long serialVersionUID = 1L;
+
+        BrokenMolecule(IAtomContainer molecule) {
+            super(molecule);
+        }
+
+        @Override
+        public IAtomContainer clone() {
+            throw new StackOverflowError();
+        }
+    }
+}
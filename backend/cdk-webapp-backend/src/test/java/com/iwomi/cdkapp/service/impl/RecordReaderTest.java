@@ -0,0 +1,88 @@
+package com.iwomi.cdkapp.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import com.iwomi.cdkapp.service.BatchService.InputFormat;
+
+/**
+ * Records must be split at every kind of line break, however the input arrives,
+ * and lines or records beyond the size cap must give an error record and leave
+ * the following records intact.
+ */
+public class RecordReaderTest {
+
+    private static final String TOO_LONG = "Record exceeds " + RecordReader.MAX_RECORD_CHARS + " characters";
+
+    /**
+     * Hands out the input at most a few characters per read, so line breaks fall
+     * across buffer refills
+     */
+    private static Reader chunked(String input, int chunk) {
+        return new FilterReader(new StringReader(input)) {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                return super.read(buffer, offset, Math.min(length, chunk));
+            }
+        };
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static void assertRecord(long index, String text, String error, RecordReader.Record record) {
+        assertEquals(index, record.index);
+        assertEquals(text, record.text);
+        assertEquals(error, record.error);
+    }
+
+    @Test
+    public void smilesLinesEndWithAnyLineBreak() throws IOException {
+        String input = "CCO ethanol\r\n# comment\n\n  c1ccccc1  \rCC(=O)O\r\r\nCCN";
+        for (int chunk : new int[] { 1, 2, 3, 1 << 20 }) {
+            RecordReader records = new RecordReader(chunked(input, chunk), InputFormat.SMILES);
+            assertRecord(0, "CCO ethanol", null, records.next());
+            assertRecord(1, "c1ccccc1", null, records.next());
+            assertRecord(2, "CC(=O)O", null, records.next());
+            assertRecord(3, "CCN", null, records.next());
+            assertNull(records.next());
+        }
+    }
+
+    @Test
+    public void overlongSmilesLineGivesAnErrorRecord() throws IOException {
+        String input = "CCO\n" + repeat('C', RecordReader.MAX_RECORD_CHARS + 10) + "\r\nc1ccccc1\n"
+                + repeat('C', RecordReader.MAX_RECORD_CHARS) + "\n" + repeat('N', RecordReader.MAX_RECORD_CHARS + 1);
+        RecordReader records = new RecordReader(new StringReader(input), InputFormat.SMILES);
+        assertRecord(0, "CCO", null, records.next());
+        assertRecord(1, null, TOO_LONG, records.next());
+        assertRecord(2, "c1ccccc1", null, records.next());
+        assertEquals(RecordReader.MAX_RECORD_CHARS, records.next().text.length());
+        assertRecord(4, null, TOO_LONG, records.next());
+        assertNull(records.next());
+    }
+
+    @Test
+    public void overlongSdLineGivesAnErrorRecord() throws IOException {
+        String molfile = "ethanol\n  CDK\n\nM  END\n";
+        String input = molfile + "> <name>\nethanol\n\n$$$$\r\n"
+                + "broken\n" + repeat('x', RecordReader.MAX_RECORD_CHARS + 1) + "\nM  END\n$$$$\n"
+                + molfile + "$$$$\n";
+        RecordReader records = new RecordReader(chunked(input, 4096), InputFormat.SDF);
+        assertRecord(0, molfile, null, records.next());
+        assertRecord(1, null, TOO_LONG, records.next());
+        assertRecord(2, molfile, null, records.next());
+        assertNull(records.next());
+    }
+}
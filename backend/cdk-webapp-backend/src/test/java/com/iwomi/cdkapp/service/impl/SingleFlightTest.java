@@ -0,0 +1,141 @@
+package com.iwomi.cdkapp.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Requests arriving while an identical computation runs must wait for it and share
+ * its result or its exception, and the key must be forgotten once it finishes.
+ */
+public class SingleFlightTest {
+
+    private static final int FOLLOWERS = 3;
+
+    private SimpleMeterRegistry registry;
+    private SingleFlight flights;
+
+    @BeforeEach
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        flights = new SingleFlight(new PipelineMetrics(registry));
+    }
+
+    @Test
+    public void concurrentRequestsShareOneResult() throws Exception {
+        AtomicInteger computations = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        Object[] results = runConcurrently(release, () -> {
+            computations.incrementAndGet();
+            await(release);
+            return new Object();
+        });
+
+        assertEquals(1, computations.get());
+        for (Object result : results) {
+            assertSame(results[0], result);
+        }
+        assertEquals(1, registry.get(PipelineMetrics.SINGLE_FLIGHT_COMPUTED).counter().count());
+        assertEquals(FOLLOWERS, registry.get(PipelineMetrics.SINGLE_FLIGHT_SHARED).timer().count());
+    }
+
+    @Test
+    public void concurrentRequestsShareOneException() throws Exception {
+        AtomicInteger computations = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        IllegalStateException failure = new IllegalStateException("layout failed");
+        Object[] results = runConcurrently(release, () -> {
+            computations.incrementAndGet();
+            await(release);
+            throw failure;
+        });
+
+        assertEquals(1, computations.get());
+        for (Object result : results) {
+            assertSame(failure, result);
+        }
+    }
+
+    @Test
+    public void finishedComputationsAreNotReused() {
+        AtomicInteger computations = new AtomicInteger();
+        Supplier<Integer> work = computations::incrementAndGet;
+        assertEquals(1, flights.run("image", "CCO", work));
+        assertEquals(2, flights.run("image", "CCO", work));
+        assertEquals(3, flights.run("molfile", "CCO", work));
+
+        assertThrows(IllegalStateException.class, () -> flights.run("image", "CCO", () -> {
+            throw new IllegalStateException();
+        }));
+        assertEquals(4, flights.run("image", "CCO", work));
+    }
+
+    /**
+     * Start a leader running the work, then followers for the same key once the
+     * leader is inside it, and release the leader once every follower waits on it
+     * @return what each thread got, the leader's first: its result or what it threw
+     */
+    private Object[] runConcurrently(CountDownLatch release, Supplier<Object> work) throws InterruptedException {
+        AtomicReferenceArray<Object> results = new AtomicReferenceArray<>(FOLLOWERS + 1);
+        CountDownLatch started = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        threads.add(start(results, 0, () -> {
+            started.countDown();
+            return work.get();
+        }));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        for (int i = 1; i <= FOLLOWERS; i++) {
+            Thread follower = start(results, i, work);
+            threads.add(follower);
+            // Parked in join(), waiting for the leader
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (follower.getState() != Thread.State.WAITING) {
+                assertTrue(System.nanoTime() < deadline, "Follower did not wait for the leader");
+                Thread.sleep(1);
+            }
+        }
+        release.countDown();
+
+        Object[] all = new Object[FOLLOWERS + 1];
+        for (int i = 0; i < threads.size(); i++) {
+            threads.get(i).join(TimeUnit.SECONDS.toMillis(10));
+            all[i] = results.get(i);
+        }
+        return all;
+    }
+
+    private Thread start(AtomicReferenceArray<Object> results, int index, Supplier<Object> work) {
+        Thread thread = new Thread(() -> {
+            try {
+                results.set(index, flights.run("layout", "c1ccccc1", work));
+            } catch (RuntimeException e) {
+                results.set(index, e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -100,7 +100,10 @@ function App() {
       setLoading(true);
       setError('');
       
-      const response = await axios.post(`${API_BASE_URL}/molecules/parse`, { smiles: smilesString });
+      const response = await axios.post(`${API_BASE_URL}/molecules/parse`, {
+        smiles: smilesString,
+        imageFormat: 'svg'
+      });
       
       // Add category information to each descriptor for better organization
       if (response.data && response.data.descriptors) {
@@ -19,7 +19,9 @@ const MoleculeCard = ({ molecule }) => {
         <div className="molecule-main">
           <div className="molecule-image-container">
             <img
-              src={`data:image/png;base64,${molecule.imageBase64}`}
+              src={molecule.imageSvg
+                ? `data:image/svg+xml;charset=utf-8,${encodeURIComponent(molecule.imageSvg)}`
+                : `data:image/png;base64,${molecule.imageBase64}`}
               alt="Molecule structure"
               className="molecule-image"
             />